@@ -0,0 +1,241 @@
+package owg.steam;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.games.input.Component.Identifier;
+import net.java.games.input.Event;
+
+/**Benchmarks for the input hot paths, driven by synthetic or recorded reports.<br>
+ * <br>
+ * Each operation handles one report or one poll for one controller, 
+ * visiting the controllers in turn, so ns/op is the cost per report and ops/s is reports per second.
+ * Controllers are created with a {@link SteamControllerSimulatedTransport}, but the controller thread is not started;
+ * the benchmarks call into the {@link SteamControllerThreadTask} directly.
+ * @see SteamControllerBenchmarkMain*/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class SteamControllerBenchmark
+{
+	/**Number of controllers that the reports are spread over*/
+	@Param({"1", "4", "16"})
+	public int controllers;
+	
+	/**Path of a recording made with {@link SteamController#PROP_RECORD_FILE}, or empty to use synthetic reports*/
+	@Param({""})
+	public String recording;
+	
+	protected SteamController[] cs;
+	protected SteamControllerThreadTask[] tasks;
+	protected byte[][] reports;
+	protected SCPairedAxis axis;
+	protected SteamControllerRadialResponse response;
+	/**Random stick positions for the radial response benchmarks, as x, y pairs*/
+	protected final float[] positions = new float[2*4096];
+	protected final float[] pair = new float[2];
+	protected int positionIndex = 0;
+	protected final Event event = new Event();
+	protected int nextReport = 0;
+	protected int nextController = 0;
+	
+	@Setup
+	public void setup() throws IOException
+	{
+		SteamController.properties = new Properties();
+		reports = recording.isEmpty() ? syntheticReports(4096) : recordedReports(new File(recording));
+		cs = new SteamController[controllers];
+		tasks = new SteamControllerThreadTask[controllers];
+		for(int i = 0; i<controllers; i++)
+		{
+			SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRED, i, 
+					(byte)0x83, (short)2, 2);
+			cs[i] = new SteamController(null, device, new SteamControllerSimulatedTransport(device, 0));
+			tasks[i] = cs[i].threadTask;
+			tasks[i].open();
+			tasks[i].connected = true;
+		}
+		axis = (SCPairedAxis) cs[0].getComponent(Identifier.Axis.X_FORCE);
+		response = tasks[0].config.leftStickResponse;
+		Random random = new Random(1);
+		for(int i = 0; i<positions.length; i++)
+			positions[i] = random.nextFloat()*2-1;
+		//Bring every controller into a steady state
+		for(int i = 0; i<reports.length; i++)
+			processInputData();
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		for(SteamControllerThreadTask t : tasks)
+			t.cleanup();
+	}
+	
+	protected static byte[][] syntheticReports(int count) throws IOException
+	{
+		SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRED, 0, (byte)0x83, (short)2, 2);
+		SteamControllerSimulatedTransport sim = new SteamControllerSimulatedTransport(device, 0);
+		sim.open();
+		ByteBuffer data = ByteBuffer.allocateDirect(64);
+		IntBuffer transferred = ByteBuffer.allocateDirect(4).asIntBuffer();
+		byte[][] r = new byte[count][];
+		for(int i = 0; i<count; )
+		{
+			sim.read(data, transferred, 1L);
+			if(data.get(2) == SteamController.EV_INPUT_DATA)
+			{
+				r[i] = new byte[64];
+				data.get(r[i]);
+				data.rewind();
+				i++;
+			}
+		}
+		sim.close();
+		return r;
+	}
+	
+	protected static byte[][] recordedReports(File file) throws IOException
+	{
+		SteamControllerRecording rec = new SteamControllerRecording(file);
+		ByteBuffer data = ByteBuffer.allocate(64);
+		ArrayList<byte[]> r = new ArrayList<byte[]>();
+		for(long i = 0; i<rec.size(); i++)
+		{
+			if(rec.getType(i) == SteamControllerRecording.TYPE_REPORT)
+			{
+				rec.getReport(i, data);
+				r.add(data.array().clone());
+			}
+		}
+		if(r.isEmpty())
+			throw new IOException(rec+" contains no reports");
+		return r.toArray(new byte[r.size()][]);
+	}
+	
+	protected byte[] nextReport()
+	{
+		byte[] r = reports[nextReport];
+		if(++nextReport == reports.length)
+			nextReport = 0;
+		return r;
+	}
+	
+	protected int nextController()
+	{
+		int c = nextController;
+		if(++nextController == controllers)
+			nextController = 0;
+		return c;
+	}
+	
+	/**Places the next report in the task's transfer buffer, as a completed transfer would.*/
+	protected void feed(SteamControllerThreadTask t)
+	{
+		t.data.put(nextReport());
+		t.data.rewind();
+	}
+
+	@Benchmark
+	public SteamControllerThreadTask processInputData()
+	{
+		SteamControllerThreadTask t = tasks[nextController()];
+		feed(t);
+		t.processInputData();
+		return t;
+	}
+
+	/**Polls without any new reports since the last poll.*/
+	@Benchmark
+	public SteamControllerData poll() throws IOException
+	{
+		int c = nextController();
+		tasks[c].poll(cs[c].data);
+		return cs[c].data;
+	}
+
+	/**Processes one report, then polls and drains all resulting events, as {@link SteamController#poll()} would.*/
+	@Benchmark
+	public int getNextDeviceEvent() throws IOException
+	{
+		int c = nextController();
+		feed(tasks[c]);
+		tasks[c].processInputData();
+		cs[c].pollDevice();
+		int events = 0;
+		while(cs[c].getNextDeviceEvent(event))
+			events++;
+		return events;
+	}
+
+	/**Decodes the next report into the task's current state, without handing it to the application.*/
+	@Benchmark
+	public SteamControllerState decode()
+	{
+		SteamControllerThreadTask t = tasks[nextController()];
+		System.arraycopy(nextReport(), 0, t.lPadData, 0, 64);
+		t.decode();
+		return t.decoded;
+	}
+
+	@Benchmark
+	public float pollFrom()
+	{
+		return axis.pollFrom(cs[0].data.state);
+	}
+
+	protected float[] nextPosition()
+	{
+		pair[0] = positions[positionIndex];
+		pair[1] = positions[positionIndex+1];
+		positionIndex = (positionIndex+2)&(positions.length-1);
+		return pair;
+	}
+
+	/**Maps a stick position with the precomputed radial response, as {@link #decode()} does.*/
+	@Benchmark
+	public float radialResponse()
+	{
+		float[] p = nextPosition();
+		response.map(p, 0, 1);
+		return p[0]+p[1];
+	}
+
+	/**Maps a stick position with the exact computation that the radial response approximates.*/
+	@Benchmark
+	public float radialReference()
+	{
+		float[] p = nextPosition();
+		SteamControllerRadialReference.map(p, 0, 1, response);
+		return p[0]+p[1];
+	}
+
+	@Benchmark
+	public float val16()
+	{
+		byte[] r = nextReport();
+		return SCUtil.val16(r, 16)+SCUtil.val16(r, 18);
+	}
+}
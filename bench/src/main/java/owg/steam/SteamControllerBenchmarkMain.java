@@ -0,0 +1,46 @@
+package owg.steam;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**Runs {@link SteamControllerBenchmark} twice with the GC profiler: 
+ * once for reports per second (throughput), and once for ns/op (average time).
+ * The allocation rate is reported by the profiler as gc.alloc.rate and gc.alloc.rate.norm (bytes per report).
+ * Then runs {@link SteamControllerExecutionBenchmark} to compare the execution strategies.<br>
+ * Any arguments are passed to JMH, e.g. <code>-p recording=input.rec</code> or <code>-p controllers=16</code>.*/
+public class SteamControllerBenchmarkMain
+{
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		Options throughput = new OptionsBuilder()
+				.parent(cmd)
+				.include(SteamControllerBenchmark.class.getName())
+				.mode(Mode.Throughput)
+				.timeUnit(TimeUnit.SECONDS)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(throughput).run();
+		
+		Options averageTime = new OptionsBuilder()
+				.parent(cmd)
+				.include(SteamControllerBenchmark.class.getName())
+				.mode(Mode.AverageTime)
+				.timeUnit(TimeUnit.NANOSECONDS)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(averageTime).run();
+		
+		Options execution = new OptionsBuilder()
+				.parent(cmd)
+				.include(SteamControllerExecutionBenchmark.class.getName())
+				.build();
+		new Runner(execution).run();
+	}
+}
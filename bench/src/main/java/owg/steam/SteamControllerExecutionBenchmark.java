@@ -0,0 +1,111 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.java.games.input.Event;
+
+/**Benchmark for the execution strategies, see {@link SteamController#PROP_EXECUTION}.<br>
+ * <br>
+ * The plugin is started with simulated controllers that produce reports as fast as they can be processed,
+ * and each operation polls every controller and drains its events, as an application would.
+ * The <code>reports</code> counter is the number of reports that reached the application during an iteration, over all controllers,
+ * and <code>staleness</code> is the average age in nanoseconds of the polled state, per controller and poll.
+ * @see SteamControllerBenchmarkMain*/
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class SteamControllerExecutionBenchmark
+{
+	@Param({"0", "1", "2", "3"})
+	public int execution;
+	
+	@Param({"1", "8"})
+	public int controllers;
+	
+	protected SteamControllerPlugin plugin;
+	protected SteamController[] cs;
+	protected long[] generations;
+	protected final Event event = new Event();
+	
+	public long reports;
+	protected long staleNanos;
+	protected long polls;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException, ExecutionException
+	{
+		SteamController.properties = new Properties();
+		SteamController.properties.setProperty(SteamController.PROP_SIMULATED_CONTROLLERS, Integer.toString(controllers));
+		SteamController.properties.setProperty(SteamController.PROP_SIMULATED_REPORT_RATE, "0");
+		SteamController.properties.setProperty(SteamController.PROP_EXECUTION, Integer.toString(execution));
+		plugin = new SteamControllerPlugin();
+		cs = (SteamController[]) plugin.getControllers();
+		//Don't measure the startup
+		for(SteamController c : cs)
+			c.getStartup().get();
+		generations = new long[cs.length];
+	}
+	
+	@Setup(Level.Iteration)
+	public void reset()
+	{
+		reports = 0;
+		staleNanos = 0;
+		polls = 0;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		plugin.shutdown();
+	}
+	
+	public long staleness()
+	{
+		return polls == 0 ? 0 : staleNanos/polls;
+	}
+	
+	@Benchmark
+	public int poll()
+	{
+		int events = 0;
+		for(int i = 0; i<cs.length; i++)
+		{
+			SteamController c = cs[i];
+			c.poll();
+			while(c.getEventQueue().getNextEvent(event))
+				events++;
+			SteamControllerState s = c.data.state;
+			reports += s.generation-generations[i];
+			generations[i] = s.generation;
+			if(s.generation != 0)
+			{
+				staleNanos += System.nanoTime()-s.lastUpdateTimeNanos;
+				polls++;
+			}
+		}
+		return events;
+	}
+}
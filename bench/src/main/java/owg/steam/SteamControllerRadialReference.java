@@ -0,0 +1,41 @@
+package owg.steam;
+
+/**Exact radial response of a stick or pad, computed with a square root and the curve for every pair.<br>
+ * <br>
+ * The controller uses the precomputed {@link SteamControllerRadialResponse} instead; this is the mapping that it approximates, 
+ * kept here to measure the table against it.*/
+public class SteamControllerRadialReference
+{
+	/**Applies the radial dead zone, edge zone and response curve to the pair of raw values at the given indices, in place.*/
+	public static void map(float[] axes, int x, int y, float deadZone, float edgeZone, SteamControllerResponseCurve curve)
+	{
+		float primary = axes[x];
+		float secondary = axes[y];
+		double src = Math.sqrt(primary*primary+secondary*secondary);
+		if(src <= deadZone)
+		{
+			axes[x] = 0.0f;
+			axes[y] = 0.0f;
+			return;
+		}
+
+		double div = 1.0-deadZone-edgeZone;
+		double dst;
+		if(div <= 0)
+		{
+			//Normalize
+			dst = curve.apply(1.0f);
+		}
+		else
+			dst = curve.apply((float)Math.min(1.0, (src-deadZone)/div));
+		double scale = dst/src;
+		axes[x] = (float) (primary * scale);
+		axes[y] = (float) (secondary * scale);
+	}
+	
+	/**Applies the same mapping as the given response.*/
+	public static void map(float[] axes, int x, int y, SteamControllerRadialResponse response)
+	{
+		map(axes, x, y, response.deadZone, response.edgeZone, response.curve);
+	}
+}
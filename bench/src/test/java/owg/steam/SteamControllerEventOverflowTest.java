@@ -0,0 +1,235 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import net.java.games.input.Event;
+
+/**Tests for the event overflow policies and resizing the event queue, with button presses replayed from a recording.*/
+public class SteamControllerEventOverflowTest
+{
+	protected File file;
+	protected SteamController controller;
+	protected SteamControllerThreadTask task;
+	protected final Event event = new Event();
+	/**Three enabled buttons in the first byte of the button field*/
+	protected int a, b, c;
+	
+	@AfterEach
+	public void tearDown()
+	{
+		if(task != null)
+			task.cleanup();
+		if(file != null)
+			file.delete();
+		SteamController.properties = System.getProperties();
+	}
+	
+	/**Records an input report for each of the given button states, and creates a controller that replays them.
+	 * Each state is a combination of 1, 2 and 4 for the buttons a, b and c.*/
+	protected void replay(Properties properties, int... buttons) throws IOException
+	{
+		int[] bits = new int[3];
+		int n = 0;
+		for(SCComponent comp : SteamController.componentArray(properties))
+		{
+			if(comp instanceof SCButton && !(comp instanceof DisabledSCButton) && comp.buttonBit < 0x100 && n < bits.length)
+				bits[n++] = comp.buttonBit;
+		}
+		assertEquals(bits.length, n);
+		a = bits[0];
+		b = bits[1];
+		c = bits[2];
+		
+		file = File.createTempFile("screc", ".rec");
+		SteamControllerRecorder recorder = new SteamControllerRecorder(file);
+		SteamControllerClock clock = new SteamControllerClock()
+		{
+			long nanos = 0;
+			@Override
+			public long nanoTime()
+			{
+				return nanos += 1000000L;
+			}
+		};
+		ByteBuffer report = ByteBuffer.allocate(64);
+		for(int i = 0; i<buttons.length; i++)
+		{
+			int pressed = (buttons[i]&1)*a | (buttons[i]&2)/2*b | (buttons[i]&4)/4*c;
+			report.put(0, (byte)0x01);
+			report.put(2, SteamController.EV_INPUT_DATA);
+			report.put(3, (byte)0x3c);
+			report.putInt(4, Integer.reverseBytes(i));
+			report.put(8, (byte)pressed);
+			recorder.record(clock, SteamControllerRecording.TYPE_REPORT, 0, report);
+		}
+		recorder.close();
+		
+		SteamController.properties = properties;
+		SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRED, 0, (byte)0x81, (short)2, 2);
+		controller = new SteamController(null, device, new SteamControllerReplayTransport(new SteamControllerRecording(file), 0, false));
+		task = controller.threadTask;
+		task.pointer = null;
+		task.open();
+		task.init();
+		assertTrue(task.connected);
+	}
+	
+	protected static Properties overflow(int policy)
+	{
+		Properties p = new Properties();
+		p.setProperty(SteamController.PROP_EVENT_OVERFLOW, Integer.toString(policy));
+		return p;
+	}
+	
+	/**Processes the given number of recorded reports.*/
+	protected void step(int reports)
+	{
+		for(int i = 0; i<reports; i++)
+			assertTrue(task.run(0));
+	}
+	
+	/**Reads the available events of the controller's own reader, as "button=value" with the buttons named a, b and c.*/
+	protected List<String> read()
+	{
+		SteamControllerEventReader r = controller.data.events;
+		r.update();
+		ArrayList<String> events = new ArrayList<String>();
+		while(r.next(event))
+		{
+			int bit = ((SCComponent)event.getComponent()).buttonBit;
+			events.add((bit == a ? "a" : bit == b ? "b" : bit == c ? "c" : Integer.toHexString(bit))+"="+(int)event.getValue());
+		}
+		return events;
+	}
+	
+	/**Returns button states that tap the button the given number of times.*/
+	protected static int[] taps(int button, int count)
+	{
+		int[] r = new int[2*count];
+		for(int i = 0; i<count; i++)
+			r[2*i] = button;
+		return r;
+	}
+	
+	@Test
+	public void replayedPressesAreRead() throws IOException
+	{
+		replay(new Properties(), 1, 3, 2, 0, 4, 0);
+		step(6);
+		assertEquals(Arrays.asList("a=1", "b=1", "a=0", "b=0", "c=1", "c=0"), read());
+		task.run(0);
+		assertEquals(0, read().size());
+	}
+	
+	@Test
+	public void dropOldestOverwrites() throws IOException
+	{
+		replay(new Properties(), taps(1, 20));
+		task.setEventQueueSize(8);
+		step(40);
+		List<String> events = read();
+		assertEquals(8, events.size());
+		assertEquals("a=1", events.get(0));
+		assertEquals(32, controller.data.events.getLostEvents());
+		assertEquals(32, controller.getLostEvents());
+	}
+	
+	@Test
+	public void dropNewestKeepsOldest() throws IOException
+	{
+		replay(overflow(SteamController.OVERFLOW_DROP_NEWEST), taps(1, 20));
+		task.setEventQueueSize(8);
+		step(40);
+		assertEquals(32, task.droppedEvents);
+		List<String> events = read();
+		assertEquals(8, events.size());
+		assertEquals("a=1", events.get(0));
+		assertEquals("a=0", events.get(7));
+		assertEquals(0, controller.data.events.getLostEvents());
+		assertEquals(32, controller.getLostEvents());
+	}
+	
+	/**A tap that happens while the queue is full is held back, and reaches the application as a press and a release.*/
+	@Test
+	public void coalesceNeverDropsRelease() throws IOException
+	{
+		replay(overflow(SteamController.OVERFLOW_COALESCE), 1, 0, 2, 0, 1, 0, 4, 4, 6, 4, 0);
+		task.setEventQueueSize(4);
+		step(4);
+		//Full: the tap of a, and the press of c are coalesced
+		step(3);
+		assertTrue(task.coalescedEvents > 0);
+		assertEquals(Arrays.asList("a=1", "a=0", "b=1", "b=0"), read());
+		//The next report sends them, but the tap of b does not fit any more
+		step(2);
+		assertEquals(Arrays.asList("a=1", "a=0", "c=1", "b=1"), read());
+		step(2);
+		assertEquals(Arrays.asList("b=0", "c=0"), read());
+		assertEquals(0, controller.data.events.getLostEvents());
+		assertEquals(0, task.droppedEvents);
+	}
+	
+	@Test
+	public void coalescedReleaseIsKept() throws IOException
+	{
+		//b is pressed before the queue overflows and released while it is full
+		replay(overflow(SteamController.OVERFLOW_COALESCE), 2, 3, 2, 3, 1, 0, 0);
+		task.setEventQueueSize(4);
+		step(6);
+		assertEquals(Arrays.asList("b=1", "a=1", "a=0", "a=1"), read());
+		step(1);
+		//Every press ends up with its release, in the order of the buttons
+		assertEquals(Arrays.asList("a=0", "b=0"), read());
+	}
+	
+	@Test
+	public void growUpToMaximum() throws IOException
+	{
+		Properties p = overflow(SteamController.OVERFLOW_GROW);
+		p.setProperty(SteamController.PROP_MAX_EVENT_QUEUE_SIZE, "16");
+		replay(p, taps(1, 15));
+		task.setEventQueueSize(4);
+		step(12);
+		assertEquals(16, task.events.size());
+		assertEquals(12, read().size());
+		step(18);
+		assertEquals(16, task.events.size());
+		assertEquals(16, read().size());
+		assertEquals(2, controller.data.events.getLostEvents());
+	}
+	
+	@Test
+	public void resizeKeepsPendingEvents() throws IOException
+	{
+		replay(new Properties(), 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 0, 1, 1);
+		step(10);
+		assertEquals(10, controller.data.events.update());
+		for(int i = 0; i<8; i++)
+			assertTrue(controller.data.events.next(event));
+		//Grow with two events pending
+		task.setEventQueueSize(64);
+		step(1);
+		assertEquals(64, task.events.size());
+		assertEquals(Arrays.asList("a=1", "a=0", "a=1"), read());
+		assertEquals(0, controller.data.events.getLostEvents());
+		
+		//Shrinking keeps the newest of the pending events
+		step(6);
+		task.setEventQueueSize(4);
+		step(1);
+		assertEquals(4, task.events.size());
+		assertEquals(Arrays.asList("a=0", "a=1", "a=0", "a=1"), read());
+		assertEquals(2, controller.data.events.getLostEvents());
+	}
+}
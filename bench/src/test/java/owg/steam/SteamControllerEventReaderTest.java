@@ -0,0 +1,164 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.java.games.input.Component;
+import net.java.games.input.Event;
+
+/**Tests for reading the button events of a simulated controller.*/
+public class SteamControllerEventReaderTest
+{
+	protected SteamController controller;
+	protected SteamControllerThreadTask task;
+	protected final Event event = new Event();
+	
+	@BeforeEach
+	public void setUp() throws IOException
+	{
+		SteamController.properties = new Properties();
+		SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRED, 0, (byte)0x81, (short)2, 2);
+		controller = new SteamController(null, device, new SteamControllerSimulatedTransport(device, 0));
+		task = controller.threadTask;
+		task.pointer = null;
+		task.open();
+		task.init();
+		assertTrue(task.connected);
+	}
+	
+	@AfterEach
+	public void tearDown()
+	{
+		task.cleanup();
+		SteamController.properties = System.getProperties();
+	}
+	
+	/**Reads reports until the controller has added at least the given number of events.*/
+	protected void produce(int events)
+	{
+		long end = task.events.head()+events;
+		for(int i = 0; task.events.head() < end; i++)
+		{
+			assertTrue(i < 100000, "Simulated controller stopped producing events");
+			task.run(0);
+		}
+	}
+	
+	/**Reads all available events, as component, value and time.*/
+	protected ArrayList<Object> drain(SteamControllerEventReader reader)
+	{
+		ArrayList<Object> r = new ArrayList<Object>();
+		while(reader.next(event))
+		{
+			r.add(event.getComponent());
+			r.add(event.getValue());
+			r.add(event.getNanos());
+		}
+		return r;
+	}
+	
+	@Test
+	public void readersAreIndependent()
+	{
+		SteamControllerEventReader a = controller.createEventReader();
+		SteamControllerEventReader b = controller.createEventReader();
+		long start = task.events.head();
+		produce(6);
+		long added = task.events.head()-start;
+		
+		assertEquals(added, a.update());
+		ArrayList<Object> first = drain(a);
+		assertEquals(3*added, first.size());
+		for(int i = 0; i<first.size(); i += 3)
+		{
+			Component c = (Component)first.get(i);
+			assertTrue(c instanceof SCButton, "Not a button: "+c);
+		}
+		
+		produce(4);
+		long more = task.events.head()-start-added;
+		assertEquals(more, a.update());
+		assertEquals(3*more, drain(a).size());
+		
+		//The other reader still has all of them, in the same order
+		assertEquals(added+more, b.update());
+		ArrayList<Object> all = drain(b);
+		assertEquals(first, all.subList(0, first.size()));
+		assertEquals(0, a.getLostEvents());
+		assertEquals(0, b.getLostEvents());
+	}
+	
+	@Test
+	public void updateLimitsReads()
+	{
+		SteamControllerEventReader r = controller.createEventReader();
+		produce(3);
+		long available = r.update();
+		assertTrue(available >= 3);
+		produce(3);
+		int read = 0;
+		while(r.next(event))
+			read++;
+		assertEquals(available, read);
+		//The later events are read after the next update
+		assertEquals(task.events.head()-r.tail, r.update());
+		assertTrue(r.next(event));
+	}
+	
+	@Test
+	public void slowReaderSkipsAndCountsLostEvents()
+	{
+		SteamControllerEventReader r = controller.createEventReader();
+		long start = task.events.head();
+		int size = task.events.size();
+		produce(size+10);
+		long added = task.events.head()-start;
+		
+		assertEquals(size, r.update());
+		assertEquals(added-size, r.getLostEvents());
+		int read = 0;
+		while(r.next(event))
+			read++;
+		assertEquals(size, read);
+		assertEquals(added-size, r.getLostEvents());
+		
+		//A reader that keeps up loses nothing from then on
+		produce(5);
+		r.update();
+		drain(r);
+		assertEquals(added-size, r.getLostEvents());
+	}
+	
+	@Test
+	public void primaryReaderPublishesProgress()
+	{
+		SteamControllerEventReader primary = controller.data.events;
+		SteamControllerEventReader other = controller.createEventReader();
+		long start = task.events.head();
+		produce(3);
+		primary.update();
+		assertTrue(primary.next(event));
+		assertEquals(start+1, task.consumed);
+		drain(primary);
+		assertEquals(task.events.head(), task.consumed);
+		
+		//Other readers never move it
+		produce(3);
+		long consumed = task.consumed;
+		other.update();
+		drain(other);
+		assertEquals(consumed, task.consumed);
+		
+		//A primary reader that fell behind moves it past the lost events
+		produce(task.events.size()+3);
+		primary.update();
+		assertEquals(task.events.head()-task.events.size(), task.consumed);
+	}
+}
@@ -0,0 +1,125 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+import net.java.games.input.Component;
+import net.java.games.input.Event;
+
+/**Tests for the lock-free event ring.*/
+public class SteamControllerEventRingTest
+{
+	protected final Component[] components = SteamController.componentArray(new Properties());
+	protected final Event event = new Event();
+	
+	@Test
+	public void eventsAreReadBack()
+	{
+		SteamControllerEventRing ring = new SteamControllerEventRing(8, 0);
+		ring.add(3, 1.0f, 100L);
+		ring.add(5, -0.5f, 200L);
+		assertEquals(2, ring.head());
+		
+		assertTrue(ring.get(0, event, components));
+		assertSame(components[3], event.getComponent());
+		assertEquals(1.0f, event.getValue());
+		assertEquals(100L, event.getNanos());
+		assertTrue(ring.get(1, event, components));
+		assertSame(components[5], event.getComponent());
+		assertEquals(-0.5f, event.getValue());
+		assertEquals(200L, event.getNanos());
+	}
+	
+	@Test
+	public void unwrittenEventIsNotRead()
+	{
+		SteamControllerEventRing ring = new SteamControllerEventRing(4, 0);
+		event.set(components[0], 7.0f, 7L);
+		assertFalse(ring.get(0, event, components));
+		assertFalse(ring.get(4, event, components));
+		//The destination is not modified
+		assertEquals(7.0f, event.getValue());
+	}
+	
+	@Test
+	public void wraparoundOverwritesOldestEvents()
+	{
+		SteamControllerEventRing ring = new SteamControllerEventRing(4, 0);
+		for(int i = 0; i<10; i++)
+			ring.add(i, i, i);
+		assertEquals(10, ring.head());
+		for(long seq = 0; seq<6; seq++)
+			assertFalse(ring.get(seq, event, components), "Event "+seq+" has been overwritten");
+		for(long seq = 6; seq<10; seq++)
+		{
+			assertTrue(ring.get(seq, event, components));
+			assertSame(components[(int)seq], event.getComponent());
+			assertEquals((float)seq, event.getValue());
+		}
+	}
+	
+	@Test
+	public void sequenceNumbersContinueFromHead()
+	{
+		long start = (1L<<40)+3;
+		SteamControllerEventRing ring = new SteamControllerEventRing(4, start);
+		assertEquals(start, ring.head());
+		ring.add(1, 0.25f, 9L);
+		assertTrue(ring.get(start, event, components));
+		assertEquals(0.25f, event.getValue());
+		assertFalse(ring.get(start-4, event, components));
+	}
+	
+	/**A reader that falls behind a concurrent producer must either read the right event or be told that it was overwritten.*/
+	@Test
+	public void concurrentReadsNeverReturnWrongEvents() throws Exception
+	{
+		final SteamControllerEventRing ring = new SteamControllerEventRing(16, 0);
+		final int count = 200000;
+		Thread producer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for(int i = 0; i<count; i++)
+				{
+					//The component, value and time are all derived from the sequence number
+					ring.add(i%components.length, i, i);
+					if((i&255) == 0)
+						Thread.yield();
+				}
+			}
+		}, "producer");
+		producer.start();
+		
+		long read = 0, lost = 0;
+		long tail = 0;
+		while(producer.isAlive() || tail < ring.head())
+		{
+			long head = ring.head();
+			if(head-tail > ring.size())
+			{
+				lost += head-ring.size()-tail;
+				tail = head-ring.size();
+			}
+			for(; tail<head; tail++)
+			{
+				if(ring.get(tail, event, components))
+				{
+					assertSame(components[(int)(tail%components.length)], event.getComponent());
+					assertEquals((float)tail, event.getValue());
+					assertEquals(tail, event.getNanos());
+					read++;
+				}
+				else
+					lost++;
+			}
+			Thread.yield();
+		}
+		producer.join();
+		assertEquals(count, read+lost);
+	}
+}
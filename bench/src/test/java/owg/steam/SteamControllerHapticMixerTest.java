@@ -0,0 +1,174 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**Tests for the haptic mailbox and the mixing of haptic effects.*/
+public class SteamControllerHapticMixerTest
+{
+	protected final SteamControllerHapticMixer mixer = new SteamControllerHapticMixer();
+	
+	/**Returns an effect with one step of the given intensity, which lasts the given number of milliseconds.*/
+	protected static SteamControllerHapticEffect effect(int intensity, int millis, int loops)
+	{
+		return new SteamControllerHapticEffect(new char[] {(char)intensity}, new char[] {1000}, new char[] {(char)millis}, loops);
+	}
+	
+	protected int countVoices(int rumblerID, SteamControllerHapticEffect effect)
+	{
+		int n = 0;
+		for(int v = rumblerID*SteamControllerHapticMixer.VOICES; v < (rumblerID+1)*SteamControllerHapticMixer.VOICES; v++)
+		{
+			if(mixer.effects[v] == effect)
+				n++;
+		}
+		return n;
+	}
+	
+	@Test
+	public void requestsAreHandledInOrder()
+	{
+		SteamControllerHapticEffect a = effect(100, 10, 0);
+		SteamControllerHapticEffect b = effect(200, 10, 0);
+		assertFalse(mixer.update(0));
+		assertTrue(mixer.play(0, a));
+		assertTrue(mixer.stop(0, null));
+		assertTrue(mixer.play(0, b));
+		assertTrue(mixer.play(1, a));
+		assertTrue(mixer.update(0));
+		assertEquals(0, countVoices(0, a));
+		assertEquals(1, countVoices(0, b));
+		assertEquals(1, countVoices(1, a));
+		assertEquals(2, mixer.activeVoices);
+		
+		//Stopping one effect leaves the others playing
+		assertTrue(mixer.stop(1, b));
+		assertFalse(mixer.update(0));
+		assertTrue(mixer.stop(1, a));
+		assertTrue(mixer.update(0));
+		assertEquals(0, countVoices(1, a));
+		assertEquals(1, mixer.activeVoices);
+	}
+	
+	@Test
+	public void fullMailboxRejectsRequests()
+	{
+		SteamControllerHapticEffect[] played = new SteamControllerHapticEffect[SteamControllerHapticMixer.MAILBOX];
+		for(int i = 0; i<played.length; i++)
+		{
+			played[i] = effect(100+i, 10, 0);
+			assertTrue(mixer.play(0, played[i]));
+		}
+		assertFalse(mixer.play(0, effect(1, 10, 0)));
+		assertFalse(mixer.stop(0, null));
+		
+		assertTrue(mixer.update(0));
+		//Only the voices that started last remain
+		for(int i = 0; i<played.length; i++)
+			assertEquals(i < played.length-SteamControllerHapticMixer.VOICES ? 0 : 1, countVoices(0, played[i]));
+		assertTrue(mixer.stop(0, null));
+		assertTrue(mixer.update(0));
+		assertEquals(0, mixer.activeVoices);
+	}
+	
+	@Test
+	public void stepsAdvanceAndFinish()
+	{
+		SteamControllerHapticEffect e = new SteamControllerHapticEffect(
+				new char[] {1000, 2000}, new char[] {100, 200}, new char[] {10, 10}, 1);
+		assertEquals(Long.MAX_VALUE, mixer.getNextStepNanos());
+		mixer.play(1, e);
+		assertTrue(mixer.update(0));
+		assertEquals(1000000L, mixer.getNextStepNanos());
+		assertEquals(1000L<<32 | 100L<<16 | 10L, mixer.mix(1, 0));
+		assertEquals(0L, mixer.mix(0, 0));
+		
+		assertFalse(mixer.update(999999));
+		assertTrue(mixer.update(1000000));
+		assertEquals(3000000L, mixer.getNextStepNanos());
+		//The count covers the rest of the step
+		assertEquals(2000L<<32 | 200L<<16 | 5L, mixer.mix(1, 2000000));
+		
+		assertTrue(mixer.update(3000000));
+		assertEquals(0, mixer.activeVoices);
+		assertEquals(Long.MAX_VALUE, mixer.getNextStepNanos());
+		assertEquals(0L, mixer.mix(1, 3000000));
+	}
+	
+	@Test
+	public void lateUpdatesDoNotDrift()
+	{
+		SteamControllerHapticEffect e = new SteamControllerHapticEffect(
+				new char[] {1000, 2000}, new char[] {1000, 1000}, new char[] {1, 2}, 0);
+		mixer.play(0, e);
+		mixer.update(0);
+		//Three 3 ms loops and the first step of the fourth have passed
+		assertTrue(mixer.update(10500000));
+		assertEquals(1, mixer.steps[0]);
+		assertEquals(12000000L, mixer.getNextStepNanos());
+	}
+	
+	@Test
+	public void loopsAreCounted()
+	{
+		mixer.play(0, effect(1000, 1, 3));
+		mixer.update(0);
+		assertTrue(mixer.update(2000000));
+		assertEquals(1, mixer.activeVoices);
+		assertTrue(mixer.update(3000000));
+		assertEquals(0, mixer.activeVoices);
+	}
+	
+	@Test
+	public void voicesAreMixed()
+	{
+		SteamControllerHapticEffect weak = new SteamControllerHapticEffect(new char[] {0x3000}, new char[] {300}, new char[] {100}, 0);
+		SteamControllerHapticEffect strong = new SteamControllerHapticEffect(new char[] {0x8000}, new char[] {500}, new char[] {20}, 0);
+		mixer.play(0, weak);
+		mixer.play(0, strong);
+		mixer.update(0);
+		//Intensities add up, the period is the strongest voice's, and the count lasts until the first step ends
+		assertEquals(0xB000L<<32 | 500L<<16 | 20L, mixer.mix(0, 0));
+		mixer.play(0, strong);
+		mixer.update(0);
+		assertEquals(0xFFFFL, mixer.mix(0, 0)>>>32);
+	}
+	
+	@Test
+	public void concurrentRequestsAreAllHandled() throws Exception
+	{
+		final SteamControllerHapticEffect e = effect(100, 1000, 0);
+		final int perThread = 20000;
+		Thread[] producers = new Thread[3];
+		for(int t = 0; t<producers.length; t++)
+		{
+			final int rumbler = t&1;
+			producers[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for(int i = 0; i<perThread; i++)
+					{
+						while(!(i%2 == 0 ? mixer.play(rumbler, e) : mixer.stop(rumbler, e)))
+							Thread.yield();
+					}
+				}
+			}, "producer-"+t);
+			producers[t].start();
+		}
+		long total = (long)perThread*producers.length;
+		for(int i = 0; mixer.handledRequests < total; i++)
+		{
+			assertTrue(i < 100000000, "Requests were lost");
+			mixer.update(0);
+			if(mixer.handledRequests < total)
+				Thread.yield();
+		}
+		for(Thread t : producers)
+			t.join();
+		assertEquals(total, mixer.nextRequest.get());
+		assertFalse(mixer.update(0));
+	}
+}
@@ -0,0 +1,156 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**Tests for sampling the history of decoded states at a given time.*/
+public class SteamControllerHistoryTest
+{
+	protected static final int X = SteamControllerAxis.STICK_X.ordinal();
+	protected static final int LT = SteamControllerAxis.LT.ordinal();
+	
+	protected final SteamControllerState state = new SteamControllerState();
+	protected final SteamControllerState dst = new SteamControllerState();
+	
+	protected void add(SteamControllerHistory h, long nanos, float x, int buttons)
+	{
+		state.lastUpdateTimeNanos = nanos;
+		state.generation++;
+		state.axes[X] = x;
+		state.axes[LT] = x;
+		state.buttons = buttons;
+		h.add(state);
+	}
+	
+	@Test
+	public void emptyHistoryHasNoSample()
+	{
+		assertFalse(new SteamControllerHistory(4).sample(0L, 0L, dst));
+	}
+	
+	@Test
+	public void axesAreInterpolated()
+	{
+		SteamControllerHistory h = new SteamControllerHistory(8);
+		add(h, 1000, 0.0f, 1);
+		add(h, 2000, 0.5f, 2);
+		add(h, 3000, 1.0f, 4);
+		
+		assertTrue(h.sample(1500, 0, dst));
+		assertEquals(0.25f, dst.axes[X], 1E-6f);
+		assertEquals(1500, dst.lastUpdateTimeNanos);
+		//Buttons come from the latest state at or before the time
+		assertEquals(1, dst.buttons);
+		assertEquals(1, dst.generation);
+		
+		assertTrue(h.sample(2750, 0, dst));
+		assertEquals(0.875f, dst.axes[X], 1E-6f);
+		assertEquals(2, dst.buttons);
+		
+		assertTrue(h.sample(2000, 0, dst));
+		assertEquals(0.5f, dst.axes[X], 1E-6f);
+		assertEquals(2, dst.buttons);
+		assertEquals(0, dst.dirtyAxes);
+	}
+	
+	@Test
+	public void extrapolationIsLimited()
+	{
+		SteamControllerHistory h = new SteamControllerHistory(8);
+		add(h, 1000, 0.0f, 0);
+		add(h, 2000, 0.25f, 8);
+		
+		assertTrue(h.sample(2400, 1000, dst));
+		assertEquals(0.35f, dst.axes[X], 1E-6f);
+		assertEquals(2400, dst.lastUpdateTimeNanos);
+		assertEquals(8, dst.buttons);
+		
+		//No further than the limit past the latest state
+		assertTrue(h.sample(5000, 1000, dst));
+		assertEquals(0.5f, dst.axes[X], 1E-6f);
+		assertEquals(3000, dst.lastUpdateTimeNanos);
+		
+		assertTrue(h.sample(5000, 0, dst));
+		assertEquals(0.25f, dst.axes[X], 1E-6f);
+	}
+	
+	@Test
+	public void extrapolationStaysInAxisRange()
+	{
+		SteamControllerHistory h = new SteamControllerHistory(8);
+		add(h, 1000, -0.5f, 0);
+		add(h, 2000, -0.9f, 0);
+		assertTrue(h.sample(4000, 10000, dst));
+		assertEquals(-1.0f, dst.axes[X]);
+		//The trigger is unsigned
+		assertEquals(0.0f, dst.axes[LT]);
+	}
+	
+	@Test
+	public void oldestStateIsUsedBeforeHistory()
+	{
+		SteamControllerHistory h = new SteamControllerHistory(2);
+		add(h, 1000, 0.1f, 1);
+		add(h, 2000, 0.2f, 2);
+		add(h, 3000, 0.3f, 3);
+		//The first state has been overwritten
+		assertTrue(h.sample(500, 0, dst));
+		assertEquals(0.2f, dst.axes[X], 1E-6f);
+		assertEquals(2, dst.buttons);
+		assertEquals(2000, dst.lastUpdateTimeNanos);
+	}
+	
+	@Test
+	public void singleStateIsHeld()
+	{
+		SteamControllerHistory h = new SteamControllerHistory(4);
+		add(h, 1000, 0.75f, 5);
+		assertTrue(h.sample(1500, 1000, dst));
+		assertEquals(0.75f, dst.axes[X], 1E-6f);
+		assertEquals(5, dst.buttons);
+	}
+	
+	/**Samples taken while a producer keeps overwriting the history must be consistent: 
+	 * Each state has x equal to its time in microseconds, so any sample between two states must satisfy the same relation.*/
+	@Test
+	public void concurrentSamplesAreConsistent() throws Exception
+	{
+		final SteamControllerHistory h = new SteamControllerHistory(4);
+		final int count = 100000;
+		Thread producer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				SteamControllerState s = new SteamControllerState();
+				for(int i = 1; i<=count; i++)
+				{
+					s.lastUpdateTimeNanos = i*1000L;
+					s.axes[LT] = i/(float)count;
+					s.buttons = i;
+					h.add(s);
+					if((i&63) == 0)
+						Thread.yield();
+				}
+			}
+		}, "producer");
+		producer.start();
+		int samples = 0;
+		while(producer.isAlive())
+		{
+			long head = h.head.get();
+			if(head > 4 && h.sample((head-2)*1000L+500L, 0, dst))
+			{
+				float expected = (dst.lastUpdateTimeNanos/1000.0f)/count;
+				assertEquals(expected, dst.axes[LT], 1E-5f);
+				assertTrue(Math.abs(dst.buttons*1000L-dst.lastUpdateTimeNanos) <= 1000L, 
+						"Buttons "+dst.buttons+" do not belong to "+dst.lastUpdateTimeNanos);
+				samples++;
+			}
+			Thread.yield();
+		}
+		producer.join();
+		assertTrue(samples > 0);
+	}
+}
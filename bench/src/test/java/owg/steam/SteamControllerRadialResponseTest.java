@@ -0,0 +1,91 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**Tests for the precomputed radial response, against the exact mapping in {@link SteamControllerRadialReference}.*/
+public class SteamControllerRadialResponseTest
+{
+	protected static final float[][] ZONES = {{0.0f, 0.0f}, {0.1f, 0.05f}, {0.25f, 0.1f}, {0.4f, 0.0f}, {0.3f, 0.7f}};
+	
+	/**Returns the largest difference between the table and the exact mapping, over a grid covering the whole range of raw values.*/
+	protected static float maxError(SteamControllerResponseCurve curve)
+	{
+		float max = 0.0f;
+		float[] table = new float[2];
+		float[] exact = new float[2];
+		for(float[] zone : ZONES)
+		{
+			SteamControllerRadialResponse response = new SteamControllerRadialResponse(zone[0], zone[1], curve);
+			for(int i = -100; i<=100; i++)
+			{
+				for(int j = -100; j<=100; j++)
+				{
+					table[0] = exact[0] = i/100.0f;
+					table[1] = exact[1] = j/100.0f;
+					response.map(table, 0, 1);
+					SteamControllerRadialReference.map(exact, 0, 1, response);
+					for(int k = 0; k<2; k++)
+					{
+						if(Float.isNaN(table[k]))
+							fail(response+" gives NaN at "+i+", "+j);
+						max = Math.max(max, Math.abs(table[k]-exact[k]));
+					}
+				}
+			}
+		}
+		return max;
+	}
+	
+	@Test
+	public void linearMatchesExactMapping()
+	{
+		assertTrue(maxError(SteamControllerResponseCurve.LINEAR) < 2E-3f);
+	}
+	
+	@Test
+	public void powerMatchesExactMapping()
+	{
+		assertTrue(maxError(SteamControllerResponseCurve.power(2.0f)) < 2E-3f);
+		assertTrue(maxError(SteamControllerResponseCurve.power(3.0f)) < 2E-3f);
+	}
+	
+	/**Exponents below 1 are steep at the dead zone, where the table is least accurate. 
+	 * Without a dead zone the slope is infinite at the center, so the first entry of the table is off by a few percent.*/
+	@Test
+	public void steepPowerIsClose()
+	{
+		assertTrue(maxError(SteamControllerResponseCurve.power(0.5f)) < 5E-2f);
+	}
+	
+	@Test
+	public void sCurveMatchesExactMapping()
+	{
+		assertTrue(maxError(SteamControllerResponseCurve.sCurve(0.5f)) < 2E-3f);
+	}
+	
+	@Test
+	public void pointsMatchExactMapping()
+	{
+		SteamControllerResponseCurve curve = SteamControllerResponseCurve.points(new float[] {0.0f, 0.5f, 1.0f}, new float[] {0.0f, 0.2f, 1.0f});
+		assertTrue(maxError(curve) < 2E-3f);
+	}
+	
+	@Test
+	public void deadZoneIsExact()
+	{
+		SteamControllerRadialResponse response = new SteamControllerRadialResponse(0.2f, 0.1f, SteamControllerResponseCurve.LINEAR);
+		float[] axes = {0.14f, -0.14f};
+		response.map(axes, 0, 1);
+		assertEquals(0.0f, axes[0]);
+		assertEquals(0.0f, axes[1]);
+		
+		//Past the edge zone is full deflection, in the same direction
+		axes[0] = 0.0f;
+		axes[1] = -0.95f;
+		response.map(axes, 0, 1);
+		assertEquals(0.0f, axes[0]);
+		assertEquals(-1.0f, axes[1], 1E-3f);
+	}
+}
@@ -0,0 +1,111 @@
+package owg.steam;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**Tests for the triple buffer that hands states from the controller thread to the application.*/
+public class SteamControllerStateBufferTest
+{
+	@Test
+	public void acquireWithoutPublishKeepsFront()
+	{
+		SteamControllerStateBuffer b = new SteamControllerStateBuffer();
+		int front = SteamControllerStateBuffer.INITIAL_FRONT;
+		assertEquals(front, b.acquire(front));
+		assertEquals(front, b.acquire(front));
+	}
+	
+	@Test
+	public void acquireTakesPublishedState()
+	{
+		SteamControllerStateBuffer b = new SteamControllerStateBuffer();
+		int back = SteamControllerStateBuffer.INITIAL_BACK;
+		int front = SteamControllerStateBuffer.INITIAL_FRONT;
+		b.get(back).generation = 1;
+		int r = b.publish(back);
+		assertEquals(0, r&SteamControllerStateBuffer.FRESH, "The initial middle buffer was never published");
+		int published = back;
+		back = r&SteamControllerStateBuffer.INDEX_MASK;
+		
+		front = b.acquire(front);
+		assertEquals(published, front);
+		assertEquals(1, b.get(front).generation);
+		//Nothing new
+		assertEquals(front, b.acquire(front));
+		
+		assertNotSame(b.get(back), b.get(front));
+	}
+	
+	@Test
+	public void publishReportsSkippedState()
+	{
+		SteamControllerStateBuffer b = new SteamControllerStateBuffer();
+		int back = SteamControllerStateBuffer.INITIAL_BACK;
+		int front = SteamControllerStateBuffer.INITIAL_FRONT;
+		b.get(back).generation = 1;
+		back = b.publish(back)&SteamControllerStateBuffer.INDEX_MASK;
+		b.get(back).generation = 2;
+		int r = b.publish(back);
+		assertTrue((r&SteamControllerStateBuffer.FRESH) != 0, "The first state was never acquired");
+		back = r&SteamControllerStateBuffer.INDEX_MASK;
+		
+		front = b.acquire(front);
+		assertEquals(2, b.get(front).generation);
+		assertTrue(back != front);
+	}
+	
+	/**The producer writes each generation into its whole back buffer before publishing it. 
+	 * The consumer must never see a partly written state, or a generation older than one it has already seen.*/
+	@Test
+	public void concurrentStatesAreCompleteAndInOrder() throws Exception
+	{
+		final SteamControllerStateBuffer b = new SteamControllerStateBuffer();
+		final long count = 200000;
+		Thread producer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				int back = SteamControllerStateBuffer.INITIAL_BACK;
+				for(long g = 1; g<=count; g++)
+				{
+					SteamControllerState s = b.get(back);
+					s.generation = g;
+					s.lastUpdateTimeNanos = g;
+					s.buttons = (int)g;
+					for(int i = 0; i<s.axes.length; i++)
+						s.axes[i] = g;
+					back = b.publish(back)&SteamControllerStateBuffer.INDEX_MASK;
+					if((g&1023) == 0)
+						Thread.yield();
+				}
+			}
+		}, "producer");
+		producer.start();
+		
+		int front = SteamControllerStateBuffer.INITIAL_FRONT;
+		long last = 0;
+		boolean finished = false;
+		while(!finished)
+		{
+			//Once the producer has finished, one more acquire must see its last state
+			finished = !producer.isAlive();
+			front = b.acquire(front);
+			SteamControllerState s = b.get(front);
+			long g = s.generation;
+			assertTrue(g >= last, "Generation went back from "+last+" to "+g);
+			//Generation 0 is the initial state, from before the first publish
+			if(g > 0)
+			{
+				assertEquals(g, s.lastUpdateTimeNanos);
+				assertEquals((int)g, s.buttons);
+				for(int i = 0; i<s.axes.length; i++)
+					assertEquals((float)g, s.axes[i]);
+			}
+			last = g;
+			Thread.yield();
+		}
+		assertEquals(count, last);
+	}
+}
@@ -1,6 +1,7 @@
 package owg.steam;
 
 /**Class representing a Steam Controller button that has been disabled, but not hidden by the application configuration.
+ * Disabled buttons are masked out when reports are decoded, so they never appear to be pressed.
  * @see SteamController#PROP_BUTTON_MASK
  * @see SteamController#PROP_HIDE_DISABLED_BUTTONS*/
 public class DisabledSCButton extends SCButton
@@ -9,8 +10,4 @@ public class DisabledSCButton extends SCButton
 	{
 		super(name, id, bit);
 	}
-	@Override
-	public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData) {
-		return 0.0f;
-	}
-}
\ No newline at end of file
+}
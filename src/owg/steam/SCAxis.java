@@ -0,0 +1,13 @@
+package owg.steam;
+
+/**Class representing a Steam Controller axis.*/
+public class SCAxis extends SCComponent
+{
+	public final SteamControllerAxis axis;
+	
+	protected SCAxis(SteamControllerAxis axis)
+	{
+		super(axis.title, axis.jinputAxis, false, axis.ordinal(), 0);
+		this.axis = axis;
+	}
+}
@@ -5,22 +5,29 @@ import java.io.IOException;
 import net.java.games.input.AbstractComponent;
 import net.java.games.input.Event;
 
-/**Base class for Steam Controller component implementations (buttons and axes).*/
+/**Base class for Steam Controller component implementations (buttons and axes).<br>
+ * Components read their value from the decoded {@link SteamControllerState}, so polling is a cheap indexed read.*/
 public abstract class SCComponent extends AbstractComponent
 {
 	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
 	// so that the controller thread will not keep the plugin alive if the application stops using it.
 	
 	public final boolean relative;
+	/**Index of the value in {@link SteamControllerState#axes}, or -1 if this is a button*/
+	public final int axisIndex;
+	/**Bit of the value in {@link SteamControllerState#buttons}, or 0 if this is an axis*/
+	public final int buttonBit;
 	protected SteamControllerData data = null;
 	protected SteamControllerConfig config = null;
 	/**The poll value after the last call to {@link SteamController#getNextDeviceEvent(Event)}*/
 	protected float cachedValue = 0.0f;
 
-	protected SCComponent(String name, Identifier id, boolean relative)
+	protected SCComponent(String name, Identifier id, boolean relative, int axisIndex, int buttonBit)
 	{
 		super(name, id);
 		this.relative = relative;
+		this.axisIndex = axisIndex;
+		this.buttonBit = buttonBit;
 	}
 	@Override
 	public boolean isRelative()
@@ -30,8 +37,13 @@ public abstract class SCComponent extends AbstractComponent
 
 	@Override
 	protected final float poll() throws IOException {
-		return pollFrom(data.lPadData, data.lStickData, data.latestData);
+		return pollFrom(data.state);
 	}
 	
-	public abstract float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData);
-}
\ No newline at end of file
+	public final float pollFrom(SteamControllerState state)
+	{
+		if(axisIndex >= 0)
+			return state.axes[axisIndex];
+		return (state.buttons&buttonBit) != 0 ? 1.0f : 0.0f;
+	}
+}
@@ -24,6 +24,30 @@ public class SCRumbler implements Rumbler
 		host.threadTask.rumble(rumblerID, intensity);
 	}
 
+	/**Starts playing the effect on this rumbler, mixed with any other effects that are playing. 
+	 * The effect is played by the controller thread, so this does not block or allocate memory.
+	 * Returns false if too many requests are waiting for the controller thread.*/
+	public boolean play(SteamControllerHapticEffect effect)
+	{
+		return host.threadTask.haptics.play(rumblerID, effect);
+	}
+
+	/**Stops all instances of the effect that are playing on this rumbler.
+	 * Returns false if too many requests are waiting for the controller thread.*/
+	public boolean stop(SteamControllerHapticEffect effect)
+	{
+		if(effect == null)
+			throw new NullPointerException("effect");
+		return host.threadTask.haptics.stop(rumblerID, effect);
+	}
+
+	/**Stops all effects that are playing on this rumbler.
+	 * Returns false if too many requests are waiting for the controller thread.*/
+	public boolean stopAll()
+	{
+		return host.threadTask.haptics.stop(rumblerID, null);
+	}
+
 	@Override
 	public String getAxisName()
 	{
@@ -73,6 +73,20 @@ public class SCUtil
 		}
 	}
 
+	/**Gets a response curve from the properties, or a default value if none or invalid.*/
+	protected static SteamControllerResponseCurve getCurve(Properties properties, String propName, SteamControllerResponseCurve defaultVal)
+	{
+		String val = properties==null?null:properties.getProperty(propName);
+		if(val == null)
+			return defaultVal;
+		try {
+			return SteamControllerResponseCurve.parse(val);
+		} catch(IllegalArgumentException err) {
+			System.out.println("Info: Property \""+propName+"\" should be a response curve: "+err.getMessage());
+			return defaultVal;
+		}
+	}
+
 	/**Trims any radix prefix from the integer string value and puts the radix number at the first index in the given array.*/
 	protected static String getRadix(String val, int[] radix)
 	{
@@ -3,9 +3,12 @@ package owg.steam;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.Future;
+
+import javax.management.ObjectName;
+
 import org.usb4java.Device;
 import org.usb4java.LibUsb;
-import org.usb4java.LibUsbException;
 
 import net.java.games.input.AbstractController;
 import net.java.games.input.Component.Identifier;
@@ -23,6 +26,7 @@ import static owg.steam.SteamControllerButton.*;
  * </ul>*/
 public class SteamController extends AbstractController
 {
+	public static final short VID = 0x28DE;
 	public static final short PID_WIRELESS = 0x1142;
 	public static final short PID_WIRED = 0x1102;
 
@@ -60,6 +64,16 @@ public class SteamController extends AbstractController
 	public static final byte STEAM_RUMBLER_LEFT = (byte)0x01;
 	public static final byte STEAM_RUMBLER_RIGHT = (byte)0x00;
 
+	public static final int EXECUTION_SINGLE_THREAD = 0;
+	public static final int EXECUTION_SHARDED = 1;
+	public static final int EXECUTION_VIRTUAL = 2;
+	public static final int EXECUTION_SPIN = 3;
+
+	public static final int OVERFLOW_DROP_OLDEST = 0;
+	public static final int OVERFLOW_DROP_NEWEST = 1;
+	public static final int OVERFLOW_COALESCE = 2;
+	public static final int OVERFLOW_GROW = 3;
+
 	public static final byte BYTE_TRUE = (byte)0x01;
 	public static final byte BYTE_FALSE = (byte)0x00;
 
@@ -128,6 +142,8 @@ public class SteamController extends AbstractController
 	 * {@link #STEAM_GYRO_MODE_SEND_RAW_GYRO}: The gyro is enabled.<br>
 	 * {@link #STEAM_GYRO_MODE_SEND_RAW_ACCEL}: The accelerometer is enabled.<br>
 	 * {@link #STEAM_GYRO_MODE_SEND_RAW_ACCEL}|{@link #STEAM_GYRO_MODE_SEND_RAW_GYRO}: The gyro and accelerometer are enabled.<br>
+	 * {@link #STEAM_GYRO_MODE_SEND_ORIENTATION} may be added to receive the controller's own orientation estimate. 
+	 * Otherwise the orientation can be estimated by the plugin, see {@link #PROP_ESTIMATE_ORIENTATION}.<br>
 	 * Other values are possible, but not particularly useful to this plugin.*/	
 	public static final String PROP_GYRO_MODE = SteamController.class.getName()+".gyroMode";
 	/**rumble can be set to 0 or 1 (default 1):<br>
@@ -152,8 +168,15 @@ public class SteamController extends AbstractController
 	public static final String PROP_LEFT_STICK_EDGE_ZONE = SteamController.class.getName()+".leftStickEdgeZone",
 			PROP_LEFT_PAD_EDGE_ZONE = SteamController.class.getName()+".leftPadEdgeZone",
 			PROP_RIGHT_PAD_EDGE_ZONE = SteamController.class.getName()+".rightPadEdgeZone";
+	/**The response curve maps the distance between the dead zone and the edge zone to the amplitude of the input.<br>
+	 * The value is "linear", "power:<i>p</i>", "scurve:<i>s</i>" or "points:<i>x</i>,<i>y</i> <i>x</i>,<i>y</i> ...", 
+	 * see {@link SteamControllerResponseCurve}. The default value is "linear".*/
+	public static final String PROP_LEFT_STICK_CURVE = SteamController.class.getName()+".leftStickCurve",
+			PROP_LEFT_PAD_CURVE = SteamController.class.getName()+".leftPadCurve",
+			PROP_RIGHT_PAD_CURVE = SteamController.class.getName()+".rightPadCurve";
 	
-	/**Controls how much the gyro influences the mouse. Set to zero to disable.*/
+	/**Controls how much the gyro influences the mouse. Set to zero to disable. 
+	 * The movement is sent to the controller's pointer, see {@link #setPointer(SteamControllerPointer)}.*/
 	public static final String PROP_GYRO_MOUSE_X = SteamController.class.getName()+".gyroMouseX",
 			PROP_GYRO_MOUSE_Y = SteamController.class.getName()+".gyroMouseY";
 	
@@ -162,6 +185,106 @@ public class SteamController extends AbstractController
 	public static final String PROP_GYRO_MOUSE_ENABLE_MASK = SteamController.class.getName()+".gyroMouseEnableMask";
 	/**Bits for buttons that can be pressed to disable gyro mouse control. The bitmask layout is the same as for buttonMask.*/
 	public static final String PROP_GYRO_MOUSE_DISABLE_MASK = SteamController.class.getName()+".gyroMouseDisableMask";
+	/**estimateOrientation can be set to 0 or 1 (default 0):<br>
+	 * {@link #BYTE_FALSE}: The plugin does not estimate the orientation. 
+	 * The orientation components are only present if gyroMode includes {@link #STEAM_GYRO_MODE_SEND_ORIENTATION}.<br>
+	 * {@link #BYTE_TRUE}: If the gyro is enabled, the plugin estimates the orientation from the gyro and accelerometer, 
+	 * and adds the orientation components. This has no effect if gyroMode includes {@link #STEAM_GYRO_MODE_SEND_ORIENTATION}.*/
+	public static final String PROP_ESTIMATE_ORIENTATION = SteamController.class.getName()+".estimateOrientation";
+	/**orientationGain controls how quickly the plugin's orientation estimate follows gravity when the accelerometer is enabled (default 0.1).
+	 * Higher values correct gyro drift faster, but make the orientation more sensitive to shaking. 
+	 * This has no effect if gyroMode includes {@link #STEAM_GYRO_MODE_SEND_ORIENTATION}.*/
+	public static final String PROP_ORIENTATION_GAIN = SteamController.class.getName()+".orientationGain";
+
+	/**asyncTransfers is the number of asynchronous interrupt transfers kept submitted for each controller (default 0).<br>
+	 * 0: Controllers are polled in turn with blocking interrupt transfers.<br>
+	 * 1 or more: Reports are received with libusb's asynchronous transfer API, and processed in the order they arrive.
+	 * Input latency will then not depend on the number of controllers that are attached.<br>
+	 * This is at least 2 when execution is {@link #EXECUTION_VIRTUAL} or {@link #EXECUTION_SPIN}, 
+	 * since blocking transfers would pin the carriers of virtual threads, and keep a spinning thread waiting.*/
+	public static final String PROP_ASYNC_TRANSFERS = SteamController.class.getName()+".asyncTransfers";
+	/**idlePollInterval is the longest time in milliseconds between reads of a wireless slot with no controller connected (default 100).<br>
+	 * Reads that time out block the controller thread, so each slot doubles the time between reads while it stays silent, up to this limit. 
+	 * Connected controllers that are idle back off to at most 8 ms. Any report returns the slot to full rate.
+	 * This is the longest delay before a newly connected controller is noticed. It has no effect with asyncTransfers.
+	 * @see #getPollStatistics()*/
+	public static final String PROP_IDLE_POLL_INTERVAL = SteamController.class.getName()+".idlePollInterval";
+
+	/**simulatedControllers is the number of simulated controllers to create instead of using USB devices (default 0).<br>
+	 * If this is greater than zero, then libusb is not used at all. This is intended for testing and profiling without hardware.
+	 * @see SteamControllerSimulatedTransport*/
+	public static final String PROP_SIMULATED_CONTROLLERS = SteamController.class.getName()+".simulatedControllers";
+	/**simulatedReportRate is the number of reports per second produced by each simulated controller (default 1000).<br>
+	 * If this is zero, then reports are produced as fast as they can be processed.*/
+	public static final String PROP_SIMULATED_REPORT_RATE = SteamController.class.getName()+".simulatedReportRate";
+	/**simulatedEmptySlots is the number of additional simulated wireless slots with no controller connected (default 0).
+	 * Reads from these slots always time out.*/
+	public static final String PROP_SIMULATED_EMPTY_SLOTS = SteamController.class.getName()+".simulatedEmptySlots";
+
+	/**recordFile is the path of a file where the raw reports of all controllers will be recorded (default none).
+	 * @see SteamControllerRecorder*/
+	public static final String PROP_RECORD_FILE = SteamController.class.getName()+".recordFile";
+	/**replayFile is the path of a recording to replay instead of using USB devices (default none).<br>
+	 * One controller is created for each controller in the recording. libusb is not used.
+	 * @see SteamControllerReplayTransport*/
+	public static final String PROP_REPLAY_FILE = SteamController.class.getName()+".replayFile";
+	/**replayRealtime can be set to 0 or 1 (default 1):<br>
+	 * {@link #BYTE_FALSE}: Recorded reports are replayed as fast as they can be processed.<br>
+	 * {@link #BYTE_TRUE}: Recorded reports are replayed at the pace they were recorded at.*/
+	public static final String PROP_REPLAY_REALTIME = SteamController.class.getName()+".replayRealtime";
+
+	/**execution selects how the controller I/O is run (default 0):<br>
+	 * {@link #EXECUTION_SINGLE_THREAD}: One thread serves all controllers in turn.<br>
+	 * {@link #EXECUTION_SHARDED}: The controllers are divided among executionThreads threads.<br>
+	 * {@link #EXECUTION_VIRTUAL}: Each controller is served by its own virtual thread (Java 21 and later), 
+	 * or its own platform thread on older JVMs. USB controllers use asynchronous transfers, 
+	 * and libusb's events are handled by a platform thread, because blocking native calls would pin the virtual threads' carriers.<br>
+	 * {@link #EXECUTION_SPIN}: One thread serves all controllers, and busy-waits instead of sleeping when there is nothing to do.
+	 * This gives the lowest latency, at the cost of keeping a processor core busy. USB controllers use asynchronous transfers, 
+	 * and reads never wait.<br>
+	 * Controllers that use asynchronous transfers are always served by the first thread, see {@link #PROP_ASYNC_TRANSFERS}.
+	 * @see SteamControllerExecutor*/
+	public static final String PROP_EXECUTION = SteamController.class.getName()+".execution";
+	/**executionThreads is the number of threads used when execution is {@link #EXECUTION_SHARDED} (default 0).<br>
+	 * 0: Use one thread per available processor. No more threads than controllers are used.*/
+	public static final String PROP_EXECUTION_THREADS = SteamController.class.getName()+".executionThreads";
+	
+	/**hotplugInterval is the number of milliseconds between checks for added or removed devices, 
+	 * if libusb can not report them by itself (default 1000).<br>
+	 * 0: Devices are only detected when the plugin is created.<br>
+	 * Controllers on devices that are added later are reported to the ControllerListeners of the plugin. 
+	 * Controllers on devices that are removed stop polling successfully, and are reported as removed.
+	 * @see SteamControllerHotplug*/
+	public static final String PROP_HOTPLUG_INTERVAL = SteamController.class.getName()+".hotplugInterval";
+
+	/**historySize is the number of decoded reports kept by each controller for {@link SteamController#sample(long, SteamControllerState)} (default 64).<br>
+	 * At 1000 reports per second, the default covers the last 64 milliseconds. Set to 0 to disable the history.*/
+	public static final String PROP_HISTORY_SIZE = SteamController.class.getName()+".historySize";
+	/**maxExtrapolation is the maximum number of milliseconds that {@link SteamController#sample(long, SteamControllerState)} 
+	 * will predict past the latest report (default 8.0). Set to 0 to disable extrapolation.*/
+	public static final String PROP_MAX_EXTRAPOLATION = SteamController.class.getName()+".maxExtrapolation";
+	/**eventOverflow selects what happens to button events when the application has not read the controller's event queue 
+	 * and it is full (default 0):<br>
+	 * {@link #OVERFLOW_DROP_OLDEST}: The oldest events are overwritten.<br>
+	 * {@link #OVERFLOW_DROP_NEWEST}: New events are discarded until the application reads the queue.<br>
+	 * {@link #OVERFLOW_COALESCE}: New events are held back, and merged into one event for each button that changed, 
+	 * or a press and release for each button that was tapped, once there is room.<br>
+	 * {@link #OVERFLOW_GROW}: The queue doubles in size, up to maxEventQueueSize, and then the oldest events are overwritten.<br>
+	 * In each case the lost events are counted in {@link #getLostEvents()}, and the application receives events 
+	 * that bring the buttons up to date with the polled state, so no button is left pressed.*/
+	public static final String PROP_EVENT_OVERFLOW = SteamController.class.getName()+".eventOverflow";
+	/**maxEventQueueSize is the largest size the event queue grows to when eventOverflow is {@link #OVERFLOW_GROW} (default 1024).*/
+	public static final String PROP_MAX_EVENT_QUEUE_SIZE = SteamController.class.getName()+".maxEventQueueSize";
+	/**jmxMetrics can be set to 0 or 1 (default 1):<br>
+	 * {@link #BYTE_FALSE}: No MBeans are registered.<br>
+	 * {@link #BYTE_TRUE}: The plugin and each controller register an MBean with the platform MBean server, 
+	 * see {@link SteamControllerPluginMetricsMBean} and {@link SteamControllerMetricsMBean}.*/
+	public static final String PROP_JMX_METRICS = SteamController.class.getName()+".jmxMetrics";
+	/**configFile is the path of a properties file that the plugin loads on top of these properties when it is created,
+	 * and reloads whenever it changes (default none). This object is not modified, see {@link SteamControllerPlugin#getProperties()}. See {@link SteamControllerPlugin#reloadConfiguration()} for what can change at runtime.*/
+	public static final String PROP_CONFIG_FILE = SteamController.class.getName()+".configFile";
+	/**configFileInterval is the number of milliseconds between checks for changes to configFile (default 1000).*/
+	public static final String PROP_CONFIG_FILE_INTERVAL = SteamController.class.getName()+".configFileInterval";
 
 	/**Properties object for configuring SteamController instances.<br>
 	 * <br>
@@ -169,7 +292,9 @@ public class SteamController extends AbstractController
 	 * but it is recommended that the application allows the user to change this object via some mechanism 
 	 * (by default, properties can be injected into the system properties with JVM arguments, e.g. <code>-Dowg.steam.SteamController.gyroMode=0x00</code>).<br>
 	 * <br>
-	 * Values are read from this object only on controller creation, that is when the {@link SteamControllerPlugin} constructor is called.<br>
+	 * Values are read from this object only on controller creation, that is when the {@link SteamControllerPlugin} constructor is called, 
+	 * and when the configuration is reloaded, see {@link SteamControllerPlugin#reloadConfiguration()}. 
+	 * The plugin reads them through {@link SteamControllerPlugin#getProperties()}, which adds the configuration file, if any.<br>
 	 * <br>
 	 * See <code>PROP</code> constants for valid keys.*/
 	public static Properties properties = System.getProperties();
@@ -178,27 +303,62 @@ public class SteamController extends AbstractController
 	public final SteamControllerPlugin env;
 
 	protected SteamControllerData data;
-	protected SteamControllerConfig config;
+	/**The latest configuration, which the controller thread applies before its next report*/
+	protected volatile SteamControllerConfig config;
 	protected SteamControllerDevice device;
 	public final SteamControllerThreadTask threadTask;
+	/**Completes when the controller has been opened and initialized, see {@link #getStartup()}*/
+	protected volatile Future<SteamController> startup = null;
+	/**Name of this controller's MBean, or null if it is not registered, see {@link #PROP_JMX_METRICS}*/
+	protected volatile ObjectName metricsName = null;
+	/**The axis component for each {@link SteamControllerAxis}, by ordinal, or null if the axis is not present*/
+	protected final SCAxis[] axisComponents = new SCAxis[SteamControllerAxis.AXES.length];
+
+	public SteamController(SteamControllerPlugin env, Device device, short pid, int interfaceNo, int endpointIndex) throws IOException
+	{
+		this(env, device, pid, interfaceNo, endpointIndex, new SteamControllerUsbSession(device));
+	}
+
+	/**Creates a controller for one interface of the device, which is opened through the given session.
+	 * The controllers on a wireless dongle should share one session, so that the device is only opened once.*/
+	public SteamController(SteamControllerPlugin env, Device device, short pid, int interfaceNo, int endpointIndex, SteamControllerUsbSession session) throws IOException
+	{
+		this(env, new SteamControllerDevice(device, pid, LibUsb.getPortNumber(device), (byte)(LibUsb.ENDPOINT_IN|endpointIndex), (short)interfaceNo, interfaceNo), session);
+	}
 
-	public SteamController(SteamControllerPlugin env, Device device, short pid, int interfaceNo, int endpointIndex) throws LibUsbException
+	private SteamController(SteamControllerPlugin env, SteamControllerDevice device, SteamControllerUsbSession session) throws IOException
 	{
-		super("Steam Controller"+(pid == PID_WIRELESS?" "+interfaceNo+" (wireless)":""), componentArray(), NO_CHILDREN, 
+		this(env, device, new SteamControllerUsbTransport(device, session));
+	}
+
+	/**Creates a controller that performs its I/O through the given transport. 
+	 * If the transport is null, then a {@link SteamControllerUsbTransport} will be created for the device.*/
+	public SteamController(SteamControllerPlugin env, SteamControllerDevice device, SteamControllerTransport transport) throws IOException
+	{
+		this(env, device, transport, env == null ? SteamController.properties : env.getProperties());
+	}
+	
+	private SteamController(SteamControllerPlugin env, SteamControllerDevice device, SteamControllerTransport transport, Properties properties) throws IOException
+	{
+		super("Steam Controller"+(device.isWireless()?" "+device.interfaceNo+" (wireless)":""), componentArray(properties), NO_CHILDREN, 
 				SCUtil.getByte(properties, PROP_RUMBLERS, 0x01) == 0 ? NO_RUMBLERS : rumblerArray());
 		this.data = new SteamControllerData();
 		this.config = new SteamControllerConfig(properties);
-		this.device= new SteamControllerDevice(device, pid, LibUsb.getPortNumber(device), (byte)(LibUsb.ENDPOINT_IN|endpointIndex), (short)interfaceNo, interfaceNo);
+		this.device = device;
 		for(SCComponent c : (SCComponent[])getComponents())
 		{
 			c.data = data;
 			c.config = config;
+			if(c instanceof SCAxis)
+				axisComponents[c.axisIndex] = (SCAxis) c;
 		}
 		for(SCRumbler c : (SCRumbler[])getRumblers())
 			c.host = this;
 		this.env = env;
 
-		threadTask = new SteamControllerThreadTask(this);
+		threadTask = new SteamControllerThreadTask(this, transport == null ? new SteamControllerUsbTransport(device) : transport);
+		data.state = threadTask.states.get(data.stateIndex);
+		data.events = new SteamControllerEventReader(threadTask, getComponents(), true);
 	}
 
 	protected static SCRumbler[] rumblerArray()
@@ -209,7 +369,7 @@ public class SteamController extends AbstractController
 		return r;
 	}
 
-	protected static SCComponent[] componentArray()
+	protected static SCComponent[] componentArray(Properties properties)
 	{
 		int bm = SCUtil.getInt(properties, PROP_BUTTON_MASK, 0x7FFFFF);
 		boolean hd = SCUtil.getByte(properties, PROP_HIDE_DISABLED_BUTTONS, BYTE_FALSE) != 0;
@@ -217,7 +377,9 @@ public class SteamController extends AbstractController
 		short gyroMode = SCUtil.getShort(properties, PROP_GYRO_MODE, STEAM_GYRO_MODE_SEND_RAW_GYRO);
 		boolean accel = (gyroMode&STEAM_GYRO_MODE_SEND_RAW_ACCEL) != 0;
 		boolean gyro = (gyroMode&STEAM_GYRO_MODE_SEND_RAW_GYRO) != 0;
-		SCComponent[] r = new SCComponent[36];
+		boolean estimate = SCUtil.getByte(properties, PROP_ESTIMATE_ORIENTATION, BYTE_FALSE) != 0;
+		boolean orientation = (gyro && estimate) || (gyroMode&STEAM_GYRO_MODE_SEND_ORIENTATION) != 0;
+		SCComponent[] r = new SCComponent[40];
 		int i = 0;
 		i += newButton(r, i, bm, hd, R2);
 		i += newButton(r, i, bm, hd, L2);
@@ -241,7 +403,7 @@ public class SteamController extends AbstractController
 		i += newButton(r, i, bm, hd, LG);
 		i += newButton(r, i, bm, hd, RG);
 		
-		i += newLPButton(r, i, bm, hd, LP_PRESS);
+		i += newButton(r, i, bm, hd, LP_PRESS);
 		i += newButton(r, i, bm, hd, RP_PRESS);
 		
 		i += newButton(r, i, bm, hd, LP_TOUCH);
@@ -251,201 +413,31 @@ public class SteamController extends AbstractController
 		i += newButton(r, i, bm, hd, STICK_BTN);
 		//LPad/Stick conjunction bit at 23
 
-		r[i  ] = new SCPairedAxis("X Axis", Identifier.Axis.X)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return SCUtil.val16(lStickData, 16);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.leftStickDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.leftStickEdgeZone;
-			}
-		};
-		r[i+1] = new SCPairedAxis("Y Axis", Identifier.Axis.Y)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return -SCUtil.val16(lStickData, 18);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.leftStickDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.leftStickEdgeZone;
-			}
-		};
-		((SCPairedAxis)r[i  ]).pair((SCPairedAxis)r[i+1]);
-		i+=2;
+		i += newPairedAxes(r, i, SteamControllerAxis.STICK_X, SteamControllerAxis.STICK_Y);
+		i += newPairedAxes(r, i, SteamControllerAxis.LPAD_X, SteamControllerAxis.LPAD_Y);
+		i += newPairedAxes(r, i, SteamControllerAxis.RPAD_X, SteamControllerAxis.RPAD_Y);
 
-		r[i  ] = new SCPairedAxis("LPad X", Identifier.Axis.X_FORCE)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return SCUtil.val16(lPadData, 16);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.leftPadDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.leftPadEdgeZone;
-			}
-		};
-		r[i+1] = new SCPairedAxis("LPad Y", Identifier.Axis.Y_FORCE)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return -SCUtil.val16(lPadData, 18);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.leftPadDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.leftPadEdgeZone;
-			}
-		};
-		((SCPairedAxis)r[i  ]).pair((SCPairedAxis)r[i+1]);
-		i+=2;
-
-		r[i  ] = new SCPairedAxis("RPad X", Identifier.Axis.RX_FORCE)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return SCUtil.val16(latestData, 20);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.rightPadDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.rightPadEdgeZone;
-			}
-		};
-		r[i+1] = new SCPairedAxis("RPad Y", Identifier.Axis.RY_FORCE)
-		{
-			@Override
-			public float pollRaw(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return -SCUtil.val16(latestData, 22);
-			}
-			@Override
-			protected float deadZone()
-			{
-				return config.rightPadDeadZone;
-			}
-			@Override
-			protected float edgeZone()
-			{
-				return config.rightPadEdgeZone;
-			}
-		};
-		((SCPairedAxis)r[i  ]).pair((SCPairedAxis)r[i+1]);
-		i+=2;
-
-		r[i] = new SCComponent("LT", Identifier.Axis.Z_FORCE, false)
-		{			
-			@Override
-			public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return (latestData[11]&0xFF)/255.0f;
-			}
-		};
-		i++;
-		r[i] = new SCComponent("RT", Identifier.Axis.RZ_FORCE, false)
-		{			
-			@Override
-			public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-			{
-				return (latestData[12]&0xFF)/255.0f;
-			}
-		};
-		i++;
+		r[i++] = new SCAxis(SteamControllerAxis.LT);
+		r[i++] = new SCAxis(SteamControllerAxis.RT);
 
 		if(gyro)
 		{
-			r[i] = new SCComponent("Gyro X", Identifier.Axis.RX, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return SCUtil.val16(latestData, 34);
-				}
-			};
-			i++;
-			r[i] = new SCComponent("Gyro Y", Identifier.Axis.RY, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return SCUtil.val16(latestData, 36);
-				}
-			};
-			i++;
-			r[i] = new SCComponent("Gyro Z", Identifier.Axis.RZ, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return -SCUtil.val16(latestData, 38);
-				}
-			};
-			i++;
+			r[i++] = new SCAxis(SteamControllerAxis.GYRO_X);
+			r[i++] = new SCAxis(SteamControllerAxis.GYRO_Y);
+			r[i++] = new SCAxis(SteamControllerAxis.GYRO_Z);
 		}
 		if(accel)
 		{
-			r[i] = new SCComponent("Accel X", Identifier.Axis.X_ACCELERATION, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return SCUtil.val16(latestData, 28);
-				}
-			};
-			i++;
-			r[i] = new SCComponent("Accel Y", Identifier.Axis.Y_ACCELERATION, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return SCUtil.val16(latestData, 30);
-				}
-			};
-			i++;
-			r[i] = new SCComponent("Accel Z", Identifier.Axis.Z_ACCELERATION, false)
-			{			
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData)
-				{
-					return SCUtil.val16(latestData, 32);
-				}
-			};
-			i++;
+			r[i++] = new SCAxis(SteamControllerAxis.ACCEL_X);
+			r[i++] = new SCAxis(SteamControllerAxis.ACCEL_Y);
+			r[i++] = new SCAxis(SteamControllerAxis.ACCEL_Z);
+		}
+		if(orientation)
+		{
+			r[i++] = new SCAxis(SteamControllerAxis.ORIENTATION_W);
+			r[i++] = new SCAxis(SteamControllerAxis.ORIENTATION_X);
+			r[i++] = new SCAxis(SteamControllerAxis.ORIENTATION_Y);
+			r[i++] = new SCAxis(SteamControllerAxis.ORIENTATION_Z);
 		}
 		if(i<r.length)
 			return Arrays.copyOf(r, i);
@@ -468,29 +460,125 @@ public class SteamController extends AbstractController
 			return 1;
 		}
 	}
-	private static int newLPButton(SCComponent[] r, int i, int buttonMask, boolean hideDisabled, SteamControllerButton button) 
+	private static int newPairedAxes(SCComponent[] r, int i, SteamControllerAxis x, SteamControllerAxis y) 
 	{
-		if((buttonMask&(1<<button.bitIndex)) != 0)
-		{
-			r[i] = new SCButton(button.title, button.jinputButton, button.bitIndex)
-			{
-				@Override
-				public float pollFrom(byte[] lPadData, byte[] lStickData, byte[] latestData) {
-					//It is located at bit 17, but when lpad is not touched, 
-					//it duplicates the analog stick click for some reason!!
-					//Need to get value from lPadData
-					return ((lPadData[8+byteOffset]&bitMask) == bitMask) ? 1.0f : 0.0f;
-				}
-			};
-			return 1;
-		}
-		else if(hideDisabled)
-			return 0;
-		else
-		{
-			r[i] = new DisabledSCButton(button.title, button.jinputButton, button.bitIndex);
-			return 1;
-		}
+		SCPairedAxis px = new SCPairedAxis(x);
+		SCPairedAxis py = new SCPairedAxis(y);
+		px.pair(py);
+		r[i  ] = px;
+		r[i+1] = py;
+		return 2;
+	}
+
+	/**Returns how much time the controller thread spends reading from this controller's slot, see {@link #PROP_IDLE_POLL_INTERVAL}.*/
+	public SteamControllerPollStatistics getPollStatistics()
+	{
+		return threadTask.getPollStatistics();
+	}
+
+	/**Returns the configuration of this controller. This is an immutable snapshot.*/
+	public SteamControllerConfig getConfig()
+	{
+		return config;
+	}
+
+	/**Changes the configuration of this controller while it is running. 
+	 * The controller thread applies it before the next report, and only rewrites the controller registers that changed.
+	 * The new configuration must not change the components, since jinput controllers have a fixed set of components.
+	 * {@link SteamControllerPlugin#reloadConfiguration()} recreates the controllers when that is needed.
+	 * @throws IllegalArgumentException If the configuration has different components
+	 * @see SteamControllerConfig#hasSameComponents(SteamControllerConfig)*/
+	public void setConfig(SteamControllerConfig config)
+	{
+		if(!this.config.hasSameComponents(config))
+			throw new IllegalArgumentException("The configuration changes the components of "+this);
+		this.config = config;
+		for(SCComponent c : (SCComponent[])getComponents())
+			c.config = config;
+		threadTask.setConfig(config);
+	}
+
+	/**Returns the histogram of the time from receiving a report until the application polled the resulting state.
+	 * This is recorded once for each poll that finds new input, for the latest report in that input.*/
+	public SteamControllerLatencyHistogram getInputLatency()
+	{
+		return threadTask.stateLatency;
+	}
+
+	/**Returns the histogram of the time from receiving a report until the application polled its events.
+	 * This is recorded once for each poll that finds new input, for the oldest report since the previous poll. 
+	 * It exceeds {@link #getInputLatency()} by up to the interval between polls.*/
+	public SteamControllerLatencyHistogram getEventLatency()
+	{
+		return threadTask.eventLatency;
+	}
+
+	/**Returns the name of the MBean with this controller's statistics, or null if it is not registered.
+	 * @see #PROP_JMX_METRICS*/
+	public ObjectName getMetricsName()
+	{
+		return metricsName;
+	}
+
+	/**Returns the startup of this controller, which completes once its device has been opened and the controller has been initialized.
+	 * Controllers are started in the background, concurrently for each device, so the plugin does not wait for them.
+	 * The controller can be polled before that, but will not report any input yet.
+	 * If the startup fails, the future throws an ExecutionException with the cause, and polling fails.
+	 * Returns null if the controller was not created by a plugin.*/
+	public Future<SteamController> getStartup()
+	{
+		return startup;
+	}
+
+	/**Creates an additional reader for this controller's button events, which starts with the events that are added after this call.
+	 * Each reader drains the events at its own pace, independently of the event queue and of other readers. 
+	 * This can be used to observe the events from a different thread, e.g. for a recorder or an overlay.*/
+	public SteamControllerEventReader createEventReader()
+	{
+		return new SteamControllerEventReader(threadTask, getComponents());
+	}
+	
+	/**Returns the number of button events that were lost because the application did not poll often enough, 
+	 * relative to the size of the event queue. This includes the events that were dropped or coalesced, see {@link #PROP_EVENT_OVERFLOW}.*/
+	public long getLostEvents()
+	{
+		return data.events.getLostEvents()+threadTask.droppedEvents;
+	}
+
+	/**Sets where the gyro mouse movement is sent. The default is a {@link SteamControllerRobotPointer}, which moves the system mouse pointer.
+	 * Use a {@link SteamControllerPointerAccumulator} or a custom implementation to receive the movement in the application instead,
+	 * or null to ignore it. See {@link #PROP_GYRO_MOUSE_X} for enabling the gyro mouse.*/
+	public void setPointer(SteamControllerPointer pointer)
+	{
+		threadTask.pointer = pointer;
+	}
+
+	/**Returns where the gyro mouse movement is sent, see {@link #setPointer(SteamControllerPointer)}.*/
+	public SteamControllerPointer getPointer()
+	{
+		return threadTask.pointer;
+	}
+
+	/**Stores the orientation quaternion from the last poll in dst as w, x, y, z.
+	 * @see SteamControllerState#getOrientation(float[])*/
+	public void getOrientation(float[] dst)
+	{
+		data.state.getOrientation(dst);
+	}
+
+	/**Computes the controller's input at the given time, interpolating between reports or extrapolating a short way ahead.
+	 * This makes it possible to read the sticks, pads and gyro at an exact time, such as vsync, rather than at the time of the latest report.<br>
+	 * The time is in the base of {@link System#nanoTime()}, or the recording's time base when replaying a recording.<br>
+	 * This is independent from {@link #poll()}, and may be called from any thread.
+	 * @return False if no history is available, in which case the destination is not modified.
+	 * @see SteamController#PROP_HISTORY_SIZE
+	 * @see SteamController#PROP_MAX_EXTRAPOLATION*/
+	public boolean sample(long nanos, SteamControllerState dst)
+	{
+		SteamControllerHistory h = threadTask.history;
+		if(h == null)
+			return false;
+		return h.sample(nanos, (long)(config.maxExtrapolation*1E6), dst);
 	}
 
 	@Override
@@ -503,32 +591,69 @@ public class SteamController extends AbstractController
 	protected void pollDevice() throws IOException
 	{
 		threadTask.poll(data);
+		data.eventBudget = data.eventQueueSize;
 	}
 
 	@Override
 	protected boolean getNextDeviceEvent(Event event) throws IOException
 	{
-		SCButton b;
-		while((b = data.clickQueue.poll()) != null)
+		//AbstractController discards events that don't fit in its queue, so leave those in the ring where the overflow policy sees them
+		if(data.eventBudget <= 0)
+			return false;
+		//Only drain the events that were added before the last poll, so the events and the state agree
+		if(data.events.next(event))
 		{
-			b.cachedValue = 1.0f-b.cachedValue;
-			event.set(b, b.cachedValue, data.lastUpdateTimeNanos);
+			((SCComponent)event.getComponent()).cachedValue = event.getValue();
+			data.eventBudget--;
 			return true;
 		}
+		
+		//After events have been lost, report any button whose last event disagrees with the polled state
+		long lost = getLostEvents();
+		if(lost != data.lostEvents)
+		{
+			data.lostEvents = lost;
+			data.resyncButtons = true;
+		}
+		if(data.resyncButtons)
+		{
+			for(SCComponent c : (SCComponent[])getComponents())
+			{
+				if(c instanceof SCButton)
+				{
+					float pv = c.getPollData();
+					if(pv != c.cachedValue)
+					{
+						c.cachedValue = pv;
+						event.set(c, pv, data.state.lastUpdateTimeNanos);
+						data.eventBudget--;
+						return true;
+					}
+				}
+			}
+			data.resyncButtons = false;
+		}
 
-		for(SCComponent c : (SCComponent[])getComponents())
+		//Only visit the axes that changed since their last event
+		int dirty = data.dirtyAxes;
+		while(dirty != 0)
 		{
-			if(!(c instanceof SCButton))
+			SCAxis c = axisComponents[Integer.numberOfTrailingZeros(dirty)];
+			dirty &= dirty-1;
+			if(c != null)
 			{
 				float pv = c.getPollData();
 				if(pv != c.cachedValue)
 				{
 					c.cachedValue = pv;
-					event.set(c, pv, data.lastUpdateTimeNanos);
+					event.set(c, pv, data.state.lastUpdateTimeNanos);
+					data.dirtyAxes = dirty;
+					data.eventBudget--;
 					return true;
 				}
 			}
 		}
+		data.dirtyAxes = 0;
 		return false;
 	}
 
@@ -553,6 +678,7 @@ public class SteamController extends AbstractController
 	@Override
 	protected void setDeviceEventQueueSize(int size) throws IOException
 	{
+		data.eventQueueSize = size;
 		threadTask.setEventQueueSize(size);
 	}
 }
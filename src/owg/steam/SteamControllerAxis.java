@@ -0,0 +1,77 @@
+package owg.steam;
+
+import net.java.games.input.Component.Identifier;
+import net.java.games.input.Component.Identifier.Axis;
+
+/**Describes the steam controller axes and their layout in reports.<br>
+ * <br>
+ * Each axis is decoded from a little endian value at the given offset in one of the report buffers, multiplied by the scale.
+ * Signed 16 bit values have a scale of &plusmn;1/32768, unsigned 8 bit values have a scale of 1/255.
+ * A negative scale inverts the axis.*/
+public enum SteamControllerAxis
+{
+	STICK_X(SteamControllerAxis.SOURCE_LSTICK, 16, 1/32768f, Axis.X, "X Axis"),
+	STICK_Y(SteamControllerAxis.SOURCE_LSTICK, 18, -1/32768f, Axis.Y, "Y Axis"),
+	
+	LPAD_X(SteamControllerAxis.SOURCE_LPAD, 16, 1/32768f, Axis.X_FORCE, "LPad X"),
+	LPAD_Y(SteamControllerAxis.SOURCE_LPAD, 18, -1/32768f, Axis.Y_FORCE, "LPad Y"),
+	
+	RPAD_X(SteamControllerAxis.SOURCE_LATEST, 20, 1/32768f, Axis.RX_FORCE, "RPad X"),
+	RPAD_Y(SteamControllerAxis.SOURCE_LATEST, 22, -1/32768f, Axis.RY_FORCE, "RPad Y"),
+	
+	LT(SteamControllerAxis.SOURCE_LATEST, 11, 1/255f, Axis.Z_FORCE, "LT"),
+	RT(SteamControllerAxis.SOURCE_LATEST, 12, 1/255f, Axis.RZ_FORCE, "RT"),
+	
+	ACCEL_X(SteamControllerAxis.SOURCE_LATEST, 28, 1/32768f, Axis.X_ACCELERATION, "Accel X"),
+	ACCEL_Y(SteamControllerAxis.SOURCE_LATEST, 30, 1/32768f, Axis.Y_ACCELERATION, "Accel Y"),
+	ACCEL_Z(SteamControllerAxis.SOURCE_LATEST, 32, 1/32768f, Axis.Z_ACCELERATION, "Accel Z"),
+	
+	GYRO_X(SteamControllerAxis.SOURCE_LATEST, 34, 1/32768f, Axis.RX, "Gyro X"),
+	GYRO_Y(SteamControllerAxis.SOURCE_LATEST, 36, 1/32768f, Axis.RY, "Gyro Y"),
+	GYRO_Z(SteamControllerAxis.SOURCE_LATEST, 38, -1/32768f, Axis.RZ, "Gyro Z"),
+	
+	/**Orientation quaternion. This is sent by the controller if {@link SteamController#STEAM_GYRO_MODE_SEND_ORIENTATION} is enabled,
+	 * otherwise it can be estimated from the gyro and accelerometer by {@link SteamControllerOrientation}, 
+	 * see {@link SteamController#PROP_ESTIMATE_ORIENTATION}.*/
+	ORIENTATION_W(SteamControllerAxis.SOURCE_LATEST, 40, 1/32768f, Axis.UNKNOWN, "Orientation W"),
+	ORIENTATION_X(SteamControllerAxis.SOURCE_LATEST, 42, 1/32768f, Axis.UNKNOWN, "Orientation X"),
+	ORIENTATION_Y(SteamControllerAxis.SOURCE_LATEST, 44, 1/32768f, Axis.UNKNOWN, "Orientation Y"),
+	ORIENTATION_Z(SteamControllerAxis.SOURCE_LATEST, 46, 1/32768f, Axis.UNKNOWN, "Orientation Z");
+	
+	/**The value is read from the data specific to the left pad*/
+	public static final int SOURCE_LPAD = 0;
+	/**The value is read from the data specific to the left stick*/
+	public static final int SOURCE_LSTICK = 1;
+	/**The value is read from the latest report*/
+	public static final int SOURCE_LATEST = 2;
+	
+	/**All axes, in ordinal order*/
+	public static final SteamControllerAxis[] AXES = values();
+	
+	public final int source;
+	public final int offset;
+	public final float scale;
+	public final boolean signed16;
+	public final Identifier jinputAxis;
+	public final String title;
+	
+	SteamControllerAxis(int source, int offset, float scale, Identifier axis, String title)
+	{
+		this.source = source;
+		this.offset = offset;
+		this.scale = scale;
+		this.signed16 = Math.abs(scale) != 1/255f;
+		this.jinputAxis = axis;
+		this.title = title;
+	}
+	
+	/**Decodes the raw value of this axis from the appropriate buffer, without applying dead or edge zones.*/
+	public float decode(byte[] lPadData, byte[] lStickData, byte[] latestData)
+	{
+		byte[] src = source == SOURCE_LPAD ? lPadData : source == SOURCE_LSTICK ? lStickData : latestData;
+		if(signed16)
+			return ((short)(src[offset]&0xFF | (src[offset+1]&0xFF)<<8))*scale;
+		else
+			return (src[offset]&0xFF)*scale;
+	}
+}
@@ -0,0 +1,19 @@
+package owg.steam;
+
+/**Source of timestamps for Steam Controller input processing.
+ * This makes it possible to replay recorded input with the original timestamps, see {@link SteamControllerReplayTransport}.*/
+public interface SteamControllerClock
+{
+	/**Clock that returns {@link System#nanoTime()}*/
+	public static final SteamControllerClock SYSTEM = new SteamControllerClock()
+	{
+		@Override
+		public long nanoTime()
+		{
+			return System.nanoTime();
+		}
+	};
+	
+	/**Returns the current time in nanoseconds, with the same semantics as {@link System#nanoTime()}.*/
+	public long nanoTime();
+}
@@ -7,37 +7,63 @@ import java.util.Properties;
 
 import static owg.steam.SteamController.*;
 
+/**Immutable snapshot of the per-controller settings in {@link SteamControllerPlugin#getProperties()}.<br>
+ * <br>
+ * The controller thread reads its snapshot without synchronization. A new snapshot can be handed to a running controller 
+ * with {@link SteamController#setConfig(SteamControllerConfig)}, and the controller thread swaps it in between reports, 
+ * so each report is processed with one consistent configuration.
+ * @see SteamControllerPlugin#reloadConfiguration()*/
 public class SteamControllerConfig
 {
 	public static DecimalFormat floatFormatter = new DecimalFormat("0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
 	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
 	// so that the controller thread will not keep the plugin alive if the application stops using it.
 	
-	public boolean applyConfiguration;
+	public final boolean applyConfiguration;
 
-	public short leftStickMode;
-	public short rightPadMode;
-	public short trackballOrMargin;
-	public short gyroMode;
+	public final short leftStickMode;
+	public final short rightPadMode;
+	public final short trackballOrMargin;
+	public final short gyroMode;
 
-	public boolean leftPadAutoHaptics;
-	public boolean rightPadAutoHaptics;
+	public final boolean leftPadAutoHaptics;
+	public final boolean rightPadAutoHaptics;
 
-	public float leftStickDeadZone;
-	public float leftPadDeadZone;
-	public float rightPadDeadZone;
+	public final float leftStickDeadZone;
+	public final float leftPadDeadZone;
+	public final float rightPadDeadZone;
 
-	public float leftStickEdgeZone;
-	public float leftPadEdgeZone;
-	public float rightPadEdgeZone;
+	public final float leftStickEdgeZone;
+	public final float leftPadEdgeZone;
+	public final float rightPadEdgeZone;
 	
-	public float gyroMouseX;
-	public float gyroMouseY;
-	public int gyroMouseEnableMask;
-	public int gyroMouseDisableMask;
+	public final SteamControllerResponseCurve leftStickCurve;
+	public final SteamControllerResponseCurve leftPadCurve;
+	public final SteamControllerResponseCurve rightPadCurve;
 	
-	public int buttonMask;
-	public boolean hideDisabledButtons;
+	/**Lookup tables for the dead zones, edge zones and curves, computed with the snapshot.*/
+	public final SteamControllerRadialResponse leftStickResponse;
+	public final SteamControllerRadialResponse leftPadResponse;
+	public final SteamControllerRadialResponse rightPadResponse;
+	
+	public final float gyroMouseX;
+	public final float gyroMouseY;
+	public final int gyroMouseEnableMask;
+	public final int gyroMouseDisableMask;
+	public final boolean estimateOrientation;
+	public final float orientationGain;
+	
+	public final int buttonMask;
+	public final boolean hideDisabledButtons;
+	
+	public final int asyncTransfers;
+	public final float idlePollInterval;
+	
+	public final int historySize;
+	public final float maxExtrapolation;
+	
+	public final int eventOverflow;
+	public final int maxEventQueueSize;
 	
 	public SteamControllerConfig(Properties properties)
 	{
@@ -59,13 +85,51 @@ public class SteamControllerConfig
 		this.leftPadEdgeZone = SCUtil.getFloat(properties, PROP_LEFT_PAD_EDGE_ZONE, 0.3f);
 		this.rightPadEdgeZone = SCUtil.getFloat(properties, PROP_RIGHT_PAD_EDGE_ZONE, 0.3f);
 		
+		this.leftStickCurve = SCUtil.getCurve(properties, PROP_LEFT_STICK_CURVE, SteamControllerResponseCurve.LINEAR);
+		this.leftPadCurve = SCUtil.getCurve(properties, PROP_LEFT_PAD_CURVE, SteamControllerResponseCurve.LINEAR);
+		this.rightPadCurve = SCUtil.getCurve(properties, PROP_RIGHT_PAD_CURVE, SteamControllerResponseCurve.LINEAR);
+		
+		this.leftStickResponse = new SteamControllerRadialResponse(leftStickDeadZone, leftStickEdgeZone, leftStickCurve);
+		this.leftPadResponse = new SteamControllerRadialResponse(leftPadDeadZone, leftPadEdgeZone, leftPadCurve);
+		this.rightPadResponse = new SteamControllerRadialResponse(rightPadDeadZone, rightPadEdgeZone, rightPadCurve);
+		
 		this.gyroMouseX = SCUtil.getFloat(properties, PROP_GYRO_MOUSE_X, 0.0f);
 		this.gyroMouseY = SCUtil.getFloat(properties, PROP_GYRO_MOUSE_Y, 0.0f);
 		this.gyroMouseEnableMask = SCUtil.getInt(properties, PROP_GYRO_MOUSE_ENABLE_MASK, 0x0);
 		this.gyroMouseDisableMask = SCUtil.getInt(properties, PROP_GYRO_MOUSE_DISABLE_MASK, 0x0);	
+		this.estimateOrientation = SCUtil.getByte(properties, PROP_ESTIMATE_ORIENTATION, BYTE_FALSE) != 0;
+		this.orientationGain = Math.max(0.0f, SCUtil.getFloat(properties, PROP_ORIENTATION_GAIN, 0.1f));
 		
 		this.buttonMask = SCUtil.getInt(properties, PROP_BUTTON_MASK, 0x7FFFFF);
 		this.hideDisabledButtons = SCUtil.getByte(properties, PROP_HIDE_DISABLED_BUTTONS, BYTE_FALSE) != 0;
+		
+		//Spinning and virtual threads must not block in libusb, so USB controllers always use asynchronous transfers with them
+		int execution = SCUtil.getInt(properties, PROP_EXECUTION, EXECUTION_SINGLE_THREAD);
+		int minTransfers = execution == EXECUTION_SPIN || execution == EXECUTION_VIRTUAL ? 2 : 0;
+		this.asyncTransfers = Math.max(minTransfers, SCUtil.getInt(properties, PROP_ASYNC_TRANSFERS, 0));
+		this.idlePollInterval = Math.max(0.0f, SCUtil.getFloat(properties, PROP_IDLE_POLL_INTERVAL, 100.0f));
+		
+		this.historySize = Math.max(0, SCUtil.getInt(properties, PROP_HISTORY_SIZE, 64));
+		this.maxExtrapolation = Math.max(0.0f, SCUtil.getFloat(properties, PROP_MAX_EXTRAPOLATION, 8.0f));
+		
+		this.eventOverflow = SCUtil.getInt(properties, PROP_EVENT_OVERFLOW, OVERFLOW_DROP_OLDEST);
+		this.maxEventQueueSize = Math.max(1, SCUtil.getInt(properties, PROP_MAX_EVENT_QUEUE_SIZE, 1024));
+	}
+	
+	/**Returns whether a controller with the other configuration has the same components as one with this configuration. 
+	 * If not, the controller must be recreated to apply the other configuration, see {@link SteamController#componentArray(Properties)}.*/
+	public boolean hasSameComponents(SteamControllerConfig other)
+	{
+		int shapeBits = STEAM_GYRO_MODE_SEND_RAW_ACCEL|STEAM_GYRO_MODE_SEND_RAW_GYRO|STEAM_GYRO_MODE_SEND_ORIENTATION;
+		return buttonMask == other.buttonMask && hideDisabledButtons == other.hideDisabledButtons && 
+				(gyroMode&shapeBits) == (other.gyroMode&shapeBits) && hasOrientation() == other.hasOrientation();
+	}
+	
+	/**Returns whether the controller has orientation components, either sent by the controller or estimated by the plugin.*/
+	public boolean hasOrientation()
+	{
+		return (gyroMode&STEAM_GYRO_MODE_SEND_ORIENTATION) != 0 || 
+				(estimateOrientation && (gyroMode&STEAM_GYRO_MODE_SEND_RAW_GYRO) != 0);
 	}
 	
 	public void writeTo(Properties properties)
@@ -87,14 +151,29 @@ public class SteamControllerConfig
 		properties.setProperty(PROP_LEFT_STICK_EDGE_ZONE, floatFormatter.format(leftStickEdgeZone));
 		properties.setProperty(PROP_LEFT_PAD_EDGE_ZONE, floatFormatter.format(leftPadEdgeZone));
 		properties.setProperty(PROP_RIGHT_PAD_EDGE_ZONE, floatFormatter.format(rightPadEdgeZone));
+		
+		properties.setProperty(PROP_LEFT_STICK_CURVE, leftStickCurve.toString());
+		properties.setProperty(PROP_LEFT_PAD_CURVE, leftPadCurve.toString());
+		properties.setProperty(PROP_RIGHT_PAD_CURVE, rightPadCurve.toString());
 
 		properties.setProperty(PROP_GYRO_MOUSE_X, floatFormatter.format(gyroMouseX));
 		properties.setProperty(PROP_GYRO_MOUSE_Y, floatFormatter.format(gyroMouseY));
 
 		properties.setProperty(PROP_GYRO_MOUSE_ENABLE_MASK, SCUtil.toBinaryString(gyroMouseEnableMask, 23));
 		properties.setProperty(PROP_GYRO_MOUSE_DISABLE_MASK, SCUtil.toBinaryString(gyroMouseDisableMask, 23));
+		properties.setProperty(PROP_ESTIMATE_ORIENTATION, SCUtil.toHexString(estimateOrientation));
+		properties.setProperty(PROP_ORIENTATION_GAIN, floatFormatter.format(orientationGain));
 
 		properties.setProperty(PROP_BUTTON_MASK, SCUtil.toBinaryString(buttonMask, 23));
 		properties.setProperty(PROP_HIDE_DISABLED_BUTTONS, SCUtil.toHexString(hideDisabledButtons));
+		
+		properties.setProperty(PROP_ASYNC_TRANSFERS, Integer.toString(asyncTransfers));
+		properties.setProperty(PROP_IDLE_POLL_INTERVAL, floatFormatter.format(idlePollInterval));
+		
+		properties.setProperty(PROP_HISTORY_SIZE, Integer.toString(historySize));
+		properties.setProperty(PROP_MAX_EXTRAPOLATION, floatFormatter.format(maxExtrapolation));
+		
+		properties.setProperty(PROP_EVENT_OVERFLOW, Integer.toString(eventOverflow));
+		properties.setProperty(PROP_MAX_EVENT_QUEUE_SIZE, Integer.toString(maxEventQueueSize));
 	}
 }
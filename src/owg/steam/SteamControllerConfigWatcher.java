@@ -0,0 +1,120 @@
+package owg.steam;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Properties;
+
+/**Thread that reloads the configuration when a properties file changes, see {@link SteamController#PROP_CONFIG_FILE}.<br>
+ * <br>
+ * The file is checked for a new modification time or size at a fixed interval. 
+ * When it has changed, it is loaded, and the plugin applies it with {@link SteamControllerPlugin#reloadConfiguration()}.
+ * The file is kept by itself, and layered over {@link SteamController#properties} when the plugin reads its properties, 
+ * see {@link SteamControllerPlugin#getProperties()}, so the watcher never modifies the properties of the application or of other plugins.*/
+public class SteamControllerConfigWatcher extends Thread
+{
+	//Like the shutdown hook, this must not keep the plugin alive
+	private final WeakReference<SteamControllerPlugin> ref;
+	protected final File file;
+	protected final long interval;
+	/**The contents of the file at the last successful load, or null*/
+	protected volatile Properties fileProperties;
+	protected long lastModified = 0;
+	protected long length = -1;
+	protected volatile boolean alive = true;
+	
+	/**@param interval The interval between checks in milliseconds*/
+	public SteamControllerConfigWatcher(SteamControllerPlugin plugin, File file, long interval)
+	{
+		super("steam-controller-config");
+		setDaemon(true);
+		this.ref = new WeakReference<SteamControllerPlugin>(plugin);
+		this.file = file;
+		this.interval = Math.max(1L, interval);
+	}
+	
+	/**Loads the file if it has changed since the last call. 
+	 * Returns whether the file was loaded.*/
+	public boolean load()
+	{
+		long m = file.lastModified();
+		long l = file.length();
+		if(m == lastModified && l == length)
+			return false;
+		lastModified = m;
+		length = l;
+		if(m == 0)
+		{
+			System.out.println("Info: Configuration file "+file+" not found");
+			return false;
+		}
+		Properties p = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			p.load(in);
+		} catch(IOException e) {
+			System.out.println("Info: Failed to read configuration file "+file+" ("+e.toString()+")");
+			return false;
+		} finally {
+			if(in != null)
+			{
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace(); //Dead code
+				}
+			}
+		}
+		fileProperties = p;
+		return true;
+	}
+	
+	/**Returns new properties with the contents of the file on top of the given defaults, 
+	 * or the defaults themselves if the file has not been loaded.*/
+	public Properties layer(Properties defaults)
+	{
+		Properties f = fileProperties;
+		if(f == null)
+			return defaults;
+		Properties p = defaults == null ? new Properties() : new Properties(defaults);
+		p.putAll(f);
+		return p;
+	}
+	
+	@Override
+	public void run()
+	{
+		while(alive)
+		{
+			try {
+				Thread.sleep(interval);
+			} catch(InterruptedException e) {
+				continue;
+			}
+			if(!load())
+				continue;
+			SteamControllerPlugin plugin = ref.get();
+			if(plugin == null)
+				break;
+			System.out.println("Info: Reloading configuration from "+file);
+			try {
+				plugin.reloadConfiguration();
+			} catch(Exception e) {
+				System.out.println("Info: Failed to reload configuration ("+e.toString()+")");
+			}
+			plugin = null;
+		}
+	}
+	
+	/**Stops the thread.*/
+	public void close() throws InterruptedException
+	{
+		alive = false;
+		interrupt();
+		if(Thread.currentThread() != this)
+			join();
+	}
+}
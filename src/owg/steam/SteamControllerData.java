@@ -1,22 +1,26 @@
 package owg.steam;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
+/**Application-side view of a Steam Controller's input. This is only accessed by the thread that polls the controller.*/
 public class SteamControllerData
 {
 	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
 	// so that the controller thread will not keep the plugin alive if the application stops using it.
 	
-	/**Queue of unprocessed button presses/releases*/
-	protected Queue<SCButton> clickQueue = new LinkedList<SCButton>();
+	/**Reader for the events that are delivered through the controller's jinput event queue*/
+	protected SteamControllerEventReader events;
 
-	/**Data specific to left pad*/
-	protected final byte[] lPadData = new byte[64];
-	/**Data specific to left stick*/
-	protected final byte[] lStickData = new byte[64];
-	/**Latest data received from USB. Points to either lPadDataClient or lStickDataClient.*/
-	protected byte[] latestData = lPadData;
-	/**Timestamp for latest data*/
-	protected long lastUpdateTimeNanos = Long.MIN_VALUE;
+	/**Index of the front buffer in the controller thread's {@link SteamControllerStateBuffer}*/
+	protected int stateIndex = SteamControllerStateBuffer.INITIAL_FRONT;
+	/**The state at the time of the last poll*/
+	protected SteamControllerState state;
+	/**Bits for the axes that may have changed since their last event, indexed by {@link SteamControllerAxis} ordinal*/
+	protected int dirtyAxes = 0;
+	/**The lost event count at the time of the last button resync*/
+	protected long lostEvents = 0;
+	/**Set while buttons are being brought up to date with the state after events were lost*/
+	protected boolean resyncButtons = false;
+	/**Size of the jinput event queue*/
+	protected int eventQueueSize = 32;//Default event queue size from AbstractController
+	/**Number of events that may still be delivered since the last poll, so that none are discarded by a full jinput event queue*/
+	protected int eventBudget = 0;
 }
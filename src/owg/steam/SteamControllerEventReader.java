@@ -0,0 +1,93 @@
+package owg.steam;
+
+import net.java.games.input.Component;
+import net.java.games.input.Event;
+
+/**Cursor for reading the events of one controller from its {@link SteamControllerEventRing}.<br>
+ * <br>
+ * The ring is never modified by readers, so any number of readers can drain the same events at their own pace, 
+ * without copying or locking. Each reader must only be used by one thread at a time.<br>
+ * <br>
+ * A reader that falls more than the size of the ring behind skips to the oldest event that is still available, 
+ * and the events it missed are counted in {@link #getLostEvents()}. This only affects the slow reader, 
+ * except for the controller's own reader, which the overflow policy is based on, see {@link SteamController#PROP_EVENT_OVERFLOW}.
+ * @see SteamController#createEventReader()*/
+public class SteamControllerEventReader
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected final SteamControllerThreadTask task;
+	protected final Component[] components;
+	/**Whether this is the controller's own reader, whose progress the overflow policy is based on*/
+	protected final boolean primary;
+	/**The event ring at the time of the last update*/
+	protected SteamControllerEventRing ring;
+	/**Sequence number of the next event to read*/
+	protected long tail;
+	/**Sequence number of the first event that was added after the last update*/
+	protected long limit;
+	/**Only written by the reading thread, volatile so that it can be monitored, see {@link SteamControllerMetrics}*/
+	protected volatile long lostEvents = 0;
+	
+	/**Creates a reader that will read the events that are added from now on.*/
+	public SteamControllerEventReader(SteamControllerThreadTask task, Component[] components)
+	{
+		this(task, components, false);
+	}
+	
+	/**Creates a reader that will read the events that are added from now on. 
+	 * If primary is true, then the controller's overflow policy applies to this reader, see {@link SteamController#PROP_EVENT_OVERFLOW}.
+	 * Only one reader for each controller should be primary.*/
+	public SteamControllerEventReader(SteamControllerThreadTask task, Component[] components, boolean primary)
+	{
+		this.task = task;
+		this.primary = primary;
+		this.components = components;
+		this.ring = task.events;
+		this.tail = ring.head();
+		this.limit = tail;
+	}
+	
+	/**Makes the events that have been added up to now available to {@link #next(Event)}. 
+	 * Events that are added later will not be read until the next update, so the events can be kept consistent with a polled state.
+	 * @return The number of events that are available.*/
+	public long update()
+	{
+		ring = task.events;
+		limit = ring.head();
+		if(limit-tail > ring.size())
+		{
+			//Fell behind, the oldest events have been overwritten
+			lostEvents += limit-ring.size()-tail;
+			tail = limit-ring.size();
+			if(primary)
+				task.consumed = tail;
+		}
+		return limit-tail;
+	}
+	
+	/**Reads the next available event into the destination.
+	 * @return False if there are no more events available since the last {@link #update()}.*/
+	public boolean next(Event dst)
+	{
+		while(tail < limit)
+		{
+			boolean read = ring.get(tail++, dst, components);
+			//Publish the progress after every event, since the application may stop reading before the events run out
+			if(primary)
+				task.consumed = tail;
+			if(read)
+				return true;
+			//Overwritten while reading
+			lostEvents++;
+		}
+		return false;
+	}
+	
+	/**Returns the number of events this reader has missed because it fell behind.*/
+	public long getLostEvents()
+	{
+		return lostEvents;
+	}
+}
@@ -0,0 +1,105 @@
+package owg.steam;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.java.games.input.Component;
+import net.java.games.input.Event;
+
+/**Lock-free, preallocated ring of input events, written by the controller thread and drained by the application.<br>
+ * <br>
+ * Each event is stored as primitives: The index of the component in the controller's component array, 
+ * the new value of the component, and the timestamp of the report that produced the event. 
+ * Adding or draining an event never allocates.<br>
+ * <br>
+ * Each event has a sequence number, and each slot records the sequence number of the event it holds.
+ * The producer marks a slot as busy while overwriting it, so the consumer can detect events that were overwritten 
+ * while it was reading them. When the ring is full, the oldest event is overwritten, and the consumer skips it.
+ * Neither side ever waits for the other.*/
+public class SteamControllerEventRing
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected static final long BUSY = -1L;
+	/**Number of longs per slot: sequence number, component index and value bits, timestamp*/
+	protected static final int STRIDE = 3;
+	
+	protected final int size;
+	protected final AtomicLongArray slots;
+	/**Sequence number of the next event to add*/
+	protected final AtomicLong head;
+	
+	/**Creates an event ring with the given capacity, where the first event will have the given sequence number.*/
+	public SteamControllerEventRing(int size, long head)
+	{
+		this.size = size;
+		this.slots = new AtomicLongArray(size*STRIDE);
+		for(int i = 0; i<size; i++)
+			slots.set(i*STRIDE, BUSY);
+		this.head = new AtomicLong(head);
+	}
+	
+	/**Returns the maximum number of events that the ring holds.*/
+	public int size()
+	{
+		return size;
+	}
+	
+	/**Returns the sequence number of the next event to add.*/
+	public long head()
+	{
+		return head.get();
+	}
+
+	/**Called by the producer to add an event, overwriting the oldest event if the ring is full.*/
+	public void add(int component, float value, long nanos)
+	{
+		long h = head.get();
+		int i = (int)(h%size)*STRIDE;
+		slots.set(i, BUSY);
+		slots.lazySet(i+1, ((long)component<<32) | (Float.floatToRawIntBits(value)&0xFFFFFFFFL));
+		slots.lazySet(i+2, nanos);
+		slots.lazySet(i, h);
+		head.lazySet(h+1);
+	}
+	
+	/**Called by the producer to create a ring of the given size that continues this one. 
+	 * The newest events that fit are copied with their sequence numbers, so readers can move to the new ring without losing them.
+	 * The producer must add all later events to the new ring.*/
+	public SteamControllerEventRing resize(int newSize)
+	{
+		long h = head.get();
+		long from = Math.max(0L, h-Math.min(size, newSize));
+		SteamControllerEventRing r = new SteamControllerEventRing(newSize, from);
+		for(long seq = from; seq<h; seq++)
+		{
+			int i = (int)(seq%size)*STRIDE;
+			int j = (int)(seq%newSize)*STRIDE;
+			//Slots that never held this event stay busy, so readers count the event as lost like before
+			if(slots.get(i) == seq)
+			{
+				r.slots.set(j+1, slots.get(i+1));
+				r.slots.set(j+2, slots.get(i+2));
+				r.slots.set(j, seq);
+			}
+		}
+		r.head.set(h);
+		return r;
+	}
+	
+	/**Called by the consumer to read the event with the given sequence number into the destination event.
+	 * @return False if the event has been overwritten, in which case the destination is not modified.*/
+	public boolean get(long seq, Event dst, Component[] components)
+	{
+		int i = (int)(seq%size)*STRIDE;
+		if(slots.get(i) != seq)
+			return false;
+		long e = slots.get(i+1);
+		long nanos = slots.get(i+2);
+		if(slots.get(i) != seq)
+			return false;
+		dst.set(components[(int)(e>>>32)], Float.intBitsToFloat((int)e), nanos);
+		return true;
+	}
+}
@@ -0,0 +1,203 @@
+package owg.steam;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import org.usb4java.Context;
+
+/**Runs the controller I/O according to an execution strategy, see {@link SteamController#PROP_EXECUTION}.<br>
+ * <br>
+ * The controllers are divided among one or more {@link SteamControllerWorker}s, each of which runs on its own thread.
+ * Controllers that use asynchronous transfers are always handled by the first worker, 
+ * because their transfers complete on the thread that handles libusb events. 
+ * Their latency does not depend on the number of controllers anyway, so only controllers with synchronous transfers are divided.<br>
+ * Controllers can be attached and detached while the executor is running, e.g. when devices are plugged in or removed.*/
+public class SteamControllerExecutor
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected final ArrayList<SteamControllerWorker> workers = new ArrayList<SteamControllerWorker>();
+	protected final ArrayList<Thread> threads = new ArrayList<Thread>();
+	/**The worker that serves each controller*/
+	protected final IdentityHashMap<SteamControllerThreadTask, SteamControllerWorker> owners = 
+			new IdentityHashMap<SteamControllerThreadTask, SteamControllerWorker>();
+	
+	protected final Context context;
+	protected final boolean spin;
+	protected final boolean virtual;
+	/**Maximum number of workers for the strategy*/
+	protected final int maxWorkers;
+	protected boolean started = false;
+	protected boolean stopped = false;
+	
+	/**Creates the workers and threads for the given strategy. The threads are not started.
+	 * @param strategy One of the <code>EXECUTION</code> constants in {@link SteamController}
+	 * @param threadCount The number of threads for {@link SteamController#EXECUTION_SHARDED}, or 0 for the number of processors*/
+	public SteamControllerExecutor(int strategy, int threadCount, Context context, SteamControllerThreadTask[] tasks)
+	{
+		ArrayList<SteamControllerThreadTask> async = new ArrayList<SteamControllerThreadTask>();
+		ArrayList<SteamControllerThreadTask> sync = new ArrayList<SteamControllerThreadTask>();
+		for(SteamControllerThreadTask t : tasks)
+		{
+			if(t.isAsync())
+				async.add(t);
+			else
+				sync.add(t);
+		}
+		
+		this.context = context;
+		this.spin = strategy == SteamController.EXECUTION_SPIN;
+		boolean v = false;
+		if(strategy == SteamController.EXECUTION_SHARDED)
+			maxWorkers = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+		else if(strategy == SteamController.EXECUTION_VIRTUAL)
+		{
+			v = supportsVirtualThreads();
+			if(!v)
+				System.out.println("Info: Virtual threads are not supported by this JVM, using one thread per controller instead");
+			maxWorkers = Integer.MAX_VALUE;
+		}
+		else
+			maxWorkers = 1;
+		this.virtual = v;
+		int groupCount = Math.max(1, Math.min(maxWorkers, sync.size()));
+		
+		//The asynchronous controllers go in the first group, the rest are dealt out to all groups in turn
+		ArrayList<ArrayList<SteamControllerThreadTask>> groups = new ArrayList<ArrayList<SteamControllerThreadTask>>();
+		for(int i = 0; i<groupCount; i++)
+			groups.add(new ArrayList<SteamControllerThreadTask>());
+		groups.get(0).addAll(async);
+		for(int i = 0; i<sync.size(); i++)
+			groups.get(i%groupCount).add(sync.get(i));
+		
+		for(int i = 0; i<groupCount; i++)
+		{
+			ArrayList<SteamControllerThreadTask> g = groups.get(i);
+			SteamControllerWorker w = newWorker(g.toArray(new SteamControllerThreadTask[g.size()]));
+			for(SteamControllerThreadTask t : g)
+				owners.put(t, w);
+		}
+	}
+	
+	/**Creates a worker for the given controllers and its thread. The thread is started if the executor has been started.*/
+	protected SteamControllerWorker newWorker(SteamControllerThreadTask[] tasks)
+	{
+		int i = workers.size();
+		SteamControllerWorker w = new SteamControllerWorker(context, tasks, spin);
+		w.handleEvents = i == 0 && context != null;
+		String name = maxWorkers == 1 ? "steam-controller-thread" : "steam-controller-thread-"+i;
+		//The event handling worker blocks in libusb, which would pin the carrier of a virtual thread
+		Thread t = virtual && !w.handleEvents ? newVirtualThread(w, name) : null;
+		if(t == null)
+		{
+			t = new Thread(w, name);
+			t.setDaemon(true);
+			if(spin)
+				t.setPriority(Thread.MAX_PRIORITY);
+		}
+		workers.add(w);
+		threads.add(t);
+		if(started)
+			t.start();
+		return w;
+	}
+	
+	/**Returns whether the JVM supports virtual threads (Java 21 and later).*/
+	protected static boolean supportsVirtualThreads()
+	{
+		try
+		{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch(Exception e)
+		{
+			return false;
+		}
+	}
+	
+	/**Creates an unstarted virtual thread with the given name. Returns null if virtual threads are not supported.*/
+	protected static Thread newVirtualThread(Runnable runnable, String name)
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+			Method unstarted = builderClass.getMethod("unstarted", Runnable.class);
+			return (Thread) unstarted.invoke(builder, runnable);
+		} catch(Exception e)
+		{
+			return null;
+		}
+	}
+	
+	public synchronized void start()
+	{
+		started = true;
+		for(Thread t : threads)
+			t.start();
+	}
+	
+	/**Adds a controller to a running executor, without disturbing the other controllers.
+	 * Asynchronous controllers go to the first worker. Others go to the worker with the fewest synchronous controllers, 
+	 * or to a new worker if every worker is busy and the strategy allows more threads.
+	 * @return False if the executor has been shut down, in which case the controller is not attached.*/
+	public synchronized boolean attach(SteamControllerThreadTask task)
+	{
+		if(stopped)
+			return false;
+		SteamControllerWorker w = workers.get(0);
+		if(!task.isAsync())
+		{
+			int[] counts = new int[workers.size()];
+			for(SteamControllerThreadTask t : owners.keySet())
+			{
+				if(!t.isAsync())
+					counts[workers.indexOf(owners.get(t))]++;
+			}
+			int best = 0;
+			for(int i = 1; i<counts.length; i++)
+			{
+				if(counts[i] < counts[best])
+					best = i;
+			}
+			if(counts[best] > 0 && workers.size() < maxWorkers)
+				w = newWorker(new SteamControllerThreadTask[0]);
+			else
+				w = workers.get(best);
+		}
+		owners.put(task, w);
+		w.attach(task);
+		return true;
+	}
+	
+	/**Removes a controller from the executor. Its transfers are cancelled and it is cleaned up by its worker, 
+	 * without disturbing the other controllers.*/
+	public synchronized void detach(SteamControllerThreadTask task)
+	{
+		SteamControllerWorker w = owners.remove(task);
+		if(w != null)
+			w.detach(task);
+	}
+	
+	/**Stops all workers and waits for them to clean up. 
+	 * The event handling worker is stopped last, so that it can complete the other workers' pending transfers.*/
+	public synchronized void shutdown() throws InterruptedException
+	{
+		stopped = true;
+		for(int i = 1; i<workers.size(); i++)
+			workers.get(i).alive = false;
+		for(int i = 1; i<threads.size(); i++)
+			threads.get(i).join();
+		workers.get(0).alive = false;
+		threads.get(0).join();
+	}
+	
+	/**Returns the number of threads used by this executor.*/
+	public synchronized int getThreadCount()
+	{
+		return threads.size();
+	}
+}
@@ -0,0 +1,159 @@
+package owg.steam;
+
+import java.util.Arrays;
+
+/**A haptic effect that has been compiled into a table of haptic commands, ready to be played by a {@link SteamControllerHapticMixer}.<br>
+ * <br>
+ * Each step of the table is a single haptic command: The rumbler plays a number of pulses with the given intensity,
+ * each lasting the given period. Effects are immutable, so one effect can be played any number of times on any rumbler.
+ * Use {@link Builder} to create effects.
+ * @see SCRumbler#play(SteamControllerHapticEffect)*/
+public class SteamControllerHapticEffect
+{
+	/**Pulse period used by the builder unless another is specified, in microseconds*/
+	public static final int DEFAULT_PERIOD = 0x1400;
+	/**Length of the steps that ramps are divided into, in milliseconds*/
+	public static final float RAMP_STEP = 10.0f;
+	
+	/**Intensity of each step, 0 to 0xFFFF*/
+	protected final char[] intensities;
+	/**Pulse period of each step, in microseconds*/
+	protected final char[] periods;
+	/**Number of pulses of each step*/
+	protected final char[] counts;
+	/**Number of times to play the steps, or 0 to repeat until stopped*/
+	protected final int loops;
+	
+	protected SteamControllerHapticEffect(char[] intensities, char[] periods, char[] counts, int loops)
+	{
+		this.intensities = intensities;
+		this.periods = periods;
+		this.counts = counts;
+		this.loops = loops;
+	}
+	
+	/**Returns the number of steps.*/
+	public int length()
+	{
+		return intensities.length;
+	}
+	
+	/**Returns the duration of the given step in nanoseconds.*/
+	public long getStepNanos(int step)
+	{
+		return (long)periods[step]*counts[step]*1000L;
+	}
+	
+	/**Returns the number of times the steps are played, or 0 if they are repeated until stopped.*/
+	public int getLoops()
+	{
+		return loops;
+	}
+	
+	/**Builder for compiling haptic effects. Durations are in milliseconds, intensities are between 0 and 1.*/
+	public static class Builder
+	{
+		protected char[] intensities = new char[16];
+		protected char[] periods = new char[16];
+		protected char[] counts = new char[16];
+		protected int length = 0;
+		protected int period = DEFAULT_PERIOD;
+		protected int loops = 1;
+		
+		/**Sets the pulse period in microseconds (1 to 0xFFFF) for the following steps. 
+		 * Shorter periods feel like a higher pitched buzz.*/
+		public Builder period(int micros)
+		{
+			this.period = Math.max(1, Math.min(0xFFFF, micros));
+			return this;
+		}
+		
+		/**Sets the number of times to play the effect, or 0 to repeat it until it is stopped (default 1).*/
+		public Builder loop(int times)
+		{
+			this.loops = Math.max(0, times);
+			return this;
+		}
+		
+		/**Adds a step that plays the given number of pulses at the given intensity, with the current period.*/
+		public Builder pulses(float intensity, int count)
+		{
+			return step(intensity, period, count);
+		}
+		
+		/**Adds pulses at a constant intensity for the given duration.*/
+		public Builder hold(float intensity, float millis)
+		{
+			int count = Math.max(1, Math.round(millis*1000.0f/period));
+			//Split into steps that fit in the table
+			while(count > 0xFFFF)
+			{
+				step(intensity, period, 0xFFFF);
+				count -= 0xFFFF;
+			}
+			return step(intensity, period, count);
+		}
+		
+		/**Adds silence for the given duration.*/
+		public Builder pause(float millis)
+		{
+			return hold(0.0f, millis);
+		}
+		
+		/**Adds a linear change in intensity over the given duration, in steps of {@link SteamControllerHapticEffect#RAMP_STEP}.*/
+		public Builder ramp(float from, float to, float millis)
+		{
+			int steps = Math.max(1, Math.round(millis/RAMP_STEP));
+			for(int i = 0; i<steps; i++)
+				hold(from+(to-from)*(i+0.5f)/steps, millis/steps);
+			return this;
+		}
+		
+		/**Adds an envelope that rises to the peak intensity, holds it, and then falls back to zero.*/
+		public Builder envelope(float peak, float attackMillis, float holdMillis, float releaseMillis)
+		{
+			if(attackMillis > 0)
+				ramp(0.0f, peak, attackMillis);
+			if(holdMillis > 0)
+				hold(peak, holdMillis);
+			if(releaseMillis > 0)
+				ramp(peak, 0.0f, releaseMillis);
+			return this;
+		}
+		
+		/**Adds a pulse train, alternating between the intensity and silence the given number of times.*/
+		public Builder pulseTrain(float intensity, float onMillis, float offMillis, int repeats)
+		{
+			for(int i = 0; i<repeats; i++)
+			{
+				hold(intensity, onMillis);
+				pause(offMillis);
+			}
+			return this;
+		}
+		
+		protected Builder step(float intensity, int period, int count)
+		{
+			if(length == intensities.length)
+			{
+				intensities = Arrays.copyOf(intensities, length*2);
+				periods = Arrays.copyOf(periods, length*2);
+				counts = Arrays.copyOf(counts, length*2);
+			}
+			intensities[length] = (char)(0xFFFF*Math.max(0.0f, Math.min(1.0f, intensity)));
+			periods[length] = (char)period;
+			counts[length] = (char)Math.max(1, Math.min(0xFFFF, count));
+			length++;
+			return this;
+		}
+		
+		/**Compiles the effect. The builder may be used again afterwards.*/
+		public SteamControllerHapticEffect build()
+		{
+			if(length == 0)
+				throw new IllegalStateException("Empty haptic effect");
+			return new SteamControllerHapticEffect(Arrays.copyOf(intensities, length), 
+					Arrays.copyOf(periods, length), Arrays.copyOf(counts, length), loops);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package owg.steam;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**Plays {@link SteamControllerHapticEffect}s on the two rumblers of a controller.<br>
+ * <br>
+ * Any thread may start or stop effects. The requests are placed in a small mailbox, 
+ * and the controller thread picks them up in the order they were made and steps through the effects on its own schedule.
+ * Each rumbler has a fixed number of voices, and the active voices are mixed into a single haptic command,
+ * so playing effects does not allocate memory or access the device from the calling thread.<br>
+ * <br>
+ * Notice: This class avoids any references to SteamController or SteamControllerPlugin, 
+ * since it is used from the controller thread.*/
+public class SteamControllerHapticMixer
+{
+	/**Number of effects that can play at once on each rumbler. Starting another effect replaces the one that started first.*/
+	public static final int VOICES = 4;
+	/**Number of requests that can be waiting for the controller thread. Must be a power of two.*/
+	protected static final int MAILBOX = 16;
+	/**Placeholder for stopping all effects on a rumbler*/
+	protected static final SteamControllerHapticEffect ALL = new SteamControllerHapticEffect(null, null, null, 0);
+	
+	//The mailbox is a ring of requests, indexed by request number modulo MAILBOX.
+	//A slot with the sequence number n is free for request n, and holds request n-1 once it has been written.
+	protected final AtomicLongArray sequences = new AtomicLongArray(MAILBOX);
+	protected final SteamControllerHapticEffect[] requestEffects = new SteamControllerHapticEffect[MAILBOX];
+	/**The rumbler of each request, plus {@link #STOP} for requests to stop*/
+	protected final int[] requestTargets = new int[MAILBOX];
+	protected static final int STOP = 2;
+	/**Number of the next request to be made*/
+	protected final AtomicLong nextRequest = new AtomicLong();
+	/**Number of the next request to be handled. Only used by the controller thread.*/
+	protected long handledRequests = 0;
+	
+	//Voice state, indexed by rumbler*VOICES+voice. Only used by the controller thread.
+	protected final SteamControllerHapticEffect[] effects = new SteamControllerHapticEffect[2*VOICES];
+	protected final int[] steps = new int[2*VOICES];
+	/**Remaining number of times to play the effect, or 0 to repeat until stopped*/
+	protected final int[] loops = new int[2*VOICES];
+	/**Number of the request that started each voice, so requests handled in the same update are still ordered*/
+	protected final long[] startRequests = new long[2*VOICES];
+	protected final long[] stepEnds = new long[2*VOICES];
+	protected int activeVoices = 0;
+	
+	public SteamControllerHapticMixer()
+	{
+		for(int i = 0; i < MAILBOX; i++)
+			sequences.set(i, i);
+	}
+	
+	/**Requests that the effect is started on the rumbler. 
+	 * Returns false if too many requests are waiting for the controller thread.*/
+	public boolean play(int rumblerID, SteamControllerHapticEffect effect)
+	{
+		return request(rumblerID, effect);
+	}
+	
+	/**Requests that all voices playing the effect on the rumbler are stopped, or all voices if the effect is null. 
+	 * Returns false if too many requests are waiting for the controller thread.*/
+	public boolean stop(int rumblerID, SteamControllerHapticEffect effect)
+	{
+		return request(STOP+rumblerID, effect == null ? ALL : effect);
+	}
+	
+	/**Claims the next request number, and publishes the request in its slot.*/
+	protected boolean request(int target, SteamControllerHapticEffect effect)
+	{
+		long n = nextRequest.get();
+		int i;
+		while(true)
+		{
+			i = (int)n & (MAILBOX-1);
+			long seq = sequences.get(i);
+			if(seq == n)
+			{
+				if(nextRequest.compareAndSet(n, n+1))
+					break;
+			}
+			else if(seq < n)
+				return false;//Full, the slot still holds a request from the previous lap
+			n = nextRequest.get();
+		}
+		requestEffects[i] = effect;
+		requestTargets[i] = target;
+		//Publishes the fields above to the controller thread
+		sequences.set(i, n+1);
+		return true;
+	}
+	
+	/**Handles waiting requests and steps through the active effects. 
+	 * Returns true if the mix has changed, meaning that new haptic commands should be sent.
+	 * Should only be called by the controller thread.*/
+	public boolean update(long now)
+	{
+		boolean changed = false;
+		while(true)
+		{
+			int i = (int)handledRequests & (MAILBOX-1);
+			if(sequences.get(i) != handledRequests+1)
+				break;
+			SteamControllerHapticEffect e = requestEffects[i];
+			int target = requestTargets[i];
+			requestEffects[i] = null;
+			//Frees the slot for the request one lap later
+			sequences.set(i, handledRequests+MAILBOX);
+			handledRequests++;
+			if(target >= STOP)
+				changed |= stopVoices(target-STOP, e);
+			else
+			{
+				startVoice(target, e, now);
+				changed = true;
+			}
+		}
+		if(activeVoices == 0)
+			return changed;
+		for(int v = 0; v < 2*VOICES; v++)
+		{
+			if(effects[v] != null && now >= stepEnds[v])
+			{
+				advance(v, now);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+	
+	protected void startVoice(int rumblerID, SteamControllerHapticEffect effect, long now)
+	{
+		int voice = -1;
+		for(int v = rumblerID*VOICES; v < (rumblerID+1)*VOICES; v++)
+		{
+			if(effects[v] == null)
+			{
+				voice = v;
+				break;
+			}
+			if(voice == -1 || startRequests[v] < startRequests[voice])
+				voice = v;
+		}
+		if(effects[voice] == null)
+			activeVoices++;
+		effects[voice] = effect;
+		steps[voice] = 0;
+		loops[voice] = effect.loops;
+		startRequests[voice] = handledRequests;
+		stepEnds[voice] = now+effect.getStepNanos(0);
+	}
+	
+	protected boolean stopVoices(int rumblerID, SteamControllerHapticEffect effect)
+	{
+		boolean changed = false;
+		for(int v = rumblerID*VOICES; v < (rumblerID+1)*VOICES; v++)
+		{
+			if(effects[v] != null && (effect == ALL || effects[v] == effect))
+			{
+				effects[v] = null;
+				activeVoices--;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+	
+	/**Moves the voice to the step that is playing at the given time. 
+	 * The steps are timed from the end of the previous step, so the effect does not drift if updates are late.*/
+	protected void advance(int v, long now)
+	{
+		SteamControllerHapticEffect e = effects[v];
+		while(now >= stepEnds[v])
+		{
+			steps[v]++;
+			if(steps[v] == e.length())
+			{
+				if(loops[v] == 1)
+				{
+					effects[v] = null;
+					activeVoices--;
+					return;
+				}
+				if(loops[v] > 1)
+					loops[v]--;
+				steps[v] = 0;
+			}
+			stepEnds[v] += e.getStepNanos(steps[v]);
+		}
+	}
+	
+	/**Returns the time at which the next step of any active voice begins, or Long.MAX_VALUE if no effect is playing.
+	 * Should only be called by the controller thread.*/
+	public long getNextStepNanos()
+	{
+		if(activeVoices == 0)
+			return Long.MAX_VALUE;
+		long next = Long.MAX_VALUE;
+		for(int v = 0; v < 2*VOICES; v++)
+		{
+			if(effects[v] != null && stepEnds[v] < next)
+				next = stepEnds[v];
+		}
+		return next;
+	}
+	
+	/**Returns the mixed haptic command for the rumbler as intensity<<32 | period<<16 | count, or 0 if it is silent.
+	 * The intensities of the voices are added together, the period is taken from the strongest voice, 
+	 * and the count lasts until the next step of any voice.
+	 * Should only be called by the controller thread, after {@link #update(long)}.*/
+	public long mix(int rumblerID, long now)
+	{
+		if(activeVoices == 0)
+			return 0;
+		int intensity = 0;
+		int strongest = 0;
+		int period = 0;
+		long end = Long.MAX_VALUE;
+		for(int v = rumblerID*VOICES; v < (rumblerID+1)*VOICES; v++)
+		{
+			SteamControllerHapticEffect e = effects[v];
+			if(e == null)
+				continue;
+			int s = steps[v];
+			intensity += e.intensities[s];
+			if(e.intensities[s] > strongest)
+			{
+				strongest = e.intensities[s];
+				period = e.periods[s];
+			}
+			end = Math.min(end, stepEnds[v]);
+		}
+		if(intensity == 0)
+			return 0;
+		long count = ((end-now)/1000L + period - 1)/period;
+		return (long)Math.min(0xFFFF, intensity) << 32 | (long)period << 16 | Math.max(1, Math.min(0xFFFF, count));
+	}
+}
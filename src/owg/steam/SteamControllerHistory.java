@@ -0,0 +1,150 @@
+package owg.steam;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**Lock-free, bounded history of decoded states, written by the controller thread and sampled by the application.<br>
+ * <br>
+ * The controller produces reports much faster than a typical application polls, so the history makes it possible to 
+ * read the input at an exact time, e.g. at vsync, instead of whatever the latest report happened to be. 
+ * See {@link #sample(long, long, SteamControllerState)}.<br>
+ * <br>
+ * Like {@link SteamControllerEventRing}, each slot records the sequence number of the state it holds, 
+ * and the producer marks a slot as busy while overwriting it. The consumer retries if a state was overwritten while it was reading it.*/
+public class SteamControllerHistory
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected static final long BUSY = -1L;
+	/**Number of longs per slot: sequence number, timestamp, generation*/
+	protected static final int STAMP_STRIDE = 3;
+	/**Number of ints per slot: buttons, followed by the axis values as float bits*/
+	protected static final int VALUE_STRIDE = 1+SteamControllerAxis.AXES.length;
+	/**Maximum number of times to retry a sample if the history is overwritten while reading it*/
+	protected static final int MAX_ATTEMPTS = 4;
+	
+	protected final int size;
+	protected final AtomicLongArray stamps;
+	protected final AtomicIntegerArray values;
+	/**Sequence number of the next state to add*/
+	protected final AtomicLong head = new AtomicLong(0L);
+	
+	/**Creates a history that holds the given number of states.*/
+	public SteamControllerHistory(int size)
+	{
+		this.size = size;
+		this.stamps = new AtomicLongArray(size*STAMP_STRIDE);
+		this.values = new AtomicIntegerArray(size*VALUE_STRIDE);
+		for(int i = 0; i<size; i++)
+			stamps.set(i*STAMP_STRIDE, BUSY);
+	}
+	
+	/**Returns the maximum number of states that the history holds.*/
+	public int size()
+	{
+		return size;
+	}
+	
+	/**Called by the producer to add a state, overwriting the oldest state if the history is full.*/
+	public void add(SteamControllerState state)
+	{
+		long h = head.get();
+		int s = (int)(h%size);
+		int si = s*STAMP_STRIDE;
+		int vi = s*VALUE_STRIDE;
+		stamps.set(si, BUSY);
+		stamps.lazySet(si+1, state.lastUpdateTimeNanos);
+		stamps.lazySet(si+2, state.generation);
+		values.lazySet(vi, state.buttons);
+		float[] axes = state.axes;
+		for(int i = 0; i<axes.length; i++)
+			values.lazySet(vi+1+i, Float.floatToRawIntBits(axes[i]));
+		stamps.lazySet(si, h);
+		head.lazySet(h+1);
+	}
+	
+	/**Called by the consumer to compute the state at the given time, in the time base of {@link SteamControllerClock}.<br>
+	 * Axis values are interpolated linearly between the states before and after the time. 
+	 * If the time is after the latest state, then the values are extrapolated from the two latest states, 
+	 * but never further than maxExtrapolationNanos past the latest state, and never outside the range of the axis.
+	 * If the time is before the oldest state in the history, then the oldest state is used.<br>
+	 * Buttons are not interpolated, they are taken from the latest state at or before the time.<br>
+	 * The dirty axes of the destination are cleared, and its timestamp is set to the time that was actually sampled.
+	 * @return False if the history is empty, or was overwritten too quickly to be read, in which case the destination is not modified.*/
+	public boolean sample(long nanos, long maxExtrapolationNanos, SteamControllerState dst)
+	{
+		for(int attempt = 0; attempt<MAX_ATTEMPTS; attempt++)
+		{
+			long h = head.get();
+			long oldest = Math.max(0, h-size);
+			if(h == oldest)
+				return false;
+			
+			//Find the latest state at or before the time
+			long lo = h-1;
+			while(lo > oldest && stamps.get(stampIndex(lo)+1) > nanos)
+				lo--;
+			long hi;
+			if(lo == h-1)
+			{
+				//Extrapolate from the two latest states, if there are two
+				hi = lo;
+				if(lo > oldest)
+					lo--;
+				nanos = Math.min(nanos, stamps.get(stampIndex(hi)+1)+maxExtrapolationNanos);
+			}
+			else
+				hi = lo+1;
+			
+			int loS = stampIndex(lo), hiS = stampIndex(hi);
+			int loV = valueIndex(lo), hiV = valueIndex(hi);
+			long loT = stamps.get(loS+1), hiT = stamps.get(hiS+1);
+			
+			double f;
+			if(hiT <= loT)
+				f = 1.0;
+			else
+				f = Math.max(0.0, (nanos-loT)/(double)(hiT-loT));
+			
+			long generation;
+			if(f >= 1.0)
+			{
+				dst.buttons = values.get(hiV);
+				generation = stamps.get(hiS+2);
+			}
+			else
+			{
+				dst.buttons = values.get(loV);
+				generation = stamps.get(loS+2);
+			}
+			float[] axes = dst.axes;
+			for(int i = 0; i<axes.length; i++)
+			{
+				float a = Float.intBitsToFloat(values.get(loV+1+i));
+				float b = Float.intBitsToFloat(values.get(hiV+1+i));
+				float v = (float) (a + (b-a)*f);
+				axes[i] = Math.max(SteamControllerAxis.AXES[i].signed16 ? -1.0f : 0.0f, Math.min(1.0f, v));
+			}
+			
+			if(stamps.get(loS) != lo || stamps.get(hiS) != hi)
+				continue;//Overwritten while reading, try again with a newer head
+			dst.dirtyAxes = 0;
+			dst.lastUpdateTimeNanos = Math.max(loT, nanos);
+			dst.generation = generation;
+			return true;
+		}
+		return false;
+	}
+	
+	protected int stampIndex(long seq)
+	{
+		return (int)(seq%size)*STAMP_STRIDE;
+	}
+	
+	protected int valueIndex(long seq)
+	{
+		return (int)(seq%size)*VALUE_STRIDE;
+	}
+}
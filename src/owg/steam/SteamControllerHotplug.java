@@ -0,0 +1,132 @@
+package owg.steam;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.usb4java.Context;
+import org.usb4java.Device;
+import org.usb4java.HotplugCallback;
+import org.usb4java.HotplugCallbackHandle;
+import org.usb4java.LibUsb;
+
+/**Thread that adds and removes controllers when Steam Controller devices are plugged in or removed.<br>
+ * <br>
+ * If libusb supports hotplug, it reports the devices through a callback. 
+ * The callback runs during libusb's event handling on the controller thread, so it only queues the device for this thread.
+ * Otherwise, this thread compares the device list to the known devices at a fixed interval, see {@link SteamController#PROP_HOTPLUG_INTERVAL}.
+ * Either way, only the devices that changed are touched, and the other controllers are not disturbed.*/
+public class SteamControllerHotplug extends Thread implements HotplugCallback
+{
+	/**A device that has arrived or left*/
+	protected static class Change
+	{
+		public final Device device;
+		public final boolean arrived;
+		
+		public Change(Device device, boolean arrived)
+		{
+			this.device = device;
+			this.arrived = arrived;
+		}
+	}
+	
+	//Like the shutdown hook, this must not keep the plugin alive
+	private final WeakReference<SteamControllerPlugin> ref;
+	protected final Context context;
+	protected final long interval;
+	protected final LinkedBlockingQueue<Change> changes = new LinkedBlockingQueue<Change>();
+	protected HotplugCallbackHandle handle = null;
+	protected volatile boolean alive = true;
+	
+	/**Creates the hotplug thread and registers the libusb callback, if supported. 
+	 * This should be done before the devices are enumerated, so that no device is missed.
+	 * @param interval The polling interval in milliseconds, if libusb does not support hotplug*/
+	public SteamControllerHotplug(SteamControllerPlugin plugin, Context context, long interval)
+	{
+		super("steam-controller-hotplug");
+		setDaemon(true);
+		this.ref = new WeakReference<SteamControllerPlugin>(plugin);
+		this.context = context;
+		this.interval = Math.max(1L, interval);
+		if(LibUsb.hasCapability(LibUsb.CAP_HAS_HOTPLUG))
+		{
+			HotplugCallbackHandle h = new HotplugCallbackHandle();
+			int result = LibUsb.hotplugRegisterCallback(context, 
+					LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED | LibUsb.HOTPLUG_EVENT_DEVICE_LEFT, LibUsb.HOTPLUG_NO_FLAGS, 
+					SteamController.VID, LibUsb.HOTPLUG_MATCH_ANY, LibUsb.HOTPLUG_MATCH_ANY, this, null, h);
+			if(result == LibUsb.SUCCESS)
+				handle = h;
+			else
+				System.out.println("Info: Unable to register hotplug callback: "+result+" (0x"+Integer.toHexString(result)+"), polling instead");
+		}
+	}
+	
+	/**Returns whether devices are reported by libusb, rather than by polling.*/
+	public boolean isCallback()
+	{
+		return handle != null;
+	}
+	
+	@Override
+	public int processEvent(Context context, Device device, int event, Object userData)
+	{
+		//Keep the device until this thread has dealt with it
+		LibUsb.refDevice(device);
+		changes.add(new Change(device, event == LibUsb.HOTPLUG_EVENT_DEVICE_ARRIVED));
+		return 0;
+	}
+	
+	@Override
+	public void run()
+	{
+		long nextScan = System.nanoTime()+interval*1000000L;
+		while(alive)
+		{
+			Change c;
+			try {
+				c = changes.poll(interval, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				continue;
+			}
+			SteamControllerPlugin plugin = ref.get();
+			if(plugin == null)
+				break;
+			if(c != null)
+			{
+				if(c.arrived)
+					plugin.addDevice(c.device);
+				else
+					plugin.removeDevice(c.device);
+				LibUsb.unrefDevice(c.device);
+			}
+			else if(handle == null && System.nanoTime()-nextScan >= 0)
+			{
+				try {
+					plugin.scanDevices();
+				} catch(Exception e) {
+					System.out.println("Info: Failed to check for Steam Controller devices ("+e.toString()+")");
+				}
+				nextScan = System.nanoTime()+interval*1000000L;
+			}
+			plugin = null;
+		}
+	}
+	
+	/**Stops the thread and deregisters the callback. This must be done before libusb is closed.*/
+	public void close() throws InterruptedException
+	{
+		alive = false;
+		interrupt();
+		if(Thread.currentThread() != this)
+			join();
+		if(handle != null)
+		{
+			LibUsb.hotplugDeregisterCallback(context, handle);
+			handle = null;
+		}
+		Change c;
+		while((c = changes.poll()) != null)
+			LibUsb.unrefDevice(c.device);
+	}
+}
@@ -0,0 +1,145 @@
+package owg.steam;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**Lock-free histogram of latencies in nanoseconds, with logarithmic buckets in fixed memory.<br>
+ * <br>
+ * Each power of two is divided into {@link #SUB_BUCKETS} linear buckets, so a bucket is at most 12.5% wider than its lower bound,
+ * across the whole range of a long. Recording a latency is a few atomic increments, and never allocates or locks.
+ * Percentiles are computed from the current counts, and are reported as the upper bound of the bucket they fall in.
+ * @see SteamController#getInputLatency()*/
+public class SteamControllerLatencyHistogram
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected static final int SUB_BITS = 3;
+	/**Number of buckets per power of two*/
+	public static final int SUB_BUCKETS = 1<<SUB_BITS;
+	/**Total number of buckets*/
+	public static final int BUCKETS = bucket(Long.MAX_VALUE)+1;
+	
+	protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	protected final AtomicLong count = new AtomicLong();
+	protected final AtomicLong total = new AtomicLong();
+	protected final AtomicLong max = new AtomicLong();
+	
+	/**Returns the index of the bucket that holds the given latency, which must not be negative.*/
+	public static int bucket(long nanos)
+	{
+		if(nanos < SUB_BUCKETS)
+			return (int)nanos;
+		int exp = 63-Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos>>>(exp-SUB_BITS))&(SUB_BUCKETS-1);
+		return (exp-SUB_BITS+1)*SUB_BUCKETS+sub;
+	}
+	
+	/**Returns the smallest latency in the bucket with the given index.*/
+	public static long getLowerBound(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		int exp = bucket/SUB_BUCKETS+SUB_BITS-1;
+		long sub = bucket%SUB_BUCKETS;
+		return (SUB_BUCKETS+sub)<<(exp-SUB_BITS);
+	}
+	
+	/**Returns the largest latency in the bucket with the given index.*/
+	public static long getUpperBound(int bucket)
+	{
+		return bucket == BUCKETS-1 ? Long.MAX_VALUE : getLowerBound(bucket+1)-1;
+	}
+	
+	/**Adds a latency to the histogram. Negative latencies, which can only be caused by clock errors, are counted as 0.*/
+	public void record(long nanos)
+	{
+		if(nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m = max.get();
+		while(nanos > m && !max.compareAndSet(m, nanos))
+			m = max.get();
+	}
+	
+	/**Removes all recorded latencies. Latencies that are recorded concurrently may be partially removed.*/
+	public void reset()
+	{
+		for(int i = 0; i<BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	/**Returns the number of recorded latencies.*/
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	/**Returns the number of recorded latencies in the bucket with the given index.*/
+	public long getCount(int bucket)
+	{
+		return counts.get(bucket);
+	}
+	
+	/**Returns the mean latency in nanoseconds, or 0 if nothing has been recorded.*/
+	public double getMean()
+	{
+		long n = count.get();
+		return n > 0 ? (double)total.get()/n : 0.0;
+	}
+	
+	/**Returns the largest recorded latency in nanoseconds.*/
+	public long getMax()
+	{
+		return max.get();
+	}
+	
+	/**Returns the latency in nanoseconds that the given percentage of the recorded latencies do not exceed, 
+	 * for example 99.9 for the 99.9th percentile. Returns 0 if nothing has been recorded.*/
+	public long getPercentile(double percent)
+	{
+		long n = 0;
+		//Count from the buckets, so the rank agrees with them while latencies are being recorded
+		for(int i = 0; i<BUCKETS; i++)
+			n += counts.get(i);
+		if(n == 0)
+			return 0;
+		long rank = Math.max(1L, (long)Math.ceil(n*Math.min(100.0, Math.max(0.0, percent))/100.0));
+		long seen = 0;
+		for(int i = 0; i<BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.max(getLowerBound(i), Math.min(getUpperBound(i), max.get()));
+		}
+		return max.get();
+	}
+	
+	/**Writes the non-empty buckets as comma separated values: Lower bound and upper bound in nanoseconds, and count.*/
+	public void export(PrintStream out)
+	{
+		out.println("lowerNanos,upperNanos,count");
+		for(int i = 0; i<BUCKETS; i++)
+		{
+			long c = counts.get(i);
+			if(c != 0)
+				out.println(getLowerBound(i)+","+getUpperBound(i)+","+c);
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "n="+getCount()+
+				" p50="+SteamControllerConfig.floatFormatter.format(getPercentile(50.0)/1E3)+"us"+
+				" p99="+SteamControllerConfig.floatFormatter.format(getPercentile(99.0)/1E3)+"us"+
+				" p99.9="+SteamControllerConfig.floatFormatter.format(getPercentile(99.9)/1E3)+"us"+
+				" max="+SteamControllerConfig.floatFormatter.format(getMax()/1E3)+"us";
+	}
+}
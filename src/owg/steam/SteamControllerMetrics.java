@@ -0,0 +1,230 @@
+package owg.steam;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**JMX view of the statistics of one controller, registered by the plugin as 
+ * <code>owg.steam:type=SteamController,plugin=<i>p</i>,id=<i>n</i></code>.<br>
+ * <br>
+ * The counters are plain volatile fields that are only written by the thread that owns them, 
+ * so updating them never allocates or locks. This class only reads them.
+ * @see SteamController#PROP_JMX_METRICS*/
+public class SteamControllerMetrics implements SteamControllerMetricsMBean
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the MBean server will not keep the plugin alive if the application stops using it.
+	
+	protected final String name;
+	protected final SteamControllerThreadTask task;
+	protected final SteamControllerEventReader events;
+	
+	public SteamControllerMetrics(String name, SteamControllerThreadTask task, SteamControllerEventReader events)
+	{
+		this.name = name;
+		this.task = task;
+		this.events = events;
+	}
+	
+	/**Registers the MBean with the platform MBean server. Returns false if JMX is not available.*/
+	public static boolean register(Object mbean, ObjectName objectName)
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(mbean, objectName);
+			return true;
+		} catch(Exception err) {
+			System.out.println("Info: Unable to register "+objectName+": "+err);
+			return false;
+		}
+	}
+	
+	/**Unregisters the MBean from the platform MBean server, if it is registered.*/
+	public static void unregister(ObjectName objectName)
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch(Exception err) {
+			System.out.println("Info: Unable to unregister "+objectName+": "+err);
+		}
+	}
+	
+	protected static double micros(double nanos)
+	{
+		return nanos/1E3;
+	}
+	
+	protected static double average(long total, long count)
+	{
+		return count > 0 ? (double)total/count : 0.0;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return task.connected;
+	}
+
+	@Override
+	public boolean isFailed()
+	{
+		return task.fault != null;
+	}
+
+	@Override
+	public long getReports()
+	{
+		return task.reports;
+	}
+
+	@Override
+	public double getReportsPerSecond()
+	{
+		//The window is only closed when a report arrives, so a window that has been open for long means that reports have stopped
+		if(System.nanoTime()-task.rateWindowStart > 2*SteamControllerThreadTask.RATE_WINDOW_NANOS)
+			return 0.0;
+		return task.reportRate;
+	}
+
+	@Override
+	public long getPolls()
+	{
+		return task.polls;
+	}
+
+	@Override
+	public long getTimeouts()
+	{
+		return task.timeouts;
+	}
+
+	@Override
+	public long getErrors()
+	{
+		return task.errors;
+	}
+
+	@Override
+	public long getConnects()
+	{
+		return task.connects;
+	}
+
+	@Override
+	public long getDisconnects()
+	{
+		return task.disconnects;
+	}
+
+	@Override
+	public long getControlTransfers()
+	{
+		return task.output.writes;
+	}
+
+	@Override
+	public long getControlTransferFailures()
+	{
+		return task.output.failedWrites;
+	}
+
+	@Override
+	public double getAverageControlTransferMicros()
+	{
+		return micros(average(task.output.writeNanos, task.output.writes));
+	}
+
+	@Override
+	public double getMaxControlTransferMicros()
+	{
+		return micros(task.output.maxWriteNanos);
+	}
+
+	@Override
+	public long getLostEvents()
+	{
+		return events.getLostEvents()+task.droppedEvents;
+	}
+
+	@Override
+	public double getProcessingMillis()
+	{
+		return task.processNanos/1E6;
+	}
+
+	@Override
+	public double getAverageProcessingMicros()
+	{
+		return micros(average(task.processNanos, task.reports));
+	}
+
+	@Override
+	public double getMaxProcessingMicros()
+	{
+		return micros(task.maxProcessNanos);
+	}
+
+	@Override
+	public double getLatencyP50Micros()
+	{
+		return micros(task.stateLatency.getPercentile(50.0));
+	}
+
+	@Override
+	public double getLatencyP99Micros()
+	{
+		return micros(task.stateLatency.getPercentile(99.0));
+	}
+
+	@Override
+	public double getLatencyP999Micros()
+	{
+		return micros(task.stateLatency.getPercentile(99.9));
+	}
+
+	@Override
+	public double getMaxLatencyMicros()
+	{
+		return micros(task.stateLatency.getMax());
+	}
+
+	@Override
+	public double getEventLatencyP50Micros()
+	{
+		return micros(task.eventLatency.getPercentile(50.0));
+	}
+
+	@Override
+	public double getEventLatencyP99Micros()
+	{
+		return micros(task.eventLatency.getPercentile(99.0));
+	}
+
+	@Override
+	public double getEventLatencyP999Micros()
+	{
+		return micros(task.eventLatency.getPercentile(99.9));
+	}
+
+	@Override
+	public void resetLatency()
+	{
+		task.stateLatency.reset();
+		task.eventLatency.reset();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "metrics of "+name;
+	}
+}
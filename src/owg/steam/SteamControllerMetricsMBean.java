@@ -0,0 +1,68 @@
+package owg.steam;
+
+/**Management interface for the I/O and processing statistics of one controller.
+ * All counts are totals since the controller was created.
+ * @see SteamControllerMetrics*/
+public interface SteamControllerMetricsMBean
+{
+	/**Returns the name of the controller.*/
+	public String getName();
+	/**Returns whether the controller is currently connected.*/
+	public boolean isConnected();
+	/**Returns whether the controller has failed or been removed.*/
+	public boolean isFailed();
+	
+	/**Returns the number of input reports processed.*/
+	public long getReports();
+	/**Returns the rate of input reports per second in the last complete one second window, measured by the controller thread,
+	 * or 0 if no report has arrived for two windows. Reading it does not change it.*/
+	public double getReportsPerSecond();
+	/**Returns the number of synchronous reads performed.*/
+	public long getPolls();
+	/**Returns the number of synchronous reads that timed out without a report.*/
+	public long getTimeouts();
+	/**Returns the number of failed transfers or initializations. Each of these stops the controller.*/
+	public long getErrors();
+	/**Returns the number of times the controller has connected, including the initial connection.*/
+	public long getConnects();
+	/**Returns the number of times the controller has disconnected.*/
+	public long getDisconnects();
+	
+	/**Returns the number of output reports sent with control transfers.*/
+	public long getControlTransfers();
+	/**Returns the number of control transfers that failed.*/
+	public long getControlTransferFailures();
+	/**Returns the average time from submitting a control transfer until it completed, in microseconds.*/
+	public double getAverageControlTransferMicros();
+	/**Returns the longest time from submitting a control transfer until it completed, in microseconds.*/
+	public double getMaxControlTransferMicros();
+	
+	/**Returns the number of input events that were overwritten, dropped or coalesced before the controller's event queue was read.
+	 * @see SteamController#PROP_EVENT_OVERFLOW*/
+	public long getLostEvents();
+	/**Returns the total time spent processing input reports, in milliseconds.*/
+	public double getProcessingMillis();
+	/**Returns the average time spent processing an input report, in microseconds.*/
+	public double getAverageProcessingMicros();
+	/**Returns the longest time spent processing an input report, in microseconds.*/
+	public double getMaxProcessingMicros();
+	
+	/**Returns the median time from receiving a report until the application polled the state, in microseconds.
+	 * @see SteamController#getInputLatency()*/
+	public double getLatencyP50Micros();
+	/**Returns the 99th percentile of the time from receiving a report until the application polled the state, in microseconds.*/
+	public double getLatencyP99Micros();
+	/**Returns the 99.9th percentile of the time from receiving a report until the application polled the state, in microseconds.*/
+	public double getLatencyP999Micros();
+	/**Returns the longest time from receiving a report until the application polled the state, in microseconds.*/
+	public double getMaxLatencyMicros();
+	/**Returns the median time from receiving a report until the application polled its events, in microseconds.
+	 * @see SteamController#getEventLatency()*/
+	public double getEventLatencyP50Micros();
+	/**Returns the 99th percentile of the time from receiving a report until the application polled its events, in microseconds.*/
+	public double getEventLatencyP99Micros();
+	/**Returns the 99.9th percentile of the time from receiving a report until the application polled its events, in microseconds.*/
+	public double getEventLatencyP999Micros();
+	/**Clears the latency histograms.*/
+	public void resetLatency();
+}
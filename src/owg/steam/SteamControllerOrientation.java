@@ -0,0 +1,105 @@
+package owg.steam;
+
+/**Estimates the orientation of the controller from the gyro and accelerometer, 
+ * for use when the controller is not configured to send its own orientation.<br>
+ * <br>
+ * This is a Madgwick filter, which integrates the gyro and uses the direction of gravity to correct the drift in pitch and roll.
+ * It is updated by the controller thread for every report, so the estimate does not depend on how often the application polls.
+ * Without the accelerometer, the gyro is integrated without correction. The filter does not allocate memory.<br>
+ * <br>
+ * Notice: This class avoids any references to SteamController or SteamControllerPlugin, 
+ * since it is used from the controller thread.*/
+public class SteamControllerOrientation
+{
+	/**Angular velocity at full scale of the gyro axes, in radians per second*/
+	public static final float GYRO_RANGE = (float)Math.toRadians(2000.0);
+	/**Longest time step in nanoseconds. Longer gaps between reports, e.g. after reconnecting, are not integrated.*/
+	public static final long MAX_STEP = (long)100E6;
+	
+	/**Filter gain. Higher values correct drift faster, but let more accelerometer noise through.*/
+	protected final float gain;
+	protected float qw = 1, qx = 0, qy = 0, qz = 0;
+	protected long lastTimeNanos = Long.MIN_VALUE;
+	
+	public SteamControllerOrientation(float gain)
+	{
+		this.gain = gain;
+	}
+	
+	/**Returns the estimate to the identity orientation.*/
+	public void reset()
+	{
+		qw = 1;
+		qx = 0;
+		qy = 0;
+		qz = 0;
+		lastTimeNanos = Long.MIN_VALUE;
+	}
+	
+	/**Updates the estimate with the gyro and accelerometer values in the axes, 
+	 * and stores the result in the orientation axes.*/
+	public void update(float[] axes, long timeNanos)
+	{
+		long step = timeNanos-lastTimeNanos;
+		lastTimeNanos = timeNanos;
+		if(step > 0 && step <= MAX_STEP)
+		{
+			//The gyro Z axis is inverted in the layout, but the filter works in the frame of the sensor
+			integrate(axes[SteamControllerAxis.GYRO_X.ordinal()]*GYRO_RANGE, 
+					axes[SteamControllerAxis.GYRO_Y.ordinal()]*GYRO_RANGE, 
+					-axes[SteamControllerAxis.GYRO_Z.ordinal()]*GYRO_RANGE, 
+					axes[SteamControllerAxis.ACCEL_X.ordinal()], 
+					axes[SteamControllerAxis.ACCEL_Y.ordinal()], 
+					axes[SteamControllerAxis.ACCEL_Z.ordinal()], 
+					step/1E9f);
+		}
+		axes[SteamControllerAxis.ORIENTATION_W.ordinal()] = qw;
+		axes[SteamControllerAxis.ORIENTATION_X.ordinal()] = qx;
+		axes[SteamControllerAxis.ORIENTATION_Y.ordinal()] = qy;
+		axes[SteamControllerAxis.ORIENTATION_Z.ordinal()] = qz;
+	}
+	
+	/**Advances the estimate by one time step, with the angular velocity in radians per second and the acceleration in any unit.*/
+	protected void integrate(float gx, float gy, float gz, float ax, float ay, float az, float dt)
+	{
+		//Rate of change of the quaternion from the gyro
+		float dw = 0.5f*(-qx*gx - qy*gy - qz*gz);
+		float dx = 0.5f*( qw*gx + qy*gz - qz*gy);
+		float dy = 0.5f*( qw*gy - qx*gz + qz*gx);
+		float dz = 0.5f*( qw*gz + qx*gy - qy*gx);
+		
+		float an = ax*ax + ay*ay + az*az;
+		if(an > 0)
+		{
+			an = 1.0f/(float)Math.sqrt(an);
+			ax *= an;
+			ay *= an;
+			az *= an;
+			//Gradient descent step towards the orientation where gravity points along the accelerometer
+			float ww = qw*qw, xx = qx*qx, yy = qy*qy, zz = qz*qz;
+			float sw = 4*qw*yy + 2*qy*ax + 4*qw*xx - 2*qx*ay;
+			float sx = 4*qx*zz - 2*qz*ax + 4*ww*qx - 2*qw*ay - 4*qx + 8*qx*xx + 8*qx*yy + 4*qx*az;
+			float sy = 4*ww*qy + 2*qw*ax + 4*qy*zz - 2*qz*ay - 4*qy + 8*qy*xx + 8*qy*yy + 4*qy*az;
+			float sz = 4*xx*qz - 2*qx*ax + 4*yy*qz - 2*qy*ay;
+			float sn = sw*sw + sx*sx + sy*sy + sz*sz;
+			if(sn > 0)
+			{
+				sn = gain/(float)Math.sqrt(sn);
+				dw -= sw*sn;
+				dx -= sx*sn;
+				dy -= sy*sn;
+				dz -= sz*sn;
+			}
+		}
+		
+		qw += dw*dt;
+		qx += dx*dt;
+		qy += dy*dt;
+		qz += dz*dt;
+		float qn = 1.0f/(float)Math.sqrt(qw*qw + qx*qx + qy*qy + qz*qz);
+		qw *= qn;
+		qx *= qn;
+		qy *= qn;
+		qz *= qn;
+	}
+}
@@ -0,0 +1,215 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.usb4java.LibUsb;
+
+/**Asynchronous output channel for the feature reports of one controller: configuration, register writes and haptics.<br>
+ * <br>
+ * At most one report is in flight at a time. When it completes, the next report is chosen by priority:
+ * Configuration reports are sent first, in the order they were queued. Then haptic commands, 
+ * where only the latest pending command for each rumbler is kept. A haptic command that is identical to the last one sent
+ * to the rumbler is dropped if it is silent, or if the previous one will still be playing after the next 
+ * haptic tick ({@link #HAPTIC_TICK_NANOS}), so that a command repeated every tick plays without gaps.<br>
+ * <br>
+ * Any thread may queue reports. The thread that finds the channel idle sends the next report, 
+ * and libusb's event handling sends the following ones as reports complete, so queuing never waits for USB I/O.
+ * Transports other than {@link SteamControllerUsbTransport} can only be written synchronously, 
+ * so queuing does not send anything for them. The controller thread sends their reports with {@link #flush()}.*/
+public class SteamControllerOutput
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	protected static final long NONE = -1L;
+	/**Interval at which the controller thread refreshes continuous haptics, such as the auto haptics of the pads*/
+	public static final long HAPTIC_TICK_NANOS = (long)33E6;
+	
+	/**Result of {@link #sendNext()}: Nothing to send*/
+	protected static final int IDLE = 0;
+	/**Result of {@link #sendNext()}: A report was sent synchronously, or failed*/
+	protected static final int SENT = 1;
+	/**Result of {@link #sendNext()}: A report was submitted, the channel stays busy until it completes*/
+	protected static final int IN_FLIGHT = 2;
+	
+	public final SteamControllerTransport transport;
+	protected final SteamControllerClock clock;
+	/**Whether reports are submitted asynchronously, and sent as soon as they are queued*/
+	public final boolean async;
+	
+	/**Pending configuration reports*/
+	protected final ConcurrentLinkedQueue<byte[]> reports = new ConcurrentLinkedQueue<byte[]>();
+	/**Latest pending haptic command for each rumbler, see {@link #pack(int, int, int)}*/
+	protected final AtomicLongArray haptics = new AtomicLongArray(new long[] {NONE, NONE});
+	/**Set while a report is being sent. The thread that sets it owns the fields below, until it is cleared.*/
+	protected final AtomicBoolean busy = new AtomicBoolean(false);
+	protected volatile boolean closed = false;
+	
+	protected final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+	/**Last haptic command sent to each rumbler*/
+	protected final long[] sentHaptics = {NONE, NONE};
+	/**Time at which the last haptic command sent to each rumbler stops playing*/
+	protected final long[] sentHapticEnds = {Long.MIN_VALUE, Long.MIN_VALUE};
+	/**Time at which the report in flight was submitted*/
+	protected long submitNanos;
+	//Transfer statistics for the metrics, only written by the thread that owns the channel, see SteamControllerMetrics
+	protected volatile long writes = 0, failedWrites = 0, writeNanos = 0, maxWriteNanos = 0;
+	
+	public SteamControllerOutput(SteamControllerTransport transport, SteamControllerClock clock)
+	{
+		this.transport = transport;
+		this.clock = clock;
+		this.async = transport instanceof SteamControllerUsbTransport;
+	}
+	
+	/**Queues a copy of the 64 byte buffer as a configuration report. These are sent before any haptics.*/
+	public void queueReport(ByteBuffer data)
+	{
+		byte[] report = new byte[64];
+		for(int i = 0; i<report.length; i++)
+			report[i] = data.get(i);
+		reports.add(report);
+		if(async)
+			flush();
+	}
+	
+	/**Queues a haptic command, replacing any command for the same rumbler that has not been sent yet.
+	 * @param intensity Amplitude, 0 to 0xFFFF
+	 * @param period Duration of each pulse in microseconds
+	 * @param count Number of pulses*/
+	public void queueHaptic(int rumblerID, int intensity, int period, int count)
+	{
+		haptics.set(rumblerID, pack(intensity, period, count));
+		if(async)
+			flush();
+	}
+	
+	/**Sends pending reports until one is in flight, or there is nothing left to send.
+	 * Does nothing if another thread is sending, since that thread or the completion of its report will send the pending reports.
+	 * If the transport is not {@link #async}, this waits for the reports to be written, and must only be called by the controller thread.*/
+	public void flush()
+	{
+		while(busy.compareAndSet(false, true))
+		{
+			int result = sendNext();
+			if(result == IN_FLIGHT)
+				return;
+			busy.set(false);
+			//Another thread may have queued something after we looked, and given up because we were busy
+			if(result == IDLE && !hasPending())
+				return;
+		}
+	}
+	
+	protected boolean hasPending()
+	{
+		return !closed && (!reports.isEmpty() || haptics.get(0) != NONE || haptics.get(1) != NONE);
+	}
+	
+	protected int sendNext()
+	{
+		if(closed)
+			return IDLE;
+		byte[] report = reports.poll();
+		if(report != null)
+		{
+			buffer.clear();
+			buffer.put(report);
+			buffer.rewind();
+			return write("configuration");
+		}
+		for(int i = 0; i<2; i++)
+		{
+			long h = haptics.getAndSet(i, NONE);
+			if(h == NONE)
+				continue;
+			long now = clock.nanoTime();
+			int intensity = (int)(h>>>32)&0xFFFF;
+			int period = (int)(h>>>16)&0xFFFF;
+			int count = (int)h&0xFFFF;
+			if(h == sentHaptics[i] && (intensity == 0 || now+HAPTIC_TICK_NANOS < sentHapticEnds[i]))
+				continue;//Identical to what is already playing, and it will not run out before the next tick
+			sentHaptics[i] = h;
+			sentHapticEnds[i] = now+(long)period*count*1000L;
+			
+			buffer.put(0, SteamController.STEAM_CMD_FORCEFEEDBAK);
+			buffer.put(1, (byte)0x07);//Size in bytes
+			buffer.put(2, (byte)i);
+			buffer.put(3, (byte)(intensity&0xFF));
+			buffer.put(4, (byte)(intensity>>>8));
+			buffer.put(5, (byte)(period&0xFF));//(microseconds)
+			buffer.put(6, (byte)(period>>>8));
+			buffer.put(7, (byte)(count&0xFF));//(number of pulses)
+			buffer.put(8, (byte)(count>>>8));
+			return write("force feedback");
+		}
+		return IDLE;
+	}
+	
+	protected int write(String what)
+	{
+		submitNanos = System.nanoTime();
+		try {
+			if(async)
+			{
+				((SteamControllerUsbTransport)transport).submitWrite(buffer, this);
+				return IN_FLIGHT;
+			}
+			transport.write(buffer, 250L);
+			written(true);
+		} catch(IOException err) {
+			System.out.println("Info: Failed to send "+what+" message: ");
+			System.out.println(err.getMessage());
+			written(false);
+		}
+		return SENT;
+	}
+	
+	/**Updates the transfer statistics for the report that was sent since {@link #submitNanos}.*/
+	protected void written(boolean success)
+	{
+		long t = System.nanoTime()-submitNanos;
+		writes++;
+		if(!success)
+			failedWrites++;
+		writeNanos += t;
+		if(t > maxWriteNanos)
+			maxWriteNanos = t;
+	}
+	
+	protected static long pack(int intensity, int period, int count)
+	{
+		return ((long)(intensity&0xFFFF)<<32) | ((long)(period&0xFFFF)<<16) | (count&0xFFFF);
+	}
+	
+	/**Called by the transport when the report in flight has completed with the given libusb transfer status, 
+	 * on whichever thread handles libusb events. Sends the next report.*/
+	protected void completed(int status)
+	{
+		if(status != LibUsb.TRANSFER_COMPLETED && status != LibUsb.TRANSFER_CANCELLED)
+			System.out.println("Info: Failed to send feature report: "+status);
+		if(status != LibUsb.TRANSFER_CANCELLED)
+			written(status == LibUsb.TRANSFER_COMPLETED);
+		busy.set(false);
+		flush();
+	}
+	
+	/**Stops sending, and cancels the report in flight, if any. 
+	 * The channel is not idle until the cancellation has been reported by the transport, see {@link #isBusy()}.*/
+	public void close()
+	{
+		closed = true;
+		if(transport instanceof SteamControllerUsbTransport)
+			((SteamControllerUsbTransport)transport).cancelWrite();
+	}
+	
+	/**Returns whether a report is being sent.*/
+	public boolean isBusy()
+	{
+		return busy.get();
+	}
+}
@@ -1,9 +1,21 @@
 package owg.steam;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.usb4java.Context;
 import org.usb4java.Device;
@@ -18,6 +30,31 @@ import net.java.games.input.ControllerEnvironment;
 
 public class SteamControllerPlugin extends ControllerEnvironment
 {
+	/**Creates the daemon threads that start controllers. This must not refer to the plugin, so that idle threads don't keep it alive.*/
+	protected static class StartupThreadFactory implements ThreadFactory
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "steam-controller-startup");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	/**A controller that has been added or removed, waiting to be reported to the listeners*/
+	protected static class ControllerChange
+	{
+		public final SteamController controller;
+		public final boolean added;
+		
+		public ControllerChange(SteamController controller, boolean added)
+		{
+			this.controller = controller;
+			this.added = added;
+		}
+	}
+	
 	public static void main(String[] args) throws InterruptedException
 	{
 		//Run this for a primitive testing environment
@@ -101,26 +138,240 @@ public class SteamControllerPlugin extends ControllerEnvironment
 	}
 
 	protected Context context;
-	protected SteamControllerThread executor;
+	protected SteamControllerRecorder recorder;
+	protected SteamControllerExecutor executor;
+	protected volatile SteamControllerHotplug hotplug;
+	protected volatile SteamControllerConfigWatcher configWatcher;
+	/**Longest time in milliseconds that a recreated controller waits for the controller it replaces to release the device*/
+	protected static final long CLOSE_TIMEOUT = 2000L;
 	protected final SteamControllerShutdownHook shutdownHook;
 	
-	protected final SteamController[] controllers;
+	/**The current controllers. The array is replaced when devices are added or removed.*/
+	protected volatile SteamController[] controllers;
+	/**The controllers of each USB device, which holds a reference to the device*/
+	protected final HashMap<Device, SteamController[]> usbDevices = new HashMap<Device, SteamController[]>();
+	protected int nextRecorderId = 0;
+	
+	/**Source of the plugin numbers in the MBean names*/
+	protected static final AtomicInteger nextPluginId = new AtomicInteger();
+	/**Whether MBeans are registered, see {@link SteamController#PROP_JMX_METRICS}*/
+	protected final boolean jmxMetrics;
+	protected final int pluginId = nextPluginId.getAndIncrement();
+	/**Name of the plugin's MBean, or null if it is not registered*/
+	protected ObjectName metricsName;
+	protected int nextMetricsId = 0;
+	/**Number of USB devices added and removed, for the metrics*/
+	protected volatile long devicesAdded = 0, devicesRemoved = 0;
+	/**Threads that open and initialize controllers, one device at a time each*/
+	protected final ExecutorService starter = Executors.newCachedThreadPool(new StartupThreadFactory());
+	/**Whether the initial devices have been enumerated, after which added controllers are reported to the listeners*/
+	protected boolean enumerated = false;
 	
 	protected final Object lock = new Object();
+	/**Controllers added or removed under the lock, which are reported to the listeners after the lock is released. 
+	 * Listeners may call back into the plugin, or block, so they are never called with the lock held.*/
+	protected final ConcurrentLinkedQueue<ControllerChange> pendingEvents = new ConcurrentLinkedQueue<ControllerChange>();
+	/**Held while reporting the pending events, so that the listeners see them in order*/
+	protected final Object eventLock = new Object();
 	
 	public SteamControllerPlugin()
 	{
-		context = new Context();
+		Properties properties = SteamController.properties;
+		String configFile = properties == null ? null : 
+			properties.getProperty(SteamController.PROP_CONFIG_FILE);
+		if(configFile != null)
 		{
-			int result = LibUsb.init(context);
-			if (result != LibUsb.SUCCESS) 
-				throw new LibUsbException("Unable to initialize libusb.", result);
+			//The file applies to everything, so it is loaded before anything else is configured
+			configWatcher = new SteamControllerConfigWatcher(this, new File(configFile), 
+					SCUtil.getInt(properties, SteamController.PROP_CONFIG_FILE_INTERVAL, 1000));
+			configWatcher.load();
+			properties = getProperties();
+		}
+		jmxMetrics = SCUtil.getByte(properties, SteamController.PROP_JMX_METRICS, SteamController.BYTE_TRUE) != 0;
+		int simulated = SCUtil.getInt(properties, SteamController.PROP_SIMULATED_CONTROLLERS, 0);
+		String replayFile = properties == null ? null : 
+			properties.getProperty(SteamController.PROP_REPLAY_FILE);
+		boolean usb = simulated == 0 && replayFile == null;
+		if(usb)
+		{
+			context = new Context();
+			{
+				int result = LibUsb.init(context);
+				if (result != LibUsb.SUCCESS) 
+					throw new LibUsbException("Unable to initialize libusb.", result);
+			}
 		}
 		//Add shutdown hook.
 		shutdownHook = new SteamControllerShutdownHook(this);
 		Runtime.getRuntime().addShutdownHook(shutdownHook);
 		
+		String recordFile = properties == null ? null : 
+			properties.getProperty(SteamController.PROP_RECORD_FILE);
+		if(recordFile != null)
+		{
+			try {
+				recorder = new SteamControllerRecorder(new File(recordFile));
+				System.out.println("Info: Recording Steam Controller input to "+recordFile);
+			} catch(IOException e) {
+				System.out.println("Info: Failed to start recording to "+recordFile+": "+e);
+			}
+		}
+		
+		//The controllers are attached to the running executor as soon as each one has been opened
+		executor = new SteamControllerExecutor(
+				SCUtil.getInt(properties, SteamController.PROP_EXECUTION, SteamController.EXECUTION_SINGLE_THREAD),
+				SCUtil.getInt(properties, SteamController.PROP_EXECUTION_THREADS, 0), 
+				context, new SteamControllerThreadTask[0]);
+		executor.start();
+		
+		if(jmxMetrics)
+		{
+			try {
+				ObjectName name = new ObjectName("owg.steam:type=SteamControllerPlugin,id="+pluginId);
+				if(SteamControllerMetrics.register(new SteamControllerPluginMetrics(this), name))
+					metricsName = name;
+			} catch(Exception err) {
+				System.out.println("Info: Unable to register plugin metrics: "+err);
+			}
+		}
+		
+		//Note: If libusb is not initialized, then no native libraries or devices are needed
+		if(usb)
+		{
+			long interval = SCUtil.getInt(properties, SteamController.PROP_HOTPLUG_INTERVAL, 1000);
+			//Register for hotplug before enumerating, so that no device is missed in between
+			if(interval > 0)
+				hotplug = new SteamControllerHotplug(this, context, interval);
+			controllers = new SteamController[0];
+			scanDevices();
+		}
+		else
+		{
+			if(simulated > 0)
+			{
+				controllers = simulatedControllers(simulated, 
+						SCUtil.getInt(properties, SteamController.PROP_SIMULATED_EMPTY_SLOTS, 0), 
+						SCUtil.getFloat(properties, SteamController.PROP_SIMULATED_REPORT_RATE, 1000.0));
+			}
+			else
+			{
+				controllers = replayControllers(new File(replayFile), 
+						SCUtil.getByte(properties, SteamController.PROP_REPLAY_REALTIME, SteamController.BYTE_TRUE) != 0);
+			}
+			//Each of these has its own device
+			for(SteamController c : controllers)
+				start(new SteamController[] {c});
+		}
+		synchronized (lock)
+		{
+			enumerated = true;
+		}
+		if(hotplug != null)
+			hotplug.start();
+		if(configWatcher != null)
+			configWatcher.start();
+	}
+
+	/**Returns the properties that this plugin and its controllers are configured from: 
+	 * {@link SteamController#properties}, with the configuration file on top if there is one, see {@link SteamController#PROP_CONFIG_FILE}.
+	 * The file is layered over the current properties on each call, so changes made by the application are seen by the next reload,
+	 * and {@link SteamController#properties} itself is never modified.*/
+	public Properties getProperties()
+	{
+		SteamControllerConfigWatcher w = configWatcher;
+		return w == null ? SteamController.properties : w.layer(SteamController.properties);
+	}
+
+	/**Opens the given controllers in turn on a startup thread, and hands each one to the executor as soon as it has been opened.
+	 * This should be called once for each device, so that devices are started concurrently and a slow device does not hold up the others.
+	 * The controllers' startup futures complete when their workers have initialized them.*/
+	protected void start(SteamController[] cs)
+	{
+		start(cs, null);
+	}
+
+	/**Starts the given controllers like {@link #start(SteamController[])}. 
+	 * If they replace other controllers on the same device, then each one waits until the controller it replaces has released the device.*/
+	protected void start(SteamController[] cs, SteamController[] replaced)
+	{
+		final FutureTask<?>[] tasks = new FutureTask<?>[cs.length];
+		for(int i = 0; i<cs.length; i++)
+		{
+			if(recorder != null)
+				cs[i].threadTask.setRecorder(recorder, nextRecorderId++);
+			registerMetrics(cs[i]);
+			SteamControllerThreadTask previous = replaced != null && i < replaced.length ? replaced[i].threadTask : null;
+			FutureTask<SteamController> t = new FutureTask<SteamController>(startup(cs[i], previous));
+			cs[i].startup = t;
+			tasks[i] = t;
+		}
+		starter.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for(FutureTask<?> t : tasks)
+					t.run();
+			}
+		});
+	}
+	
+	/**Registers the MBean for the controller, if enabled.*/
+	protected void registerMetrics(SteamController c)
+	{
+		if(!jmxMetrics)
+			return;
+		try {
+			ObjectName name = new ObjectName("owg.steam:type=SteamController,plugin="+pluginId+",id="+(nextMetricsId++));
+			if(SteamControllerMetrics.register(new SteamControllerMetrics(c.getName(), c.threadTask, c.data.events), name))
+				c.metricsName = name;
+		} catch(Exception err) {
+			System.out.println("Info: Unable to register metrics for "+c+": "+err);
+		}
+	}
+	
+	/**Unregisters the MBean for the controller, if it is registered.*/
+	protected void unregisterMetrics(SteamController c)
+	{
+		ObjectName name = c.metricsName;
+		c.metricsName = null;
+		if(name != null)
+			SteamControllerMetrics.unregister(name);
+	}
+	
+	protected Callable<SteamController> startup(final SteamController c, final SteamControllerThreadTask previous)
+	{
+		return new Callable<SteamController>()
+		{
+			@Override
+			public SteamController call() throws Exception
+			{
+				if(previous != null && !previous.awaitClosed(CLOSE_TIMEOUT))
+					System.out.println("Info: "+c+" is starting before the controller it replaces has closed");
+				c.threadTask.open();
+				synchronized (lock)
+				{
+					//The startup is interrupted if the device was removed or the plugin shut down while opening
+					if(Thread.interrupted() || executor == null || !executor.attach(c.threadTask))
+					{
+						c.threadTask.cleanup();
+						throw new IOException("The controller was removed before it started");
+					}
+				}
+				c.threadTask.awaitInit();
+				return c;
+			}
+		};
+	}
+
+	/**Compares the USB device list to the known devices, and adds or removes controllers for the devices that changed.
+	 * Controllers on devices that are still present are not touched.*/
+	protected void scanDevices()
+	{
+		synchronized (lock)
 		{
+			if(context == null)
+				return;
 		    // Read the USB device list
 		    DeviceList list = new DeviceList();
 		    {
@@ -128,61 +379,228 @@ public class SteamControllerPlugin extends ControllerEnvironment
 			    if (result < 0) 
 			    	throw new LibUsbException("Unable to get device list", result);
 		    }
-		    
-		    ArrayList<SteamController> cList = new ArrayList<SteamController>();
-	
-	        // Iterate over all devices and scan for the right one
-	        for (Device device: list)
-	        {
-	        	try 
-	        	{
-		            DeviceDescriptor descriptor = new DeviceDescriptor();
-		            {
-		            int result = LibUsb.getDeviceDescriptor(device, descriptor);
-		            if (result != LibUsb.SUCCESS)
-		            	throw new LibUsbException("Unable to read device descriptor", result);
-		            }
-					short vid = descriptor.idVendor();
-					short pid = descriptor.idProduct();
-					if(vid == 0x28DE && (pid == SteamController.PID_WIRELESS || pid == SteamController.PID_WIRED))
+		    try
+		    {
+		    	HashSet<Device> present = new HashSet<Device>();
+		    	for (Device device: list)
+		    	{
+		    		present.add(device);
+		    		addDevice(device);
+		    	}
+		    	for (Device device : usbDevices.keySet().toArray(new Device[usbDevices.size()]))
+		    	{
+		    		if(!present.contains(device))
+		    			removeDevice(device);
+		    	}
+		    }
+		    finally
+		    {
+		    	// Ensure the allocated device list is freed. The known devices have their own references.
+		    	LibUsb.freeDeviceList(list, true);
+		    }
+		}
+		fireEvents();
+	}
+
+	/**Creates the controllers for the device, if it is a Steam Controller device that is not known yet.
+	 * If the plugin is running, then the controllers are started and reported to the listeners.*/
+	protected void addDevice(Device device)
+	{
+		addDevice(device, null);
+	}
+
+	/**Adds the device like {@link #addDevice(Device)}, with controllers that replace the given controllers of the device.*/
+	protected void addDevice(Device device, SteamController[] replaced)
+	{
+		synchronized (lock)
+		{
+			if(context == null || usbDevices.containsKey(device))
+				return;
+			ArrayList<SteamController> cList = new ArrayList<SteamController>();
+        	try 
+        	{
+	            DeviceDescriptor descriptor = new DeviceDescriptor();
+	            {
+	            int result = LibUsb.getDeviceDescriptor(device, descriptor);
+	            if (result != LibUsb.SUCCESS)
+	            	throw new LibUsbException("Unable to read device descriptor", result);
+	            }
+				short vid = descriptor.idVendor();
+				short pid = descriptor.idProduct();
+				if(vid != SteamController.VID || (pid != SteamController.PID_WIRELESS && pid != SteamController.PID_WIRED))
+					return;
+				if(pid == SteamController.PID_WIRED)
+					cList.add(new SteamController(this, device, pid, 2, 3));
+				else
+				{
+					// The slots share one handle, each slot claims its own interface
+					SteamControllerUsbSession session = new SteamControllerUsbSession(device);
+					for(int i = 0; i<4; i++)
 					{
-						if(pid == SteamController.PID_WIRED)
-							cList.add(new SteamController(this, device, pid, 2, 3));
-						else
-						{
-							for(int i = 0; i<4; i++)
-							{
-								cList.add(new SteamController(this, device, pid, 1+i, 2+i));
-							}
-						}
+						cList.add(new SteamController(this, device, pid, 1+i, 2+i, session));
 					}
-	        	} catch(Exception err) {
-	        		System.out.println("Info: Failed to initialize Steam Controller");
-	        		err.printStackTrace(System.out);
-	        	}
-	        }
-	        // Ensure the allocated device list is freed
-	        LibUsb.freeDeviceList(list, true);
-		    controllers = cList.toArray(new SteamController[cList.size()]);
+				}
+        	} catch(Exception err) {
+        		System.out.println("Info: Failed to initialize Steam Controller");
+        		err.printStackTrace(System.out);
+        		//Keep any controllers that did initialize, the device will not be retried until it is plugged in again
+        	}
+        	SteamController[] added = cList.toArray(new SteamController[cList.size()]);
+        	usbDevices.put(LibUsb.refDevice(device), added);
+        	devicesAdded++;
+        	SteamController[] r = Arrays.copyOf(controllers, controllers.length+added.length);
+        	System.arraycopy(added, 0, r, controllers.length, added.length);
+        	controllers = r;
+        	start(added, replaced);
+        	if(enumerated)
+        	{
+        		for(SteamController c : added)
+        		{
+        			System.out.println("Info: "+c+" added");
+        			pendingEvents.add(new ControllerChange(c, true));
+        		}
+        	}
 		}
-		
-		
-		SteamControllerThreadTask[] controllerTasks = new SteamControllerThreadTask[controllers.length];
-		for(int i = 0; i<controllers.length; i++)
-			controllerTasks[i] = controllers[i].threadTask;
-		executor = new SteamControllerThread(controllerTasks);
-		executor.setDaemon(true);
-		executor.start();
+		fireEvents();
+	}
+
+	/**Removes the controllers of the device, if it is known. The controllers are stopped and reported to the listeners.*/
+	protected void removeDevice(Device device)
+	{
+		synchronized (lock)
+		{
+			SteamController[] removed = usbDevices.remove(device);
+			if(removed == null)
+				return;
+			ArrayList<SteamController> cList = new ArrayList<SteamController>(Arrays.asList(controllers));
+			for(SteamController c : removed)
+			{
+				cList.remove(c);
+				c.startup.cancel(true);
+				if(executor != null)
+					executor.detach(c.threadTask);
+				unregisterMetrics(c);
+			}
+			devicesRemoved++;
+			controllers = cList.toArray(new SteamController[cList.size()]);
+			for(SteamController c : removed)
+				pendingEvents.add(new ControllerChange(c, false));
+			LibUsb.unrefDevice(device);
+		}
+		fireEvents();
 	}
 	
-	@Override
-	protected void finalize()
+	/**Reports the pending added and removed controllers to the listeners, in the order they changed.
+	 * Does nothing if the lock is held, in which case the caller that releases it reports them.*/
+	protected void fireEvents()
+	{
+		if(Thread.holdsLock(lock))
+			return;
+		synchronized (eventLock)
+		{
+			ControllerChange e;
+			while((e = pendingEvents.poll()) != null)
+			{
+				if(e.added)
+					fireControllerAdded(e.controller);
+				else
+					fireControllerRemoved(e.controller);
+			}
+		}
+	}
+
+	
+	/**Applies the current {@link #getProperties()} to the running controllers.<br>
+	 * <br>
+	 * Controllers whose components stay the same get a new {@link SteamControllerConfig}, 
+	 * and only the controller registers that changed are rewritten. 
+	 * If buttonMask, hideDisabledButtons or the gyro and accelerometer bits of gyroMode change the components, 
+	 * then the controllers of each USB device are recreated, and reported to the listeners as removed and added.
+	 * Simulated and replayed controllers can not be recreated, and keep their configuration in that case.
+	 * @see SteamController#PROP_CONFIG_FILE*/
+	public void reloadConfiguration()
 	{
 		synchronized (lock)
 		{
-			Runtime.getRuntime().removeShutdownHook(shutdownHook);
-			shutdown();	
+			if(executor == null)
+				return;
+			SteamControllerConfig next = new SteamControllerConfig(getProperties());
+			HashSet<Device> rebuild = new HashSet<Device>();
+			for(SteamController c : controllers)
+			{
+				if(c.getConfig().hasSameComponents(next))
+					c.setConfig(next);
+				else if(c.device.device != null)
+					rebuild.add(c.device.device);
+				else
+					System.out.println("Info: "+c+" can not change its components while running");
+			}
+			for(Device device : rebuild)
+			{
+				SteamController[] replaced = usbDevices.get(device);
+				if(replaced == null)
+					continue;
+				System.out.println("Info: Recreating the controllers of "+device+" with new components");
+				//Keep the device while it is removed and added
+				LibUsb.refDevice(device);
+				try {
+					removeDevice(device);
+					addDevice(device, replaced);
+				} finally {
+					LibUsb.unrefDevice(device);
+				}
+			}
 		}
+		fireEvents();
+	}
+	
+	protected SteamController[] replayControllers(File file, boolean realtime)
+	{
+		ArrayList<SteamController> cList = new ArrayList<SteamController>();
+		try 
+		{
+			SteamControllerRecording recording = new SteamControllerRecording(file);
+			System.out.println("Info: Replaying "+recording);
+			for(int i = 0; i<recording.getControllerCount(); i++)
+			{
+				int interfaceNo = 1+i%4;
+				SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRELESS, i/4, 
+						(byte)(LibUsb.ENDPOINT_IN|(1+interfaceNo)), (short)interfaceNo, interfaceNo);
+				cList.add(new SteamController(this, device, new SteamControllerReplayTransport(recording, i, realtime)));
+			}
+		} catch(Exception err) {
+			System.out.println("Info: Failed to replay Steam Controller recording");
+			err.printStackTrace(System.out);
+		}
+		return cList.toArray(new SteamController[cList.size()]);
+	}
+	
+	protected SteamController[] simulatedControllers(int count, int emptySlots, float rate)
+	{
+		ArrayList<SteamController> cList = new ArrayList<SteamController>();
+		for(int i = 0; i<count+emptySlots; i++)
+		{
+			//Simulate wireless dongles with four slots each
+			int interfaceNo = 1+i%4;
+			SteamControllerDevice device = new SteamControllerDevice(null, SteamController.PID_WIRELESS, i/4, 
+					(byte)(LibUsb.ENDPOINT_IN|(1+interfaceNo)), (short)interfaceNo, interfaceNo);
+			try 
+			{
+				cList.add(new SteamController(this, device, new SteamControllerSimulatedTransport(device, rate, i < count)));
+			} catch(Exception err) {
+				System.out.println("Info: Failed to initialize simulated Steam Controller");
+				err.printStackTrace(System.out);
+			}
+		}
+		return cList.toArray(new SteamController[cList.size()]);
+	}
+	
+	@Override
+	protected void finalize()
+	{
+		//Note: The lock is not held here, shutdown() takes it itself once the hotplug and configuration threads have stopped
+		Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		shutdown();
 	}
 
 	@Override
@@ -199,19 +617,59 @@ public class SteamControllerPlugin extends ControllerEnvironment
 
 	public void shutdown()
 	{
+		//The hotplug and configuration threads may be waiting for the lock, so they must be stopped first
+		SteamControllerHotplug h = hotplug;
+		hotplug = null;
+		if(h != null)
+		{
+			try {
+				h.close();
+			} catch(InterruptedException e) {
+				e.printStackTrace(); //Dead code
+			}
+		}
+		SteamControllerConfigWatcher w = configWatcher;
+		configWatcher = null;
+		if(w != null)
+		{
+			try {
+				w.close();
+			} catch(InterruptedException e) {
+				e.printStackTrace(); //Dead code
+			}
+		}
 		synchronized (lock)
 		{
 			System.out.println("Info: Steam Controller plugin closing");
+			//Controllers that are still starting give up, and those that have not started are never opened
+			starter.shutdownNow();
 			if(executor != null)
 			{
-				executor.alive = false;
 				try {
-					executor.join();
+					executor.shutdown();
 				} catch(InterruptedException e) {
 					e.printStackTrace(); //Dead code
 				}
 				executor = null;
 			}
+			if(recorder != null)
+			{
+				recorder.close();
+				recorder = null;
+			}
+			if(controllers != null)
+			{
+				for(SteamController c : controllers)
+					unregisterMetrics(c);
+			}
+			if(metricsName != null)
+			{
+				SteamControllerMetrics.unregister(metricsName);
+				metricsName = null;
+			}
+			for(Device device : usbDevices.keySet())
+				LibUsb.unrefDevice(device);
+			usbDevices.clear();
 			if(context != null)
 			{
 				LibUsb.exit(context);
@@ -0,0 +1,80 @@
+package owg.steam;
+
+import java.lang.ref.WeakReference;
+
+/**JMX view of the statistics of a plugin, registered as <code>owg.steam:type=SteamControllerPlugin,id=<i>p</i></code>.
+ * The plugin is only weakly referenced, so that the MBean server does not keep it alive.
+ * @see SteamController#PROP_JMX_METRICS*/
+public class SteamControllerPluginMetrics implements SteamControllerPluginMetricsMBean
+{
+	protected final WeakReference<SteamControllerPlugin> plugin;
+	
+	public SteamControllerPluginMetrics(SteamControllerPlugin plugin)
+	{
+		this.plugin = new WeakReference<SteamControllerPlugin>(plugin);
+	}
+	
+	/**Returns the current controllers, or none if the plugin is gone.*/
+	protected SteamController[] controllers()
+	{
+		SteamControllerPlugin p = plugin.get();
+		return p == null ? new SteamController[0] : p.controllers;
+	}
+
+	@Override
+	public boolean isRunning()
+	{
+		SteamControllerPlugin p = plugin.get();
+		return p != null && p.executor != null;
+	}
+
+	@Override
+	public int getControllers()
+	{
+		return controllers().length;
+	}
+
+	@Override
+	public int getConnectedControllers()
+	{
+		int n = 0;
+		for(SteamController c : controllers())
+		{
+			if(c.threadTask.connected)
+				n++;
+		}
+		return n;
+	}
+
+	@Override
+	public long getDevicesAdded()
+	{
+		SteamControllerPlugin p = plugin.get();
+		return p == null ? 0 : p.devicesAdded;
+	}
+
+	@Override
+	public long getDevicesRemoved()
+	{
+		SteamControllerPlugin p = plugin.get();
+		return p == null ? 0 : p.devicesRemoved;
+	}
+
+	@Override
+	public long getReports()
+	{
+		long n = 0;
+		for(SteamController c : controllers())
+			n += c.threadTask.reports;
+		return n;
+	}
+
+	@Override
+	public long getErrors()
+	{
+		long n = 0;
+		for(SteamController c : controllers())
+			n += c.threadTask.errors;
+		return n;
+	}
+}
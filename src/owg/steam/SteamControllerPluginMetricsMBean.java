@@ -0,0 +1,21 @@
+package owg.steam;
+
+/**Management interface for the statistics of the plugin as a whole.
+ * @see SteamControllerPluginMetrics*/
+public interface SteamControllerPluginMetricsMBean
+{
+	/**Returns whether the plugin is still running.*/
+	public boolean isRunning();
+	/**Returns the number of controllers, including empty wireless slots.*/
+	public int getControllers();
+	/**Returns the number of controllers that are currently connected.*/
+	public int getConnectedControllers();
+	/**Returns the number of USB devices that have been added, including those found when the plugin was created.*/
+	public long getDevicesAdded();
+	/**Returns the number of USB devices that have been removed.*/
+	public long getDevicesRemoved();
+	/**Returns the total number of input reports processed by the current controllers.*/
+	public long getReports();
+	/**Returns the total number of errors of the current controllers.*/
+	public long getErrors();
+}
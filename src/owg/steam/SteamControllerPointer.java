@@ -0,0 +1,18 @@
+package owg.steam;
+
+/**Receives the pointer movement produced by the gyro mouse.<br>
+ * <br>
+ * The controller thread calls {@link #move(float, float, long)} once for every report while the gyro mouse is active,
+ * with the raw deltas for that report. Implementations should return quickly and must not block, 
+ * since this delays input for all controllers handled by the thread. 
+ * Applications can implement this interface to receive the deltas directly, 
+ * or use {@link SteamControllerPointerAccumulator} to collect them from another thread.
+ * @see SteamController#setPointer(SteamControllerPointer)*/
+public interface SteamControllerPointer
+{
+	/**Called by the controller thread with the movement for one report, in pixels. 
+	 * Positive x is to the right, positive y is down. 
+	 * The deltas are not rounded, so the implementation is responsible for keeping any fractional remainder.
+	 * @param timeNanos The time of the report*/
+	public void move(float dx, float dy, long timeNanos);
+}
@@ -0,0 +1,55 @@
+package owg.steam;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Pointer that adds up the movement, so that the application can collect it at its own rate.
+ * This keeps the full resolution of the deltas and does not touch the system pointer.<br>
+ * <br>
+ * The totals are atomics, so the controller thread never waits for the collecting thread. 
+ * Each delta is collected exactly once, but a collection may see the x delta of a report without its y delta, 
+ * which then comes with the next collection.*/
+public class SteamControllerPointerAccumulator implements SteamControllerPointer
+{
+	protected static final long ZERO = Double.doubleToRawLongBits(0.0);
+	
+	/**Movement since the last collection, as double bits*/
+	protected final AtomicLong dx = new AtomicLong(ZERO), dy = new AtomicLong(ZERO);
+	protected final AtomicInteger moves = new AtomicInteger();
+	protected volatile long lastMoveTimeNanos = Long.MIN_VALUE;
+	
+	@Override
+	public void move(float dx, float dy, long timeNanos)
+	{
+		add(this.dx, dx);
+		add(this.dy, dy);
+		moves.incrementAndGet();
+		lastMoveTimeNanos = timeNanos;
+	}
+	
+	/**Adds the value to the double stored in the atomic. This only retries if the movement was collected at the same moment.*/
+	protected static void add(AtomicLong total, double value)
+	{
+		while(true)
+		{
+			long bits = total.get();
+			if(total.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits)+value)))
+				return;
+		}
+	}
+	
+	/**Stores the movement since the last call in dst[0] and dst[1], and returns the number of reports it was collected from.*/
+	public int getAndReset(double[] dst)
+	{
+		int result = moves.getAndSet(0);
+		dst[0] = Double.longBitsToDouble(dx.getAndSet(ZERO));
+		dst[1] = Double.longBitsToDouble(dy.getAndSet(ZERO));
+		return result;
+	}
+	
+	/**Returns the time of the last report that moved the pointer, or Long.MIN_VALUE if there has been none.*/
+	public long getLastMoveTimeNanos()
+	{
+		return lastMoveTimeNanos;
+	}
+}
@@ -0,0 +1,44 @@
+package owg.steam;
+
+/**Snapshot of how much time the controller thread has spent reading reports from one controller slot.<br>
+ * <br>
+ * Slots that use synchronous transfers are read with a short timeout, which blocks the controller thread while no report arrives.
+ * Idle or disconnected slots are read less often, see {@link SteamController#PROP_IDLE_POLL_INTERVAL}. 
+ * The duty cycle is the fraction of time spent waiting in reads, which shows how much this saves.
+ * Slots that use asynchronous transfers are never polled, so their statistics are zero.
+ * @see SteamController#getPollStatistics()*/
+public class SteamControllerPollStatistics
+{
+	/**Number of reads performed*/
+	public final long polls;
+	/**Number of times a read was skipped because the slot was backing off*/
+	public final long skippedPolls;
+	/**Number of reads that timed out without a report*/
+	public final long timeouts;
+	/**Total time spent in reads, in nanoseconds*/
+	public final long readNanos;
+	/**Time since the statistics started, in nanoseconds*/
+	public final long elapsedNanos;
+	
+	public SteamControllerPollStatistics(long polls, long skippedPolls, long timeouts, long readNanos, long elapsedNanos)
+	{
+		this.polls = polls;
+		this.skippedPolls = skippedPolls;
+		this.timeouts = timeouts;
+		this.readNanos = readNanos;
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	/**Returns the fraction of time that the controller thread has spent reading from this slot, between 0 and 1.*/
+	public double getDutyCycle()
+	{
+		return elapsedNanos > 0 ? (double)readNanos/elapsedNanos : 0.0;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "polls="+polls+" skipped="+skippedPolls+" timeouts="+timeouts+
+				" duty cycle="+SteamControllerConfig.floatFormatter.format(getDutyCycle()*100)+"%";
+	}
+}
@@ -0,0 +1,82 @@
+package owg.steam;
+
+/**Lookup table for the radial response of a stick or pad: The dead zone, the edge zone and a {@link SteamControllerResponseCurve}.<br>
+ * <br>
+ * The table holds the factor that both axes of a pair are multiplied by, as a function of their squared distance from the center,
+ * so the distance itself is never needed. It is computed once when the configuration is created, 
+ * so mapping a pair costs a table lookup and a few multiplications, whatever the curve is.*/
+public class SteamControllerRadialResponse
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	/**Number of intervals in the table*/
+	protected static final int SIZE = 1024;
+	/**Largest squared distance covered by the table. The raw axes are within -1 and 1, so the squared distance is at most 2.*/
+	protected static final float MAX_SQUARED = 2.25f;
+	
+	public final float deadZone;
+	public final float edgeZone;
+	public final SteamControllerResponseCurve curve;
+	/**The factor for the squared distance i*MAX_SQUARED/SIZE*/
+	protected final float[] scales = new float[SIZE+1];
+	protected final float deadZoneSquared;
+	
+	public SteamControllerRadialResponse(float deadZone, float edgeZone, SteamControllerResponseCurve curve)
+	{
+		this.deadZone = deadZone;
+		this.edgeZone = edgeZone;
+		this.curve = curve;
+		this.deadZoneSquared = deadZone*deadZone;
+		float div = 1.0f-deadZone-edgeZone;
+		//The curve's slope over the first table interval past the dead zone
+		float step = div <= 0 ? 0.0f : Math.min(1.0f, ((float)Math.sqrt(deadZoneSquared+MAX_SQUARED/SIZE)-deadZone)/div);
+		float start = curve.apply(0.0f);
+		float slope = div <= 0 ? 0.0f : (curve.apply(step)-start)/step;
+		for(int i = 0; i<=SIZE; i++)
+		{
+			//The center has no direction, so use the factor just outside it
+			float src = (float)Math.sqrt(Math.max(i, 0.5f)*MAX_SQUARED/SIZE);
+			float dst;
+			if(div <= 0)
+				dst = curve.apply(1.0f);
+			else
+			{
+				float t = Math.min(1.0f, (src-deadZone)/div);
+				//Inside the dead zone, extrapolate the curve linearly from its edge, so that interpolating across the edge stays accurate.
+				//The dead zone itself is tested before the lookup.
+				dst = t < 0 ? start+slope*t : curve.apply(t);
+			}
+			scales[i] = dst/src;
+		}
+	}
+	
+	/**Applies the response to the pair of raw values at the given indices, in place.*/
+	public void map(float[] axes, int x, int y)
+	{
+		float primary = axes[x];
+		float secondary = axes[y];
+		float srcSquared = primary*primary+secondary*secondary;
+		if(srcSquared <= deadZoneSquared)
+		{
+			axes[x] = 0.0f;
+			axes[y] = 0.0f;
+			return;
+		}
+		float f = srcSquared*(SIZE/MAX_SQUARED);
+		int i = (int)f;
+		float scale;
+		if(i >= SIZE)
+			scale = scales[SIZE];
+		else
+			scale = scales[i]+(scales[i+1]-scales[i])*(f-i);
+		axes[x] = primary*scale;
+		axes[y] = secondary*scale;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "dead zone "+deadZone+", edge zone "+edgeZone+", "+curve;
+	}
+}
@@ -0,0 +1,195 @@
+package owg.steam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static owg.steam.SteamControllerRecording.*;
+
+/**Appends raw Steam Controller reports and connection events to a memory-mapped recording file.<br>
+ * <br>
+ * The file is extended and mapped one segment at a time. Each segment is mapped by a background thread while the previous one
+ * is being filled, so the controller threads do not wait for the file system.
+ * The record count in the header is updated after each record,
+ * so the recording can be read with {@link SteamControllerRecording} even if the recorder was never closed.
+ * This class is thread safe, so controllers on different threads can share a recorder.
+ * Timestamps are taken while the recorder is locked, so the records are always in chronological order.
+ * @see SteamController#PROP_RECORD_FILE*/
+public class SteamControllerRecorder
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	public final File file;
+	protected RandomAccessFile raf;
+	protected FileChannel channel;
+	protected final MappedByteBuffer header;
+	protected MappedByteBuffer segment;
+	/**The segment after the current one, which is being mapped in the background, or null*/
+	protected Future<MappedByteBuffer> nextSegment;
+	protected final ExecutorService mapper;
+	protected long count = 0;
+	protected int controllers = 0;
+	
+	protected static final byte[] EMPTY_REPORT = new byte[64];
+	
+	public SteamControllerRecorder(File file) throws IOException
+	{
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			channel = raf.getChannel();
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putShort(4, VERSION);
+			header.putShort(6, (short)RECORD_SIZE);
+			header.putLong(HEADER_COUNT, 0L);
+			header.putInt(HEADER_CONTROLLERS, 0);
+		} catch(IOException e) {
+			raf.close();
+			throw e;
+		}
+		mapper = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "steam-controller-recorder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		prepareSegment(0);
+	}
+	
+	/**Starts mapping the segment that begins with the given record in the background.*/
+	protected void prepareSegment(final long first)
+	{
+		final FileChannel c = channel;
+		nextSegment = mapper.submit(new Callable<MappedByteBuffer>()
+		{
+			@Override
+			public MappedByteBuffer call() throws IOException
+			{
+				return c.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE+first*RECORD_SIZE, (long)SEGMENT_RECORDS*RECORD_SIZE);
+			}
+		});
+	}
+	
+	/**Returns the segment that begins with the given record, waiting for the background mapping if it is not done yet.*/
+	protected MappedByteBuffer takeSegment(long first) throws IOException
+	{
+		Future<MappedByteBuffer> f = nextSegment;
+		nextSegment = null;
+		if(f != null)
+		{
+			try {
+				return f.get();
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				throw new IOException("Failed to map segment: "+e.getCause());
+			} catch(InterruptedException e) {
+				//Map it here instead
+				Thread.currentThread().interrupt();
+			}
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE+first*RECORD_SIZE, (long)SEGMENT_RECORDS*RECORD_SIZE);
+	}
+	
+	/**Appends a record, timestamped with the current time of the clock. 
+	 * The report is read from index 0 to 63 of the buffer, without changing its position or limit.
+	 * @param controller The controller number, between 0 and 255
+	 * @param report The report, or null for a record with an all-zero report*/
+	public synchronized void record(SteamControllerClock clock, byte type, int controller, ByteBuffer report) throws IOException
+	{
+		if(channel == null)
+			throw new IOException("Recorder is closed");
+		int r = (int)(count%SEGMENT_RECORDS);
+		if(r == 0)
+			segment = takeSegment(count);
+		else if(r == SEGMENT_RECORDS/2)
+			prepareSegment(count-r+SEGMENT_RECORDS);
+		int o = r*RECORD_SIZE;
+		segment.putLong(o, clock.nanoTime());
+		segment.put(o+RECORD_TYPE, type);
+		segment.put(o+RECORD_CONTROLLER, (byte)controller);
+		segment.putShort(o+RECORD_CONTROLLER+1, (short)0);
+		segment.position(o+RECORD_REPORT);
+		if(report == null)
+			segment.put(EMPTY_REPORT);
+		else
+		{
+			int position = report.position(), limit = report.limit();
+			report.limit(64);
+			report.position(0);
+			segment.put(report);
+			report.limit(limit);
+			report.position(position);
+		}
+		
+		count++;
+		header.putLong(HEADER_COUNT, count);
+		if(controller >= controllers)
+		{
+			controllers = controller+1;
+			header.putInt(HEADER_CONTROLLERS, controllers);
+		}
+	}
+	
+	/**Returns the number of records written so far.*/
+	public synchronized long size()
+	{
+		return count;
+	}
+	
+	/**Flushes the recording and trims the unused part of the last segment.*/
+	public synchronized void close()
+	{
+		if(channel == null)
+			return;
+		//Let a background mapping finish, so it does not extend the file after it has been trimmed
+		if(nextSegment != null)
+		{
+			try {
+				nextSegment.get();
+			} catch(Exception e) {
+				//The segment is not needed anymore
+			}
+			nextSegment = null;
+		}
+		mapper.shutdown();
+		header.force();
+		if(segment != null)
+			segment.force();
+		segment = null;
+		try {
+			raf.setLength(HEADER_SIZE+count*RECORD_SIZE);
+		} catch(IOException e) {
+			//Some platforms can't truncate mapped files, the header count is authoritative anyway
+		}
+		try {
+			raf.close();
+		} catch(IOException e) {
+			System.out.println("Info: Failed to close recording "+file+": "+e);
+		}
+		channel = null;
+		raf = null;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return file+" ("+size()+" records)";
+	}
+}
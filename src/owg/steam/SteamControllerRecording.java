@@ -0,0 +1,144 @@
+package owg.steam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**Memory-mapped, seekable view of a recording made with {@link SteamControllerRecorder}.<br>
+ * <br>
+ * A recording consists of a header followed by fixed size records, so any record can be accessed by its index.
+ * The file is mapped in segments when it is opened. Instances are immutable and may be shared by several readers.*/
+public class SteamControllerRecording
+{
+	/**"SCRC", identifies a recording file*/
+	public static final int MAGIC = 0x53435243;
+	public static final short VERSION = 1;
+	
+	/**Header layout: magic (int), version (short), record size (short), record count (long), controller count (int)*/
+	public static final int HEADER_SIZE = 32;
+	protected static final int HEADER_COUNT = 8;
+	protected static final int HEADER_CONTROLLERS = 16;
+	
+	/**Record layout: timestamp in nanoseconds (long), record type (byte), controller number (byte), reserved (short), report (64 bytes)*/
+	public static final int RECORD_SIZE = 76;
+	protected static final int RECORD_TYPE = 8;
+	protected static final int RECORD_CONTROLLER = 9;
+	protected static final int RECORD_REPORT = 12;
+	
+	/**Number of records in each mapped segment of the file*/
+	public static final int SEGMENT_RECORDS = 1<<16;
+	
+	/**Record type for a 64 byte {@link SteamController#EV_INPUT_DATA} report*/
+	public static final byte TYPE_REPORT = 0;
+	/**Record type for a controller that connected. The report is all zero.*/
+	public static final byte TYPE_CONNECT = 1;
+	/**Record type for a controller that disconnected. The report is all zero.*/
+	public static final byte TYPE_DISCONNECT = 2;
+	
+	public final File file;
+	protected final long count;
+	protected final int controllers;
+	protected final MappedByteBuffer[] segments;
+	
+	public SteamControllerRecording(File file) throws IOException
+	{
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if(header.getInt(0) != MAGIC)
+				throw new IOException(file+" is not a Steam Controller recording");
+			if(header.getShort(4) != VERSION || header.getShort(6) != RECORD_SIZE)
+				throw new IOException(file+" has unsupported version "+header.getShort(4));
+			count = Math.min(header.getLong(HEADER_COUNT), (channel.size()-HEADER_SIZE)/RECORD_SIZE);
+			controllers = header.getInt(HEADER_CONTROLLERS);
+			segments = new MappedByteBuffer[(int)((count+SEGMENT_RECORDS-1)/SEGMENT_RECORDS)];
+			for(int s = 0; s<segments.length; s++)
+			{
+				long start = (long)s*SEGMENT_RECORDS;
+				long records = Math.min(SEGMENT_RECORDS, count-start);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE+start*RECORD_SIZE, records*RECORD_SIZE);
+			}
+		} finally {
+			//Note: Mappings remain valid after the file is closed
+			raf.close();
+		}
+	}
+	
+	/**Returns the number of records in the recording.*/
+	public long size()
+	{
+		return count;
+	}
+	
+	/**Returns the number of distinct controllers in the recording. Controller numbers are between 0 and this value.*/
+	public int getControllerCount()
+	{
+		return controllers;
+	}
+
+	public long getNanos(long index)
+	{
+		ByteBuffer b = segment(index);
+		return b.getLong(offset(index));
+	}
+
+	public byte getType(long index)
+	{
+		ByteBuffer b = segment(index);
+		return b.get(offset(index)+RECORD_TYPE);
+	}
+
+	public int getController(long index)
+	{
+		ByteBuffer b = segment(index);
+		return b.get(offset(index)+RECORD_CONTROLLER)&0xFF;
+	}
+
+	/**Copies the 64 byte report of the record into the destination buffer, without changing its position.*/
+	public void getReport(long index, ByteBuffer dst)
+	{
+		ByteBuffer b = segment(index);
+		int o = offset(index)+RECORD_REPORT;
+		for(int i = 0; i<64; i++)
+			dst.put(i, b.get(o+i));
+	}
+	
+	/**Returns the index of the first record with a timestamp at or after the given time, or {@link #size()} if there is none.
+	 * Records are in timestamp order, so this is a binary search.*/
+	public long seek(long nanos)
+	{
+		long lo = 0, hi = count;
+		while(lo < hi)
+		{
+			long mid = (lo+hi)>>>1;
+			if(getNanos(mid)-nanos < 0)
+				lo = mid+1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	protected ByteBuffer segment(long index)
+	{
+		if(index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Record "+index+" of "+count);
+		return segments[(int)(index/SEGMENT_RECORDS)];
+	}
+	
+	protected static int offset(long index)
+	{
+		return (int)(index%SEGMENT_RECORDS)*RECORD_SIZE;
+	}
+
+	@Override
+	public String toString()
+	{
+		return file+" ("+count+" records, "+controllers+" controllers)";
+	}
+}
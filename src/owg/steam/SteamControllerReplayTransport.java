@@ -0,0 +1,129 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**Transport that replays the reports of one controller from a {@link SteamControllerRecording}.<br>
+ * <br>
+ * Connection records are replayed as {@link SteamController#EV_WIRELESS_CONNECT} reports, 
+ * so the device should be configured as a wireless controller. 
+ * The transport also serves as the clock of the controller, 
+ * so the replayed input is processed with the timestamps it was recorded with.<br>
+ * Reports are either replayed at the original pace, or as fast as they are read.
+ * When the end of the recording is reached, reads will time out.
+ * @see SteamController#PROP_REPLAY_FILE*/
+public class SteamControllerReplayTransport implements SteamControllerTransport, SteamControllerClock
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	public final SteamControllerRecording recording;
+	public final int controller;
+	/**Whether to replay the reports at the original pace*/
+	public final boolean realtime;
+	
+	protected boolean open = false;
+	protected long index;
+	/**Timestamp of the most recently replayed record*/
+	protected volatile long nanos;
+	/**Offset between the recorded time and the real time, for replaying at the original pace*/
+	protected long offset;
+	
+	public SteamControllerReplayTransport(SteamControllerRecording recording, int controller, boolean realtime)
+	{
+		this.recording = recording;
+		this.controller = controller;
+		this.realtime = realtime;
+		this.index = 0;
+		this.nanos = recording.size() == 0 ? System.nanoTime() : recording.getNanos(0);
+		this.offset = System.nanoTime()-nanos;
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		open = true;
+		offset = System.nanoTime()-nanos;
+	}
+	
+	/**Moves the replay to the first record at or after the given recorded time.*/
+	public void seek(long nanos)
+	{
+		index = recording.seek(nanos);
+		this.nanos = nanos;
+		offset = System.nanoTime()-nanos;
+	}
+	
+	@Override
+	public long nanoTime()
+	{
+		return nanos;
+	}
+
+	@Override
+	public boolean read(ByteBuffer data, IntBuffer transferred, long timeout) throws IOException
+	{
+		if(!open)
+			throw new IOException("Replay is closed");
+		while(index < recording.size() && recording.getController(index) != controller)
+			index++;
+		if(index >= recording.size())
+		{
+			LockSupport.parkNanos(timeout*1000000L);
+			return false;
+		}
+		
+		long next = recording.getNanos(index);
+		if(realtime)
+		{
+			long wait = next+offset-System.nanoTime();
+			if(wait > timeout*1000000L)
+			{
+				LockSupport.parkNanos(timeout*1000000L);
+				return false;
+			}
+			if(wait > 0)
+				LockSupport.parkNanos(wait);
+		}
+		
+		byte type = recording.getType(index);
+		if(type == SteamControllerRecording.TYPE_REPORT)
+			recording.getReport(index, data);
+		else
+		{
+			for(int i = 0; i<64; i++)
+				data.put(i, (byte)0);
+			data.put(0, (byte)0x01);
+			data.put(2, SteamController.EV_WIRELESS_CONNECT);
+			data.put(3, (byte)0x01);
+			data.put(4, type == SteamControllerRecording.TYPE_CONNECT ? 
+					SteamController.STEAM_WIRELESS_CONNECT : SteamController.STEAM_WIRELESS_DISCONNECT);
+		}
+		nanos = next;
+		index++;
+		transferred.put(0, 64);
+		return true;
+	}
+
+	@Override
+	public void write(ByteBuffer data, long timeout) throws IOException
+	{
+		if(!open)
+			throw new IOException("Replay is closed");
+		//Configuration and haptics are not replayed
+	}
+
+	@Override
+	public void close()
+	{
+		open = false;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Replay of controller "+controller+" from "+recording;
+	}
+}
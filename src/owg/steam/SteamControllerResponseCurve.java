@@ -0,0 +1,163 @@
+package owg.steam;
+
+import java.util.Arrays;
+
+/**Shape of the response of a stick or pad, mapping the distance from the center to the output amplitude.<br>
+ * <br>
+ * The input is the distance past the dead zone, scaled so that the edge zone starts at 1. 
+ * The output is the amplitude between 0 and 1. The curves are written in the properties as:<br>
+ * <code>linear</code>: The output is the input.<br>
+ * <code>power:<i>p</i></code>: The input raised to the power p. Values above 1 give finer control near the center.<br>
+ * <code>scurve:<i>s</i></code>: Blends the linear curve with a smooth step, by s between 0 and 1. 
+ * This gives finer control near the center and near the edge.<br>
+ * <code>points:<i>x</i>,<i>y</i> <i>x</i>,<i>y</i> ...</code>: Straight lines between the given points, 
+ * from (0, 0) to (1, 1) unless other end points are given.<br>
+ * Curves are immutable, and are evaluated into a {@link SteamControllerRadialResponse} when the configuration is created.*/
+public class SteamControllerResponseCurve
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	public static final int TYPE_LINEAR = 0;
+	public static final int TYPE_POWER = 1;
+	public static final int TYPE_S_CURVE = 2;
+	public static final int TYPE_POINTS = 3;
+	
+	public static final SteamControllerResponseCurve LINEAR = new SteamControllerResponseCurve(TYPE_LINEAR, 1.0f, null, null);
+	
+	public final int type;
+	/**Exponent of a power curve, or blend of an S-curve*/
+	public final float parameter;
+	/**Sorted points of a point curve, or null*/
+	protected final float[] xs, ys;
+	
+	protected SteamControllerResponseCurve(int type, float parameter, float[] xs, float[] ys)
+	{
+		this.type = type;
+		this.parameter = parameter;
+		this.xs = xs;
+		this.ys = ys;
+	}
+	
+	/**Returns a curve that raises the input to the given power.*/
+	public static SteamControllerResponseCurve power(float exponent)
+	{
+		if(!(exponent > 0))
+			throw new IllegalArgumentException("The exponent must be positive, got "+exponent);
+		return new SteamControllerResponseCurve(TYPE_POWER, exponent, null, null);
+	}
+	
+	/**Returns a curve that blends the linear curve with a smooth step, where 0 is linear and 1 is a full smooth step.*/
+	public static SteamControllerResponseCurve sCurve(float strength)
+	{
+		if(!(strength >= 0 && strength <= 1))
+			throw new IllegalArgumentException("The strength must be between 0 and 1, got "+strength);
+		return new SteamControllerResponseCurve(TYPE_S_CURVE, strength, null, null);
+	}
+	
+	/**Returns a curve of straight lines between the given points. 
+	 * The x coordinates must be increasing. The ends are (0, 0) and (1, 1) unless other points are given there.*/
+	public static SteamControllerResponseCurve points(float[] x, float[] y)
+	{
+		if(x.length != y.length || x.length == 0)
+			throw new IllegalArgumentException("Expected the same number of x and y coordinates");
+		int n = x.length;
+		boolean first = x[0] > 0, last = x[n-1] < 1;
+		float[] xs = new float[n+(first?1:0)+(last?1:0)];
+		float[] ys = new float[xs.length];
+		int j = 0;
+		if(first)
+			j++;
+		for(int i = 0; i<n; i++, j++)
+		{
+			if(i > 0 && !(x[i] > x[i-1]))
+				throw new IllegalArgumentException("The x coordinates must be increasing, got "+Arrays.toString(x));
+			xs[j] = x[i];
+			ys[j] = y[i];
+		}
+		if(last)
+		{
+			xs[j] = 1;
+			ys[j] = 1;
+		}
+		return new SteamControllerResponseCurve(TYPE_POINTS, 0.0f, xs, ys);
+	}
+	
+	/**Parses a curve in the format described in the class documentation.
+	 * @throws IllegalArgumentException If the curve is not valid*/
+	public static SteamControllerResponseCurve parse(String str)
+	{
+		String s = str.trim();
+		int colon = s.indexOf(':');
+		String name = (colon < 0 ? s : s.substring(0, colon)).trim().toLowerCase();
+		String arg = colon < 0 ? "" : s.substring(colon+1).trim();
+		try {
+			if(name.equals("linear"))
+				return LINEAR;
+			if(name.equals("power"))
+				return power(Float.parseFloat(arg));
+			if(name.equals("scurve"))
+				return sCurve(arg.length() == 0 ? 1.0f : Float.parseFloat(arg));
+			if(name.equals("points"))
+			{
+				String[] pairs = arg.split("\\s+");
+				float[] x = new float[pairs.length];
+				float[] y = new float[pairs.length];
+				for(int i = 0; i<pairs.length; i++)
+				{
+					int comma = pairs[i].indexOf(',');
+					if(comma < 0)
+						throw new IllegalArgumentException("Expected x,y but got \""+pairs[i]+"\"");
+					x[i] = Float.parseFloat(pairs[i].substring(0, comma));
+					y[i] = Float.parseFloat(pairs[i].substring(comma+1));
+				}
+				return points(x, y);
+			}
+		} catch(NumberFormatException err) {
+			throw new IllegalArgumentException("Invalid number in curve \""+str+"\"");
+		}
+		throw new IllegalArgumentException("Unknown curve \""+str+"\"");
+	}
+	
+	/**Returns the output amplitude for the given input between 0 and 1.*/
+	public float apply(float t)
+	{
+		switch(type)
+		{
+		case TYPE_POWER:
+			return (float)Math.pow(t, parameter);
+		case TYPE_S_CURVE:
+			return t+parameter*(t*t*(3-2*t)-t);
+		case TYPE_POINTS:
+			if(t <= xs[0])
+				return ys[0];
+			for(int i = 1; i<xs.length; i++)
+			{
+				if(t <= xs[i])
+					return ys[i-1]+(ys[i]-ys[i-1])*(t-xs[i-1])/(xs[i]-xs[i-1]);
+			}
+			return ys[ys.length-1];
+		default:
+			return t;
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		switch(type)
+		{
+		case TYPE_POWER:
+			return "power:"+parameter;
+		case TYPE_S_CURVE:
+			return "scurve:"+parameter;
+		case TYPE_POINTS:
+			StringBuilder sb = new StringBuilder("points:");
+			for(int i = 0; i<xs.length; i++)
+				sb.append(i == 0 ? "" : " ").append(xs[i]).append(',').append(ys[i]);
+			return sb.toString();
+		default:
+			return "linear";
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package owg.steam;
+
+import java.awt.AWTException;
+import java.awt.GraphicsEnvironment;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Robot;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**Pointer that moves the system mouse pointer with {@link Robot}.<br>
+ * <br>
+ * The controller thread only accumulates the deltas, see {@link SteamControllerPointerAccumulator}.
+ * A shared mover thread collects them and moves the pointer at most once per {@link #MOVE_INTERVAL},
+ * since each move is a round trip to the window system, which must not delay the reading of reports.
+ * The robot and the mover thread are only created the first time a pointer is moved,
+ * so there is no cost if the gyro mouse is not used, and headless environments simply ignore the movement.
+ * Only whole pixels are moved; the remainder is carried over to the next move.*/
+public class SteamControllerRobotPointer extends SteamControllerPointerAccumulator
+{
+	/**Minimum time between pointer moves in nanoseconds*/
+	public static final long MOVE_INTERVAL = (long)8E6;
+
+	protected static Robot robot = null;
+	protected static boolean robotFailed = false;
+	/**Pointers that have been moved since the mover thread last collected them*/
+	protected static final ConcurrentLinkedQueue<SteamControllerRobotPointer> moved = new ConcurrentLinkedQueue<SteamControllerRobotPointer>();
+	protected static Thread mover = null;
+
+	/**Returns the shared robot, creating it if needed, or null if it is not available.*/
+	protected static synchronized Robot getRobot()
+	{
+		if(robot == null && !robotFailed)
+		{
+			try
+			{
+				if(GraphicsEnvironment.isHeadless())
+					throw new AWTException("Headless environment");
+				robot = new Robot();
+			}
+			catch(AWTException e)
+			{
+				robotFailed = true;
+				System.out.println("Info: Gyro mouse is not available ("+e.toString()+")");
+			}
+			catch(SecurityException e)
+			{
+				robotFailed = true;
+				System.out.println("Info: Gyro mouse is not available ("+e.toString()+")");
+			}
+		}
+		return robot;
+	}
+
+	/**Returns the shared mover thread, starting it if needed.*/
+	protected static synchronized Thread getMover()
+	{
+		if(mover == null)
+		{
+			mover = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					runMover();
+				}
+			}, "steam-controller-pointer");
+			mover.setDaemon(true);
+			mover.start();
+		}
+		return mover;
+	}
+
+	/**Loop of the mover thread: Waits for movement, moves the pointers and waits out the move interval.*/
+	protected static void runMover()
+	{
+		while(true)
+		{
+			SteamControllerRobotPointer p = moved.poll();
+			if(p == null)
+			{
+				LockSupport.park();
+				continue;
+			}
+			if(p.moveNow())
+				LockSupport.parkNanos(MOVE_INTERVAL);
+		}
+	}
+
+	/**Set while this pointer is in {@link #moved}*/
+	protected final AtomicBoolean queued = new AtomicBoolean(false);
+	/**Movement that has been collected but not moved yet. Only used by the mover thread.*/
+	protected double x = 0, y = 0;
+	protected final double[] collected = new double[2];
+
+	@Override
+	public void move(float dx, float dy, long timeNanos)
+	{
+		super.move(dx, dy, timeNanos);
+		if(queued.compareAndSet(false, true))
+		{
+			moved.add(this);
+			LockSupport.unpark(getMover());
+		}
+	}
+
+	/**Moves the system pointer by the whole pixels collected so far. Returns true if it was moved.
+	 * Only called by the mover thread.*/
+	protected boolean moveNow()
+	{
+		//Clear the flag first, so movement that arrives while collecting queues the pointer again
+		queued.set(false);
+		getAndReset(collected);
+		x += collected[0];
+		y += collected[1];
+		//Truncate towards zero, so the remainder has the same sign as the movement
+		int ix = (int)x;
+		int iy = (int)y;
+		if(ix == 0 && iy == 0)
+			return false;
+		Robot r = getRobot();
+		if(r == null)
+			return false;
+		PointerInfo ptr = MouseInfo.getPointerInfo();
+		if(ptr == null)
+			return false;
+		Point mouse = ptr.getLocation();
+		r.mouseMove(mouse.x+ix, mouse.y+iy);
+		x -= ix;
+		y -= iy;
+		return true;
+	}
+}
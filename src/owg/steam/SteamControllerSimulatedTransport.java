@@ -0,0 +1,187 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**Transport that simulates a Steam Controller in memory, for testing and profiling without hardware.<br>
+ * <br>
+ * The simulated controller produces valid 64 byte reports at a fixed rate. 
+ * If it simulates a wireless controller, then it will first report {@link SteamController#EV_WIRELESS_CONNECT}.
+ * After that, it produces {@link SteamController#EV_INPUT_DATA} reports where the sticks, pads and gyro move in circles
+ * and the buttons are pressed and released in turn, 
+ * interleaved with a {@link SteamController#EV_BATTERY_STATUS} report once per second.<br>
+ * Feature reports written to the simulated controller are accepted and counted, but otherwise ignored.
+ * @see SteamController#PROP_SIMULATED_CONTROLLERS*/
+public class SteamControllerSimulatedTransport implements SteamControllerTransport
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+
+	/**Number of reports per full revolution of the simulated sticks and pads*/
+	protected static final int REVOLUTION = 500;
+	/**Number of reports between each simulated button transition*/
+	protected static final int BUTTON_INTERVAL = 25;
+	
+	public final SteamControllerDevice device;
+	/**Reports per second, or 0 to produce reports as fast as they are read*/
+	public final float rate;
+	protected final long periodNanos;
+	/**Whether a controller is connected, otherwise reads always time out*/
+	public final boolean paired;
+	
+	protected boolean open = false;
+	protected boolean connectSent;
+	protected long nextReportNanos = Long.MIN_VALUE;
+	protected int sequence = 0;
+	protected int batteryCountdown;
+	
+	protected long reportsRead = 0;
+	protected long reportsWritten = 0;
+	
+	public SteamControllerSimulatedTransport(SteamControllerDevice device, float rate)
+	{
+		this(device, rate, true);
+	}
+	
+	/**@param paired False to simulate a wireless slot with no controller connected*/
+	public SteamControllerSimulatedTransport(SteamControllerDevice device, float rate, boolean paired)
+	{
+		this.device = device;
+		this.paired = paired;
+		this.rate = rate;
+		this.periodNanos = rate > 0 ? (long)(1E9/rate) : 0L;
+		this.batteryCountdown = rate > 0 ? (int)rate : 1000;
+		this.connectSent = device.isWired();
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		open = true;
+	}
+
+	@Override
+	public boolean read(ByteBuffer data, IntBuffer transferred, long timeout) throws IOException
+	{
+		if(!open)
+			throw new IOException("Simulated controller is closed");
+		if(!paired)
+		{
+			LockSupport.parkNanos(timeout*1000000L);
+			return false;
+		}
+		if(periodNanos > 0)
+		{
+			long now = System.nanoTime();
+			if(nextReportNanos == Long.MIN_VALUE || now-nextReportNanos > 100*periodNanos)
+				nextReportNanos = now;//Start, or resynchronize after falling far behind
+			long wait = nextReportNanos-now;
+			if(wait > 0)
+			{
+				if(wait > timeout*1000000L)
+				{
+					LockSupport.parkNanos(timeout*1000000L);
+					return false;
+				}
+				LockSupport.parkNanos(wait);
+			}
+			nextReportNanos += periodNanos;
+		}
+		
+		for(int i = 0; i<64; i++)
+			data.put(i, (byte)0);
+		data.put(0, (byte)0x01);
+		
+		if(!connectSent)
+		{
+			data.put(2, SteamController.EV_WIRELESS_CONNECT);
+			data.put(3, (byte)0x01);
+			data.put(4, SteamController.STEAM_WIRELESS_CONNECT);
+			connectSent = true;
+		}
+		else if(--batteryCountdown <= 0)
+		{
+			batteryCountdown = rate > 0 ? (int)rate : 1000;
+			data.put(2, SteamController.EV_BATTERY_STATUS);
+			data.put(3, (byte)0x0b);
+			put16(data, 12, 2900);//Battery voltage in mV
+			data.put(14, (byte)100);//Battery percentage
+		}
+		else
+			fillInputData(data, sequence++);
+		
+		reportsRead++;
+		transferred.put(0, 64);
+		return true;
+	}
+
+	/**Fills the buffer with a synthetic {@link SteamController#EV_INPUT_DATA} report.*/
+	protected void fillInputData(ByteBuffer data, int seq)
+	{
+		data.put(2, SteamController.EV_INPUT_DATA);
+		data.put(3, (byte)0x3c);
+		data.putInt(4, Integer.reverseBytes(seq));
+		
+		double angle = (seq%REVOLUTION)*2*Math.PI/REVOLUTION;
+		short cos = (short)(Math.cos(angle)*32767);
+		short sin = (short)(Math.sin(angle)*32767);
+		
+		//Press one button at a time, cycling through the 23 bit button field
+		int step = seq/BUTTON_INTERVAL;
+		int buttons = (step&1) == 0 ? 0 : 1<<((step/2)%23);
+		//Alternate between left pad and left stick data
+		boolean lPad = ((seq/REVOLUTION)&1) != 0;
+		if(lPad)
+			buttons |= 1<<19;
+		else
+			buttons &= ~(1<<19);
+		data.put(8, (byte)buttons);
+		data.put(9, (byte)(buttons>>>8));
+		data.put(10, (byte)(buttons>>>16));
+		
+		data.put(11, (byte)(seq*3));//Left trigger
+		data.put(12, (byte)(seq*5));//Right trigger
+		
+		put16(data, 16, cos);
+		put16(data, 18, sin);
+		put16(data, 20, sin);
+		put16(data, 22, cos);
+		
+		put16(data, 28, cos/8);
+		put16(data, 30, sin/8);
+		put16(data, 32, 16384);
+		put16(data, 34, sin/4);
+		put16(data, 36, cos/4);
+		put16(data, 38, sin/16);
+	}
+
+	protected static void put16(ByteBuffer data, int i, int value)
+	{
+		data.put(i  , (byte)value);
+		data.put(i+1, (byte)(value>>>8));
+	}
+
+	@Override
+	public void write(ByteBuffer data, long timeout) throws IOException
+	{
+		if(!open)
+			throw new IOException("Simulated controller is closed");
+		if(data.capacity() != 64)
+			throw new IOException("Control transfer failed: Unexpected length "+data.capacity());
+		reportsWritten++;
+	}
+
+	@Override
+	public void close()
+	{
+		open = false;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Simulated transport ("+reportsRead+" reports read, "+reportsWritten+" reports written)";
+	}
+}
@@ -0,0 +1,88 @@
+package owg.steam;
+
+/**Decoded snapshot of a Steam Controller's input, as handed from the controller thread to the application.
+ * Each report is decoded once into this form on the controller thread, so reading a component is an array or bit lookup.
+ * @see SteamControllerStateBuffer*/
+public class SteamControllerState
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	/**Axis values indexed by {@link SteamControllerAxis} ordinal, with dead and edge zones applied*/
+	protected final float[] axes = new float[SteamControllerAxis.AXES.length];
+	/**Button bitfield, with the same layout as {@link SteamController#PROP_BUTTON_MASK}. Disabled buttons are never set.*/
+	protected int buttons = 0;
+	/**Bits for the axes that changed since the previous state, indexed by {@link SteamControllerAxis} ordinal. 
+	 * This includes changes in states that were skipped because the application did not poll them.*/
+	protected int dirtyAxes = 0;
+	/**Timestamp for latest data*/
+	protected long lastUpdateTimeNanos = Long.MIN_VALUE;
+	/**Number of states published before this one*/
+	protected long generation = 0;
+	/**System time at which the latest report in this state was received from the transport*/
+	protected long receivedNanos = 0;
+	/**System time at which the oldest report that was not in any state acquired by the application was received, 
+	 * which is the report with the oldest events since the previous acquired state*/
+	protected long firstReceivedNanos = 0;
+	
+	public float getAxis(SteamControllerAxis axis)
+	{
+		return axes[axis.ordinal()];
+	}
+	
+	public boolean isPressed(SteamControllerButton button)
+	{
+		return (buttons&(1<<button.bitIndex)) != 0;
+	}
+	
+	/**Stores the orientation quaternion in dst as w, x, y, z. The quaternion is normalized, 
+	 * since interpolated states are not. If no orientation is available, this is the identity.*/
+	public void getOrientation(float[] dst)
+	{
+		float w = axes[SteamControllerAxis.ORIENTATION_W.ordinal()];
+		float x = axes[SteamControllerAxis.ORIENTATION_X.ordinal()];
+		float y = axes[SteamControllerAxis.ORIENTATION_Y.ordinal()];
+		float z = axes[SteamControllerAxis.ORIENTATION_Z.ordinal()];
+		float n = w*w + x*x + y*y + z*z;
+		if(n == 0)
+		{
+			dst[0] = 1;
+			dst[1] = 0;
+			dst[2] = 0;
+			dst[3] = 0;
+			return;
+		}
+		n = 1.0f/(float)Math.sqrt(n);
+		dst[0] = w*n;
+		dst[1] = x*n;
+		dst[2] = y*n;
+		dst[3] = z*n;
+	}
+	
+	public int getButtons()
+	{
+		return buttons;
+	}
+	
+	public long getLastUpdateTimeNanos()
+	{
+		return lastUpdateTimeNanos;
+	}
+	
+	public long getGeneration()
+	{
+		return generation;
+	}
+	
+	/**Copies the given state into this state.*/
+	public void set(SteamControllerState other)
+	{
+		System.arraycopy(other.axes, 0, axes, 0, axes.length);
+		buttons = other.buttons;
+		dirtyAxes = other.dirtyAxes;
+		lastUpdateTimeNanos = other.lastUpdateTimeNanos;
+		generation = other.generation;
+		receivedNanos = other.receivedNanos;
+		firstReceivedNanos = other.firstReceivedNanos;
+	}
+}
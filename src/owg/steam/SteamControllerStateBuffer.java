@@ -0,0 +1,52 @@
+package owg.steam;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**Lock-free triple buffer for handing {@link SteamControllerState} snapshots from the controller thread to the application.<br>
+ * <br>
+ * The producer owns one buffer (the back buffer) and the consumer owns another (the front buffer).
+ * The third buffer is exchanged atomically: The producer swaps its back buffer with it to publish a state, 
+ * and the consumer swaps its front buffer with it only if a new state was published since its last swap. 
+ * Neither side ever waits for the other, and acquiring without a new state costs a single volatile read.<br>
+ * <br>
+ * Each side keeps track of its own buffer index, so that the indices are written by one thread each.*/
+public class SteamControllerStateBuffer
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	/**Initial index of the producer's buffer*/
+	public static final int INITIAL_BACK = 0;
+	/**Initial index of the consumer's buffer*/
+	public static final int INITIAL_FRONT = 1;
+	
+	/**Mask for the buffer index in the value returned by {@link #publish(int)}*/
+	public static final int INDEX_MASK = 3;
+	/**Set on the middle index when it holds a state that the consumer has not yet acquired*/
+	public static final int FRESH = 4;
+	
+	protected final SteamControllerState[] states = {new SteamControllerState(), new SteamControllerState(), new SteamControllerState()};
+	protected final AtomicInteger middle = new AtomicInteger(2);
+	
+	public SteamControllerState get(int index)
+	{
+		return states[index];
+	}
+	
+	/**Called by the producer to publish the state in its back buffer. 
+	 * Returns the index of the new back buffer, which holds an older state that must be overwritten completely.
+	 * The index is combined with {@link #FRESH} if the consumer never acquired that state, so it was skipped.*/
+	public int publish(int back)
+	{
+		return middle.getAndSet(back|FRESH);
+	}
+	
+	/**Called by the consumer to get the most recently published state.
+	 * Returns the index of the new front buffer, which is the same as the given index if nothing was published since the last call.*/
+	public int acquire(int front)
+	{
+		if((middle.get()&FRESH) == 0)
+			return front;
+		return middle.getAndSet(front)&INDEX_MASK;
+	}
+}
@@ -1,23 +1,19 @@
 package owg.steam;
 
-import java.awt.AWTException;
-import java.awt.MouseInfo;
-import java.awt.Point;
-import java.awt.PointerInfo;
-import java.awt.Robot;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.Arrays;
-import javax.swing.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.usb4java.DeviceHandle;
 import org.usb4java.LibUsb;
-import org.usb4java.LibUsbException;
-
-import net.java.games.input.Component.Identifier;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
 
 /**Thread-task that performs Steam Controller USB I/O. This is necessary, 
  * particularly on Linux, because synchronous transfer with libusb is not very good.
@@ -27,40 +23,82 @@ public class SteamControllerThreadTask
 	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
 	// so that the controller thread will not keep the plugin alive if the application stops using it.
 	
-	protected static final Robot robot;
-	static 
-	{
-		Robot r = null;
-		try
-		{
-			r = new Robot();
-		} catch (AWTException e)
-		{
-			r = null;
-			e.printStackTrace();
-		}
-		robot = r;
-	}
-	
-	public final SteamControllerConfig config;
+	/**The configuration, only read by the controller thread, see {@link #setConfig(SteamControllerConfig)}*/
+	protected SteamControllerConfig config;
+	/**Configuration to swap in before the next report, or null*/
+	protected final AtomicReference<SteamControllerConfig> nextConfig = new AtomicReference<SteamControllerConfig>();
 	public final SteamControllerDevice device;
 	
-	protected IOException fault = null;
-	protected final Object lock = new Object();
-
-	protected DeviceHandle handle;
-	protected boolean kernelDriver;
-	protected boolean interfaceClaimed;
-	protected boolean connected;
+	protected volatile IOException fault = null;
+
+	public final SteamControllerTransport transport;
+	/**Clock used for timestamps. This is the transport if it is a {@link SteamControllerClock}, otherwise the system clock.*/
+	public final SteamControllerClock clock;
+	/**Channel for configuration reports and haptics, which never blocks the controller thread*/
+	public final SteamControllerOutput output;
+	/**Effects played on the rumblers, see {@link SteamControllerHapticMixer}*/
+	public final SteamControllerHapticMixer haptics = new SteamControllerHapticMixer();
+	protected boolean open;
+	
+	/**Timeout for synchronous reads, in milliseconds*/
+	protected static final long POLL_TIMEOUT = 4L;
+	/**Longest interval between reads of a connected controller that has stopped sending reports, in nanoseconds.
+	 * This is kept short, since it delays the first input after the controller has been idle.*/
+	protected static final long MAX_CONNECTED_BACKOFF = (long)8E6;
+	/**Time at which {@link #run()} should read again, see {@link #backoff(long)}*/
+	protected long nextPollNanos = System.nanoTime();
+	/**Current interval between reads, or 0 at full rate*/
+	protected long pollBackoffNanos = 0;
+	//Poll statistics, only written by the controller thread
+	protected final long statsStartNanos = System.nanoTime();
+	protected volatile long polls = 0, skippedPolls = 0, timeouts = 0, readNanos = 0;
+	//Processing statistics for the metrics, only written by the controller thread, see SteamControllerMetrics
+	protected volatile long reports = 0, errors = 0, connects = 0, disconnects = 0, processNanos = 0, maxProcessNanos = 0;
+	/**Length of the windows over which the report rate is measured, in nanoseconds*/
+	public static final long RATE_WINDOW_NANOS = (long)1E9;
+	/**Reports per second in the last complete window, and the start of the current window. Only written by the controller thread.*/
+	protected volatile double reportRate = 0.0;
+	protected volatile long rateWindowStart = statsStartNanos;
+	/**Value of {@link #reports} when the current window started*/
+	protected long rateWindowReports = 0;
+	/**Released when {@link #init()} has been performed, or the controller has failed to open or been cleaned up*/
+	protected final CountDownLatch initialized = new CountDownLatch(1);
+	/**Released when the controller has been cleaned up, see {@link #awaitClosed(long)}*/
+	protected final CountDownLatch closed = new CountDownLatch(1);
+	/**Set when opening the device begins*/
+	protected volatile boolean opening = false;
+	protected volatile boolean connected;
 
 	/**Direct buffer used for USB operations*/
 	protected final ByteBuffer data = ByteBuffer.allocateDirect(64);
 	/**Direct buffer used for USB operations*/
 	protected final IntBuffer transferred = ByteBuffer.allocateDirect(4).asIntBuffer();
 
+	/**Recorder for raw reports, or null if not recording*/
+	protected volatile SteamControllerRecorder recorder;
+	/**Controller number in the recording*/
+	protected int recorderId;
+
 	protected SCComponent[] components;
-	protected SCButton[] clickQueue = new SCButton[32];//Default event queue size from AbstractController
-	protected int clickQueueHead = 0, clickQueueTail = 0;
+	/**The component index of the button for each bit in the button word*/
+	protected final int[] buttonComponents = new int[32];
+	/**Bits in the button word that have a button component that is not disabled*/
+	protected int buttonComponentMask = 0;
+	/**The button word at the time of the last click, see {@link #diffButtons()}*/
+	protected int buttons = 0;
+	protected volatile SteamControllerEventRing events = new SteamControllerEventRing(32, 0L);//Default event queue size from AbstractController
+	/**Sequence number of the next event that the controller's own event reader will read. Only written by the polling thread.*/
+	protected volatile long consumed = 0;
+	/**Event ring size requested by the application, or 0, see {@link #setEventQueueSize(int)}*/
+	protected final AtomicInteger requestedEventQueueSize = new AtomicInteger();
+	/**Number of events that were discarded or coalesced by the overflow policy, see {@link SteamController#PROP_EVENT_OVERFLOW}*/
+	protected volatile long droppedEvents = 0;
+	/**The button word as last added to the event ring*/
+	protected int queuedButtons = 0;
+	/**Buttons that changed while the event ring was full, with {@link SteamController#OVERFLOW_COALESCE}*/
+	protected int coalescedButtons = 0;
+	/**Number of button changes that were coalesced since the last flush*/
+	protected int coalescedEvents = 0;
 
 	/**Data specific to left pad*/
 	protected final byte[] lPadData = new byte[64];
@@ -69,203 +107,453 @@ public class SteamControllerThreadTask
 	/**Specifies whether the latest data is found in lPadDataServer (true) or lStickDataServer (false).*/
 	protected boolean lPadIsLatestData = true;
 	protected long lastUpdateTimeNanos = Long.MIN_VALUE;
-
-	protected final SCComponent lpx, lpy, rpx, rpy, grz, grx;
-	protected float lx=0, ly=0, rx=0, ry=0, gz=0, gx=0;
+	/**The current input, decoded from lPadData, lStickData and the latest data, see {@link #decode()}*/
+	protected final SteamControllerState decoded = new SteamControllerState();
+	/**Snapshots for the application, see {@link #publish()}*/
+	protected final SteamControllerStateBuffer states = new SteamControllerStateBuffer();
+	/**Index of the snapshot that the controller thread writes*/
+	protected int stateIndex = SteamControllerStateBuffer.INITIAL_BACK;
+	protected long generation = 0;
+	/**Recently published states, or null if disabled, see {@link SteamController#PROP_HISTORY_SIZE}*/
+	public final SteamControllerHistory history;
+	/**The axis values in the last published state*/
+	protected final float[] publishedAxes = new float[SteamControllerAxis.AXES.length];
+	/**Changed axes in published states that the application skipped, see {@link #publish()}*/
+	protected int skippedDirtyAxes = 0;
+	/**System time at which the current report was received, see {@link SteamControllerState#receivedNanos}*/
+	protected long receivedNanos = 0;
+	/**Receive time of the oldest report in published states that the application skipped, or 0 if none*/
+	protected long skippedReceivedNanos = 0;
+	/**Latency from receiving the latest report in a state until the application acquired it, see {@link #poll(SteamControllerData)}*/
+	public final SteamControllerLatencyHistogram stateLatency = new SteamControllerLatencyHistogram();
+	/**Latency from receiving the oldest report in a state until the application acquired it and its events*/
+	public final SteamControllerLatencyHistogram eventLatency = new SteamControllerLatencyHistogram();
+
+	protected float lx=0, ly=0, rx=0, ry=0;
+	/**Orientation estimate, or null if the controller sends its own orientation or the estimate is disabled*/
+	protected SteamControllerOrientation orientation;
 	protected long padTime = Long.MIN_VALUE;
 	protected final int[] hapticOutcodes = {-1, -1};
+	/**Time of the next haptic tick, see {@link #updateHaptics()}*/
+	protected long nextHapticNanos;
 
-	protected final Point mouseOffset = new Point();	
-	protected final Timer mouseUpdater;
+	/**Receives the gyro mouse movement, or null to ignore it*/
+	public volatile SteamControllerPointer pointer = new SteamControllerRobotPointer();
 
 	protected int[] hapticIntensity = {0x0000, 0x0000};
 	protected int[] hapticPeriod = {0x0000, 0x0000};
 	protected int[] hapticCount = {0x0000, 0x0000};
-	protected float[] vibration = {0.0f, 0.0f};
-	protected long[] vibrationTimes = {Long.MIN_VALUE, Long.MIN_VALUE};
+	/**Rumble intensity set by the application, as float bits*/
+	protected final AtomicIntegerArray vibration = new AtomicIntegerArray(2);
+	/**Time of the last rumble set by the application*/
+	protected final AtomicLongArray vibrationTimes = new AtomicLongArray(new long[] {Long.MIN_VALUE, Long.MIN_VALUE});
 
-	public SteamControllerThreadTask(SteamController controller) throws LibUsbException 
+	public SteamControllerThreadTask(SteamController controller, SteamControllerTransport transport) throws IOException 
 	{
 		components = (SCComponent[]) controller.getComponents();
-		
-		this.config = controller.config;
-		this.device = controller.device;
-		//Note: Failed handle open needs no cleanup
-		handle = new DeviceHandle();
+		for(int i = 0; i<components.length; i++)
 		{
-			int result = LibUsb.open(device.device, handle);
-			if (result != LibUsb.SUCCESS) {
-				handle = null;
-				throw new LibUsbException("Unable to open USB device", result);
+			SCComponent c = components[i];
+			if(c instanceof SCButton)
+			{
+				buttonComponents[Integer.numberOfTrailingZeros(c.buttonBit)] = i;
+				if(!(c instanceof DisabledSCButton))
+					buttonComponentMask |= c.buttonBit;
 			}
 		}
+		
+		this.config = controller.config;
+		this.device = controller.device;
+		this.transport = transport;
+		this.clock = transport instanceof SteamControllerClock ? (SteamControllerClock)transport : SteamControllerClock.SYSTEM;
+		this.history = config.historySize > 0 ? new SteamControllerHistory(config.historySize) : null;
+		this.output = new SteamControllerOutput(transport, clock);
+		this.nextHapticNanos = clock.nanoTime();
+		this.orientation = createOrientation(config);
+	}
 
+	/**Returns a new orientation filter for the configuration, 
+	 * or null if the estimate is disabled, the gyro is disabled or the controller sends its own orientation.*/
+	protected static SteamControllerOrientation createOrientation(SteamControllerConfig config) {
+		if(!config.estimateOrientation || (config.gyroMode&SteamController.STEAM_GYRO_MODE_SEND_RAW_GYRO) == 0)
+			return null;
+		if(config.applyConfiguration && (config.gyroMode&SteamController.STEAM_GYRO_MODE_SEND_ORIENTATION) != 0)
+			return null;
+		return new SteamControllerOrientation(config.orientationGain);
+	}
+	
+	/**Opens the device and claims the controller's interface. This may be done on any thread, before {@link #init()}.
+	 * If this fails, polling will fail with the same exception.*/
+	public void open() throws IOException {
+		opening = true;
 		try {
-			// Check if kernel driver must be detached
-			boolean detach =  LibUsb.kernelDriverActive(handle, device.interfaceNo) == 1;
-			//Note: It is recommended to check the value of
-			//LibUsb.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER),
-			//but this always returns false (even if the function works)
-
-			// Detach the kernel driver
-			if (detach)
-			{
-				int result = LibUsb.detachKernelDriver(handle,  device.interfaceNo);
-				if (result != LibUsb.SUCCESS) 
-					throw new LibUsbException("Unable to detach kernel driver", result);
-			}
-			kernelDriver = detach;
-			
-			{
-				int result = LibUsb.claimInterface(handle, device.interfaceNo);
-				if (result != LibUsb.SUCCESS) 
-					throw new LibUsbException("Unable to claim interface", result);
-			}
-			interfaceClaimed = true;
-		}
-		catch(LibUsbException e)
-		{
-			cleanup();
-			throw e;
+			transport.open();
+			open = true;
+		} catch(Exception err) {
+			System.out.println("Info: "+this+" failed to open ("+err.toString()+")");
+			fault = err instanceof IOException ? (IOException) err : new IOException(err);
+			initialized.countDown();
+			closed.countDown();
+			throw fault;
 		}
-
-		
-		lpx = ((SCComponent)controller.getComponent(Identifier.Axis.X_FORCE));
-		lpy = ((SCComponent)controller.getComponent(Identifier.Axis.Y_FORCE));
-		rpx = ((SCComponent)controller.getComponent(Identifier.Axis.RX_FORCE));
-		rpy = ((SCComponent)controller.getComponent(Identifier.Axis.RY_FORCE));
-		grz = ((SCComponent)controller.getComponent(Identifier.Axis.RZ));
-		grx = ((SCComponent)controller.getComponent(Identifier.Axis.RX));
-		
-		mouseUpdater = new Timer(16, new ActionListener()
-		{
-			@Override
-			public void actionPerformed(ActionEvent e)
-			{
-				PointerInfo ptr = MouseInfo.getPointerInfo();
-				if(ptr != null)
-				{
-					Point mouse = ptr.getLocation();
-					synchronized (mouseOffset)
-					{
-						robot.mouseMove(mouse.x+mouseOffset.x, mouse.y-mouseOffset.y);
-						mouseOffset.x = 0;
-						mouseOffset.y = 0;
-					}
-				}
-			}
-		});
 	}
+	
+	/**Waits until the controller has been initialized by its worker, or cleaned up without being initialized.
+	 * @throws IOException If the controller has failed*/
+	public void awaitInit() throws IOException, InterruptedException {
+		initialized.await();
+		if(fault != null)
+			throw fault;
+	}
+	
 	public void init() {
 		try {
 			connected = device.isWired();
 			if(connected)
+			{
+				connects++;
+				record(SteamControllerRecording.TYPE_CONNECT);
 				doSetup();
+			}
 			else
 				doRequestCommStatus();
 		} catch(Exception err) {
 			System.out.println("Info: "+this+" failed to initialize ("+err.toString()+")");
-			synchronized (lock) {
-				if(err instanceof IOException)
-					fault = (IOException) err;
-				else
-					fault = new IOException(err);
-			}
+			errors++;
+			if(err instanceof IOException)
+				fault = (IOException) err;
+			else
+				fault = new IOException(err);
+		} finally {
+			initialized.countDown();
 		}
 	}
 
-	public boolean run() {
+	/**Reads and processes a report, unless the slot is backing off because it has been idle. 
+	 * Returns whether the controller is connected and was read.
+	 * @param timeout The longest time to wait for a report in milliseconds, normally {@link #POLL_TIMEOUT}.
+	 * 0 returns at once if no report is ready, which is only supported by transports other than {@link SteamControllerUsbTransport}
+	 * (libusb would wait forever), so it is meant for controllers that use asynchronous transfers on USB.*/
+	public boolean run(long timeout) {
 		if(fault != null)
 			return false;
+		//The buffer is free before the read, so a new configuration can be written now
+		updateConfig();
+		//Reports for synchronous transports are only written here, so the application never waits for them
+		if(!output.async)
+			output.flush();
+		long now = System.nanoTime();
+		if(nextPollNanos-now > 0)
+		{
+			skippedPolls++;
+			return false;
+		}
 		
 		try {
-			if(doInterruptTransfer(4L))
+			polls++;
+			boolean read = doInterruptTransfer(timeout);
+			long end = System.nanoTime();
+			readNanos += end-now;
+			if(read)
 			{
-				int bytes = transferred.get(0);
-				if(bytes == 64)
-				{
-					if(data.get(2) == SteamController.EV_INPUT_DATA)
-					{
-						if(connected)
-							processInputData();
-						//Note: Events received before wireless connect are not processed,
-						//because they are residue events with outdated state
-					}
-					else if(data.get(2) == SteamController.EV_WIRELESS_CONNECT)
-					{
-						//data[3] is 1, because size is 1 byte
-						if(!connected && data.get(4) == SteamController.STEAM_WIRELESS_CONNECT)
-						{
-							System.out.println("Info: "+this+" connected");
-							connected = true;
-							doSetup();//Need to (re)apply config here
-						}
-						else if (connected && data.get(4) == SteamController.STEAM_WIRELESS_DISCONNECT)
-						{
-							System.out.println("Info: "+this+" disconnected");
-							connected = false;
-							zero();
-						}
-					}
-					else if(data.get(2) == SteamController.EV_BATTERY_STATUS)
-					{
-						if(!connected)
-						{
-							//linux/drivers/hid/hid-steam does this, not sure if necessary
-							System.out.println("Info: "+this+" connected via battery status");
-							connected = true;
-							doSetup();
-						}
-					}
-					//else: unknown event
-				}
-				else
-					System.out.println("Info: Unusual transfer length: "+transferred.get(0));
+				receivedNanos = end;
+				pollBackoffNanos = 0;
+				processReport(transferred.get(0));
 			}
 			else
 			{
 				//(Timeout is a regular occurrence with wireless controllers)
+				timeouts++;
+				//A connected controller that was merely not ready yet is read again right away
+				if(timeout > 0 || !connected)
+					backoff(end);
 			}
+		} catch(Exception err) {
+			fail(err);
+		}
+		return connected;
+	}
 
+	/**Doubles the interval between reads after a timeout, up to {@link SteamControllerConfig#idlePollInterval} for an empty slot,
+	 * or {@link #MAX_CONNECTED_BACKOFF} for a connected controller that is idle. 
+	 * Any report, such as a wireless connect event, returns the slot to full rate.*/
+	protected void backoff(long now) {
+		long max = connected ? MAX_CONNECTED_BACKOFF : (long)(config.idlePollInterval*1E6);
+		pollBackoffNanos = Math.min(max, pollBackoffNanos == 0 ? POLL_TIMEOUT*1000000L : pollBackoffNanos*2);
+		nextPollNanos = now+pollBackoffNanos;
+	}
+
+	/**Returns the time in nanoseconds until {@link #run()} will read again, 0 if it is due, or Long.MAX_VALUE if it has failed.*/
+	public long getPollDelay(long now) {
+		if(fault != null)
+			return Long.MAX_VALUE;
+		return Math.max(0L, nextPollNanos-now);
+	}
+
+	/**Returns the poll statistics since the controller was created.*/
+	public SteamControllerPollStatistics getPollStatistics() {
+		return new SteamControllerPollStatistics(polls, skippedPolls, timeouts, readNanos, System.nanoTime()-statsStartNanos);
+	}
+
+	/**Returns whether this controller's reports are read with asynchronous transfers, rather than in {@link #run()}.*/
+	public boolean isAsync() {
+		return config.asyncTransfers > 0 && transport instanceof SteamControllerUsbTransport;
+	}
+
+	/**Submits the pool of asynchronous interrupt transfers for this controller's endpoint.
+	 * The given callback will be invoked by libusb's event handling whenever a transfer completes.
+	 * Completed transfers must be passed to {@link #transferCompleted(Transfer)} on the controller thread.
+	 * @see SteamController#PROP_ASYNC_TRANSFERS*/
+	public void submitTransfers(TransferCallback callback) {
+		if(fault != null)
+			return;
+		try {
+			((SteamControllerUsbTransport)transport).submitTransfers(config.asyncTransfers, callback, this);
 		} catch(Exception err) {
-			System.out.println("Info: "+this+" disconnected irregularly ("+err.toString()+")");
-			synchronized (lock) {
-				if(err instanceof IOException)
-					fault = (IOException) err;
-				else
-					fault = new IOException(err);
+			fail(err);
+		}
+	}
+
+	/**Processes a completed asynchronous transfer and resubmits it, unless the transfer was cancelled or failed.
+	 * Returns whether the controller is connected.*/
+	public boolean transferCompleted(Transfer transfer) {
+		SteamControllerUsbTransport usb = (SteamControllerUsbTransport)transport;
+		usb.transferCompleted(transfer);
+		try {
+			int status = transfer.status();
+			if(status == LibUsb.TRANSFER_COMPLETED)
+			{
+				if(fault == null)
+				{
+					receivedNanos = System.nanoTime();
+					ByteBuffer buffer = transfer.buffer();
+					data.put(buffer);
+					data.rewind();
+					buffer.rewind();
+					processReport(transfer.actualLength());
+				}
+			}
+			else if(status == LibUsb.TRANSFER_CANCELLED)
+				return connected;
+			else if(status != LibUsb.TRANSFER_TIMED_OUT)
+				throw new IOException("Asynchronous interrupt transfer failed: "+status);
+			
+			if(fault == null)
+			{
+				usb.submitTransfer(transfer);
+				updateConfig();
 			}
+		} catch(Exception err) {
+			fail(err);
 		}
 		return connected;
 	}
 
-	private void doRequestCommStatus() {
-		try {
-			data.put( 0, SteamController.STEAM_CMD_REQUEST_CONNECTION_STATUS);
-			doControlTransfer(250L);
-		} catch(IOException err) {
-			System.out.println("Info: Failed to request steam controller connection status:");
-			System.out.println(err.toString());
+	/**Cancels all submitted asynchronous transfers. 
+	 * The transfers are not freed until libusb has reported the cancellation, see {@link #hasPendingTransfers()}.*/
+	public void cancelTransfers() {
+		output.close();
+		if(transport instanceof SteamControllerUsbTransport)
+			((SteamControllerUsbTransport)transport).cancelTransfers();
+	}
+
+	/**Hands a new configuration to the controller thread, which applies it before it processes the next report.
+	 * The configuration must have the same components as the current one, see {@link SteamControllerConfig#hasSameComponents(SteamControllerConfig)}.*/
+	public void setConfig(SteamControllerConfig next) {
+		nextConfig.set(next);
+	}
+
+	/**Applies a configuration handed over by {@link #setConfig(SteamControllerConfig)}, if any. 
+	 * This must only be called by the controller thread, while {@link #data} is not holding a report.*/
+	protected void updateConfig() {
+		if(nextConfig.get() == null)
+			return;
+		SteamControllerConfig prev = config;
+		SteamControllerConfig next = nextConfig.getAndSet(null);
+		config = next;
+		if(connected)
+			writeChangedRegisters(prev, next);
+		if(next.applyConfiguration != prev.applyConfiguration || next.gyroMode != prev.gyroMode || 
+				next.estimateOrientation != prev.estimateOrientation || next.orientationGain != prev.orientationGain)
+			orientation = createOrientation(next);
+		if(next.asyncTransfers != prev.asyncTransfers || next.historySize != prev.historySize)
+			System.out.println("Info: "+this+" will apply the new asyncTransfers and historySize when it is restarted");
+		System.out.println("Info: "+this+" configuration updated");
+	}
+
+	/**Queues a register write for the registers that differ between the configurations, like {@link #doSetup()} does for all of them.*/
+	protected void writeChangedRegisters(SteamControllerConfig prev, SteamControllerConfig next) {
+		if(!next.applyConfiguration)
+		{
+			if(prev.applyConfiguration)
+			{
+				data.put( 0, SteamController.STEAM_CMD_DEFAULT_MAPPINGS);
+				output.queueReport(data);
+				data.put( 0, SteamController.STEAM_CMD_DEFAULT_MOUSE);
+				output.queueReport(data);
+			}
+			return;
+		}
+		if(!prev.applyConfiguration)
+		{
+			doSetup();
+			return;
 		}
+		data.put( 0, SteamController.STEAM_CMD_WRITE_REGISTER);
+		int i = 2;
+		i = putRegister(i, SteamController.STEAM_REG_GYRO_MODE, prev.gyroMode, next.gyroMode);
+		i = putRegister(i, SteamController.STEAM_REG_LSTICK_MODE, prev.leftStickMode, next.leftStickMode);
+		i = putRegister(i, SteamController.STEAM_REG_RPAD_MODE, prev.rightPadMode, next.rightPadMode);
+		i = putRegister(i, SteamController.STEAM_REG_TRACKBALL_OR_MARGIN, prev.trackballOrMargin, next.trackballOrMargin);
+		if(i == 2)
+			return;
+		data.put( 1, (byte)(i-2));//size (bytes)
+		output.queueReport(data);
 	}
 
-	private void zero() {
-		lastUpdateTimeNanos = System.nanoTime();
-		for(SCComponent c : components)
+	/**Puts the register write at the given position in {@link #data} if the value has changed, and returns the next position.*/
+	private int putRegister(int i, byte register, short prev, short next) {
+		if(prev == next)
+			return i;
+		data.put(i, register);
+		data.put(i+1, (byte)(next&0xFF));
+		data.put(i+2, (byte)(next>>>8));
+		return i+3;
+	}
+
+	/**Waits until the controller has released its device after being cleaned up, 
+	 * so that a replacement can open the same interface. Returns immediately if the controller was never opened.
+	 * @return False if the timeout elapsed first*/
+	public boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+		if(!opening)
+			return true;
+		return closed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**Stops the controller because its device has been removed. The application will see this as a failure when polling.
+	 * The controller must still be cleaned up once its transfers have been returned, see {@link #hasPendingTransfers()}.*/
+	public void remove() {
+		System.out.println("Info: "+this+" removed");
+		if(fault == null)
+			fault = new IOException("The device has been removed");
+		//The device is gone, so there is no point in resetting its mappings
+		connected = false;
+		cancelTransfers();
+	}
+
+	/**Returns whether any asynchronous transfers are still owned by libusb, including an output report in flight.*/
+	public boolean hasPendingTransfers() {
+		return output.isBusy() || (transport instanceof SteamControllerUsbTransport && 
+				((SteamControllerUsbTransport)transport).hasPendingTransfers());
+	}
+
+	/**Processes the report of the given length that has been placed in {@link #data}.*/
+	protected void processReport(int bytes) {
+		if(bytes == 64)
 		{
-			if(c instanceof SCButton)
+			if(data.get(2) == SteamController.EV_INPUT_DATA)
 			{
-				SCButton b = ((SCButton)c);
-				if(b.latestValue != 0)
+				if(connected)
 				{
-					addToClickQueue(b);
-					b.latestValue = 0;
+					record(SteamControllerRecording.TYPE_REPORT);
+					long start = System.nanoTime();
+					processInputData();
+					long end = System.nanoTime();
+					long t = end-start;
+					reports++;
+					processNanos += t;
+					if(t > maxProcessNanos)
+						maxProcessNanos = t;
+					if(end-rateWindowStart >= RATE_WINDOW_NANOS)
+					{
+						reportRate = (reports-rateWindowReports)*1E9/(end-rateWindowStart);
+						rateWindowReports = reports;
+						rateWindowStart = end;
+					}
 				}
+				//Note: Events received before wireless connect are not processed,
+				//because they are residue events with outdated state
 			}
+			else if(data.get(2) == SteamController.EV_WIRELESS_CONNECT)
+			{
+				//data[3] is 1, because size is 1 byte
+				if(!connected && data.get(4) == SteamController.STEAM_WIRELESS_CONNECT)
+				{
+					System.out.println("Info: "+this+" connected");
+					connected = true;
+					connects++;
+					record(SteamControllerRecording.TYPE_CONNECT);
+					doSetup();//Need to (re)apply config here
+				}
+				else if (connected && data.get(4) == SteamController.STEAM_WIRELESS_DISCONNECT)
+				{
+					System.out.println("Info: "+this+" disconnected");
+					connected = false;
+					disconnects++;
+					record(SteamControllerRecording.TYPE_DISCONNECT);
+					zero();
+				}
+			}
+			else if(data.get(2) == SteamController.EV_BATTERY_STATUS)
+			{
+				if(!connected)
+				{
+					//linux/drivers/hid/hid-steam does this, not sure if necessary
+					System.out.println("Info: "+this+" connected via battery status");
+					connected = true;
+					connects++;
+					record(SteamControllerRecording.TYPE_CONNECT);
+					doSetup();
+				}
+			}
+			//else: unknown event
 		}
+		else
+			System.out.println("Info: Unusual transfer length: "+bytes);
+	}
+
+	/**Starts recording the raw reports of this controller with the given controller number, or stops recording if the recorder is null.*/
+	public void setRecorder(SteamControllerRecorder recorder, int recorderId) {
+		this.recorderId = recorderId;
+		this.recorder = recorder;
+	}
+
+	private void record(byte type) {
+		SteamControllerRecorder r = recorder;
+		if(r == null)
+			return;
+		try {
+			r.record(clock, type, recorderId, type == SteamControllerRecording.TYPE_REPORT ? data : null);
+		} catch(IOException err) {
+			System.out.println("Info: "+this+" stopped recording ("+err.toString()+")");
+			recorder = null;
+		}
+	}
+
+	private void fail(Exception err) {
+		System.out.println("Info: "+this+" disconnected irregularly ("+err.toString()+")");
+		errors++;
+		if(err instanceof IOException)
+			fault = (IOException) err;
+		else
+			fault = new IOException(err);
+	}
+
+	private void doRequestCommStatus() {
+		data.put( 0, SteamController.STEAM_CMD_REQUEST_CONNECTION_STATUS);
+		output.queueReport(data);
+	}
+
+	private void zero() {
+		lastUpdateTimeNanos = clock.nanoTime();
 		Arrays.fill(lPadData, (byte)0);
 		Arrays.fill(lStickData, (byte)0);
 		lPadIsLatestData = true;
+		if(orientation != null)
+			orientation.reset();
+		decode();
+		diffButtons();
+		publish();
 
 
 
@@ -277,110 +565,265 @@ public class SteamControllerThreadTask
 		ry=0;
 	}
 
-	private void processInputData() {
-		synchronized (lock) {
-			lPadIsLatestData = (data.get(10)&8) != 0;
-			byte[] dst = lPadIsLatestData?lPadData:lStickData;
-			fetchData(dst);
+	protected void processInputData() {
+		lastUpdateTimeNanos = clock.nanoTime();
+		lPadIsLatestData = (data.get(10)&8) != 0;
+		byte[] dst = lPadIsLatestData?lPadData:lStickData;
+		fetchData(dst);
 
-			if((data.get(10)&128) == 0)
+		if((data.get(10)&128) == 0)
+		{
+			//lpad and stick are not used in conjunction
+			if(lPadIsLatestData)
 			{
-				//lpad and stick are not used in conjunction
-				if(lPadIsLatestData)
-				{
-					//Stick is not currently in use
-					lStickData[16] = 0;
-					lStickData[17] = 0;
-					lStickData[18] = 0;
-					lStickData[19] = 0;
-				}
-				else
-				{
-					//lpad is not currently in use
-					lPadData[10] &= ~(2|8);
-					lPadData[16] = 0;
-					lPadData[17] = 0;
-					lPadData[18] = 0;
-					lPadData[19] = 0;
-				}
+				//Stick is not currently in use
+				lStickData[16] = 0;
+				lStickData[17] = 0;
+				lStickData[18] = 0;
+				lStickData[19] = 0;
 			}
-			for(SCComponent c : (SCComponent[])components)
+			else
 			{
-				if(c instanceof SCButton)
-				{
-					SCButton b = ((SCButton)c);
-					float pv = b.pollFrom(lPadData, lStickData, dst);
-					if(pv != b.latestValue)
-					{
-						addToClickQueue(b);
-						b.latestValue = pv;
-					}
-				}
+				//lpad is not currently in use
+				lPadData[10] &= ~(2|8);
+				lPadData[16] = 0;
+				lPadData[17] = 0;
+				lPadData[18] = 0;
+				lPadData[19] = 0;
 			}
-			
-			if((config.gyroMouseX != 0 || config.gyroMouseY != 0) && (config.applyConfiguration && (config.gyroMode&SteamController.STEAM_GYRO_MODE_SEND_RAW_GYRO) != 0))
+		}
+		decode();
+		diffButtons();
+		
+		if((config.gyroMouseX != 0 || config.gyroMouseY != 0) && (config.applyConfiguration && (config.gyroMode&SteamController.STEAM_GYRO_MODE_SEND_RAW_GYRO) != 0))
+		{
+			SteamControllerPointer p = pointer;
+			int buttons = (dst[8]&0xFF) | ((dst[9]&0xFF)<<8) | ((dst[10]&0xFF)<<16) | ((dst[11]&0xFF)<<24);
+			if(p != null && (config.gyroMouseEnableMask == 0 || (buttons&config.gyroMouseEnableMask) != 0) &&
+					(buttons&config.gyroMouseDisableMask) == 0)
 			{
-				gz += (config.gyroMouseX*grz.pollFrom(lPadData, lStickData, dst)*1000L);
-				gx += (config.gyroMouseY*grx.pollFrom(lPadData, lStickData, dst)*1000L);
-				int buttons = (dst[8]&0xFF) | ((dst[9]&0xFF)<<8) | ((dst[10]&0xFF)<<16) | ((dst[11]&0xFF)<<24);
-				if((config.gyroMouseEnableMask == 0 || (buttons&config.gyroMouseEnableMask) != 0) &&
-						(buttons&config.gyroMouseDisableMask) == 0 && robot != null)
-				{
-					synchronized (mouseOffset)
-					{
-						if(!mouseUpdater.isRunning())
-							mouseUpdater.start();
-						mouseOffset.x += (int)gz;
-						mouseOffset.y += (int)gx;
-					}
-				}
-				gz = gz%1.0f;
-				gx = gx%1.0f;
-			}	
-			
-			lastUpdateTimeNanos = System.nanoTime();
+				p.move(config.gyroMouseX*decoded.axes[SteamControllerAxis.GYRO_Z.ordinal()]*1000.0f, 
+						-config.gyroMouseY*decoded.axes[SteamControllerAxis.GYRO_X.ordinal()]*1000.0f, lastUpdateTimeNanos);
+			}
+		}	
+		
+		publish();
+	}
+	
+	/**Steps through the haptic effects, and sends the haptic commands if they have changed. Once per haptic tick 
+	 * ({@link SteamControllerOutput#HAPTIC_TICK_NANOS}) the auto haptics are computed from the pad movement since the last tick, 
+	 * and the commands are sent anyway, so that the rumble set by the application decays and continuous haptics don't run out.
+	 * This is called by the worker on every pass, whether or not reports arrive, see {@link #getHapticDelay()}. 
+	 * It must only be called by the controller thread.*/
+	public void updateHaptics() {
+		if(!connected || fault != null)
+			return;
+		long now = clock.nanoTime();
+		boolean changed = haptics.update(now);
+		boolean tick = now-nextHapticNanos >= 0;
+		if(!changed && !tick)
+			return;
+		if(tick)
+		{
+			nextHapticNanos = now+SteamControllerOutput.HAPTIC_TICK_NANOS;
+			if(config.leftPadAutoHaptics)
+			{
+				float lx0 = decoded.axes[SteamControllerAxis.LPAD_X.ordinal()];
+				float ly0 = decoded.axes[SteamControllerAxis.LPAD_Y.ordinal()];
+				computeAutoHaptics(SteamController.STEAM_RUMBLER_LEFT, lx, ly, lx0, ly0, now-padTime);
+				lx = lx0;
+				ly = ly0;
+			}
+			else
+				zeroHaptics(SteamController.STEAM_RUMBLER_LEFT);
 
-			if(lastUpdateTimeNanos > padTime+(long)33E6)
+			if(config.rightPadAutoHaptics)
 			{
-				if(config.leftPadAutoHaptics)
-				{
-					float lx0 = lpx.pollFrom(lPadData, lStickData, dst);
-					float ly0 = lpy.pollFrom(lPadData, lStickData, dst);
-					computeAutoHaptics(SteamController.STEAM_RUMBLER_LEFT, 
-							lx, ly, lx0, ly0, lastUpdateTimeNanos-padTime);
-					lx = lx0;
-					ly = ly0;
-				}
-				else
-					zeroHaptics(SteamController.STEAM_RUMBLER_LEFT);
-				doVibration(SteamController.STEAM_RUMBLER_LEFT);
+				float rx1 = decoded.axes[SteamControllerAxis.RPAD_X.ordinal()];
+				float ry1 = decoded.axes[SteamControllerAxis.RPAD_Y.ordinal()];
+				computeAutoHaptics(SteamController.STEAM_RUMBLER_RIGHT, rx, ry, rx1, ry1, now-padTime);
+				rx = rx1;
+				ry = ry1;
+			}
+			else
+				zeroHaptics(SteamController.STEAM_RUMBLER_RIGHT);
+			padTime = now;
+		}
+		doVibration(SteamController.STEAM_RUMBLER_LEFT, now);
+		doVibration(SteamController.STEAM_RUMBLER_RIGHT, now);
+	}
+	
+	/**Returns the time in nanoseconds until {@link #updateHaptics()} has work to do: The next step of an effect, 
+	 * or the next haptic tick while anything is playing. Returns Long.MAX_VALUE if the rumblers are silent.*/
+	public long getHapticDelay() {
+		if(!connected || fault != null)
+			return Long.MAX_VALUE;
+		long now = clock.nanoTime();
+		long next = haptics.getNextStepNanos();
+		boolean playing = next != Long.MAX_VALUE || hapticIntensity[0] != 0 || hapticIntensity[1] != 0;
+		for(int i = 0; i<2 && !playing; i++)
+			playing = now-vibrationTimes.get(i) < (long)200E6 && vibration.get(i) != 0;
+		if(playing && nextHapticNanos-next < 0)
+			next = nextHapticNanos;
+		if(next == Long.MAX_VALUE)
+			return next;
+		return Math.max(0L, next-now);
+	}
 
-				if(config.rightPadAutoHaptics)
-				{
-					float rx1 = rpx.pollFrom(lPadData, lStickData, dst);
-					float ry1 = rpy.pollFrom(lPadData, lStickData, dst);
-					computeAutoHaptics(SteamController.STEAM_RUMBLER_RIGHT, 
-							rx, ry, rx1, ry1, lastUpdateTimeNanos-padTime);
-					rx = rx1;
-					ry = ry1;
-				}
-				else
-					zeroHaptics(SteamController.STEAM_RUMBLER_RIGHT);
-				doVibration(SteamController.STEAM_RUMBLER_RIGHT);
-				padTime = lastUpdateTimeNanos;
+	/**Decodes lPadData, lStickData and the latest data into {@link #decoded}, using the layout in {@link SteamControllerAxis}.
+	 * The left pad and stick data are multiplexed, so the latest data is only used for values that are in both.*/
+	protected void decode() {
+		byte[] latest = lPadIsLatestData?lPadData:lStickData;
+		float[] axes = decoded.axes;
+		for(SteamControllerAxis a : SteamControllerAxis.AXES)
+			axes[a.ordinal()] = a.decode(lPadData, lStickData, latest);
+		config.leftStickResponse.map(axes, SteamControllerAxis.STICK_X.ordinal(), SteamControllerAxis.STICK_Y.ordinal());
+		config.leftPadResponse.map(axes, SteamControllerAxis.LPAD_X.ordinal(), SteamControllerAxis.LPAD_Y.ordinal());
+		config.rightPadResponse.map(axes, SteamControllerAxis.RPAD_X.ordinal(), SteamControllerAxis.RPAD_Y.ordinal());
+		if(orientation != null)
+			orientation.update(axes, lastUpdateTimeNanos);
+		else if((config.gyroMode&SteamController.STEAM_GYRO_MODE_SEND_ORIENTATION) == 0)
+		{
+			//Not sent and not estimated, so report the identity rather than whatever is in those bytes
+			for(int a = SteamControllerAxis.ORIENTATION_W.ordinal(); a <= SteamControllerAxis.ORIENTATION_Z.ordinal(); a++)
+				axes[a] = 0.0f;
+		}
+		
+		int buttons = (latest[8]&0xFF) | ((latest[9]&0xFF)<<8) | ((latest[10]&0xFF)<<16);
+		//The left pad press is located at bit 17, but when lpad is not touched, 
+		//it duplicates the analog stick click for some reason!!
+		//Need to get value from lPadData
+		int lpPress = 1<<SteamControllerButton.LP_PRESS.bitIndex;
+		buttons = (buttons&~lpPress) | (((lPadData[10]&0xFF)<<16)&lpPress);
+		decoded.buttons = buttons&config.buttonMask;
+	}
+
+	/**Queues a click for each button that changed since the last call. 
+	 * The cost depends on the number of changed buttons, rather than the number of buttons.*/
+	protected void diffButtons() {
+		updateEventRing();
+		int changed = (decoded.buttons^buttons)&buttonComponentMask;
+		buttons = decoded.buttons;
+		while(changed != 0)
+		{
+			int bit = Integer.numberOfTrailingZeros(changed);
+			addButtonEvent(bit);
+			changed &= changed-1;
+		}
+	}
+
+	/**Applies a requested resize to the event ring, and sends any coalesced button changes if there is room for them.*/
+	protected void updateEventRing() {
+		int size = requestedEventQueueSize.getAndSet(0);
+		if(size > 0)
+			events = events.resize(size);
+		if(coalescedButtons != 0)
+			flushCoalescedButtons();
+	}
+
+	/**Returns whether the controller's own event reader has not read all the events that the ring holds.*/
+	protected boolean isEventRingFull(SteamControllerEventRing ring) {
+		return ring.head()-consumed >= ring.size();
+	}
+
+	/**Adds an event for the current value of the button with the given bit, 
+	 * or applies the overflow policy if the controller's own reader has fallen behind.*/
+	protected void addButtonEvent(int bit) {
+		SteamControllerEventRing ring = events;
+		if(coalescedButtons != 0 || isEventRingFull(ring))
+		{
+			switch(config.eventOverflow)
+			{
+			case SteamController.OVERFLOW_DROP_NEWEST:
+				droppedEvents++;
+				return;
+			case SteamController.OVERFLOW_COALESCE:
+				//Later changes must not overtake the coalesced ones, so they are coalesced as well until there is room
+				coalescedButtons |= 1<<bit;
+				coalescedEvents++;
+				return;
+			case SteamController.OVERFLOW_GROW:
+				if(ring.size() < config.maxEventQueueSize)
+					events = ring.resize(Math.min(config.maxEventQueueSize, ring.size()*2));
+				break;
+			default:
+				//Drop oldest: The readers detect and count the overwritten events themselves
+				break;
+			}
+		}
+		int value = (buttons>>>bit)&1;
+		queuedButtons = (queuedButtons&~(1<<bit)) | (value<<bit);
+		addEvent(buttonComponents[bit], value);
+	}
+
+	/**Adds one event for each coalesced button that ended up changed, or a press and release pair for each button 
+	 * that returned to its queued value, so that taps are not lost. Waits until there is room for all of them.*/
+	protected void flushCoalescedButtons() {
+		SteamControllerEventRing ring = events;
+		int needed = 2*Integer.bitCount(coalescedButtons);
+		if(ring.size()-(ring.head()-consumed) < needed && ring.head() != consumed)
+			return;
+		int pending = coalescedButtons;
+		int added = 0;
+		while(pending != 0)
+		{
+			int bit = Integer.numberOfTrailingZeros(pending);
+			pending &= pending-1;
+			int value = (buttons>>>bit)&1;
+			if(value == ((queuedButtons>>>bit)&1))
+			{
+				addEvent(buttonComponents[bit], 1-value);
+				added++;
+			}
+			addEvent(buttonComponents[bit], value);
+			added++;
+			queuedButtons = (queuedButtons&~(1<<bit)) | (value<<bit);
+		}
+		droppedEvents += coalescedEvents-added;
+		coalescedButtons = 0;
+		coalescedEvents = 0;
+	}
+
+	/**Copies the current input into the back buffer and hands it to the application.*/
+	protected void publish() {
+		float[] axes = decoded.axes;
+		int dirty = skippedDirtyAxes;
+		for(int i = 0; i<axes.length; i++)
+		{
+			if(axes[i] != publishedAxes[i])
+			{
+				dirty |= 1<<i;
+				publishedAxes[i] = axes[i];
 			}
 		}
+		decoded.dirtyAxes = dirty;
+		decoded.lastUpdateTimeNanos = lastUpdateTimeNanos;
+		decoded.generation = generation++;
+		decoded.receivedNanos = receivedNanos;
+		decoded.firstReceivedNanos = skippedReceivedNanos != 0 ? skippedReceivedNanos : receivedNanos;
+		states.get(stateIndex).set(decoded);
+		if(history != null)
+			history.add(decoded);
+		int back = states.publish(stateIndex);
+		stateIndex = back&SteamControllerStateBuffer.INDEX_MASK;
+		//If the application never saw the previous state, its changes must be carried over to the next one
+		skippedDirtyAxes = (back&SteamControllerStateBuffer.FRESH) != 0 ? states.get(stateIndex).dirtyAxes : 0;
+		skippedReceivedNanos = (back&SteamControllerStateBuffer.FRESH) != 0 ? states.get(stateIndex).firstReceivedNanos : 0;
 	}
 
-	private void doVibration(byte rumblerID) {
+	/**Sends the strongest of the rumble set by the application, the effects and the auto haptics.*/
+	private void doVibration(byte rumblerID, long now) {
 		int vibe;
-		if(vibrationTimes[rumblerID] < lastUpdateTimeNanos-(long)200E6)
+		long age = now-vibrationTimes.get(rumblerID);
+		if(age < 0 || age >= (long)200E6)
 			vibe = 0;
 		else
-			vibe = (int) (0xFFFF * 
-					vibration[rumblerID] * 
-					(1.0 - ((lastUpdateTimeNanos-vibrationTimes[rumblerID])/200L)/1E6));
-		if(vibe > hapticIntensity[rumblerID])
+			vibe = (int) (0xFFFF * Float.intBitsToFloat(vibration.get(rumblerID)) * (1.0f - (int)(age/1000L)/200000.0f));
+		long effect = haptics.mix(rumblerID, now);
+		int effectIntensity = (int)(effect >>> 32);
+		if(effectIntensity > vibe && effectIntensity > hapticIntensity[rumblerID])
+			doForceFeedback(rumblerID, effectIntensity, (int)(effect >>> 16) & 0xFFFF, (int)effect & 0xFFFF);
+		else if(vibe > hapticIntensity[rumblerID])
 			doForceFeedback(rumblerID, vibe, 0xB000, 0x0002);
 		else
 			doForceFeedback(rumblerID, hapticIntensity[rumblerID], hapticPeriod[rumblerID], hapticCount[rumblerID]);
@@ -434,7 +877,7 @@ public class SteamControllerThreadTask
 
 	public void cleanup()
 	{
-		if(interfaceClaimed)
+		if(open)
 		{
 			if(connected)
 			{
@@ -449,32 +892,12 @@ public class SteamControllerThreadTask
 				}
 				connected = false;
 			}
-
-			int result = LibUsb.releaseInterface(handle, device.interfaceNo);
-			if (result != LibUsb.SUCCESS)
-				System.out.println("Info: Unable to release interface: "+result+" (0x"+Integer.toHexString(result)+")");
-
-			interfaceClaimed = false;
-		}
-
-		// Attach the kernel driver again if needed
-		if (kernelDriver)
-		{
-			int result = LibUsb.attachKernelDriver(handle, device.interfaceNo);
-			if (result != LibUsb.SUCCESS) 
-				System.out.println("Info: Unable to re-attach kernel driver: "+result+" (0x"+Integer.toHexString(result)+")");
-			kernelDriver = false;
-		}
-
-		if(handle != null)
-		{
-			LibUsb.close(handle);
-			handle = null;
+			transport.close();
+			open = false;
 		}
 		
-		if(mouseUpdater != null)
-			mouseUpdater.stop();
-		
+		initialized.countDown();
+		closed.countDown();
 		System.out.println("Info: "+this+" cleaned up");
 	}
 
@@ -484,115 +907,90 @@ public class SteamControllerThreadTask
 		data.rewind();
 	}
 
-	private void addToClickQueue(SCButton b) {
-		clickQueue[clickQueueHead] = b;
-		clickQueueHead = (clickQueueHead+1)%clickQueue.length;
-		if(clickQueueHead == clickQueueTail)
-			clickQueueTail = (clickQueueTail+1)%clickQueue.length;//Discarded event
+	private void addEvent(int component, float value) {
+		events.add(component, value, lastUpdateTimeNanos);
 	}
 
 	protected void doSetup()
 	{
 		if(!config.applyConfiguration)
 			return;
-		try {
-			data.put( 0, SteamController.STEAM_CMD_CLEAR_MAPPINGS);
-			doControlTransfer(250L);
+		//Note: The reports are queued ahead of any haptics, and sent in order
+		data.put( 0, SteamController.STEAM_CMD_CLEAR_MAPPINGS);
+		output.queueReport(data);
 
-			data.put( 0, SteamController.STEAM_CMD_WRITE_REGISTER);
-			data.put( 1, (byte)12);//size (bytes)
+		data.put( 0, SteamController.STEAM_CMD_WRITE_REGISTER);
+		data.put( 1, (byte)12);//size (bytes)
 
-			data.put( 2, SteamController.STEAM_REG_GYRO_MODE);
-			data.put( 3, (byte)(config.gyroMode&0xFF));
-			data.put( 4, (byte)(config.gyroMode>>>8));
+		data.put( 2, SteamController.STEAM_REG_GYRO_MODE);
+		data.put( 3, (byte)(config.gyroMode&0xFF));
+		data.put( 4, (byte)(config.gyroMode>>>8));
 
-			data.put( 5, SteamController.STEAM_REG_LSTICK_MODE);
-			data.put( 6, (byte)(config.leftStickMode&0xFF));
-			data.put( 7, (byte)(config.leftStickMode>>>8));
+		data.put( 5, SteamController.STEAM_REG_LSTICK_MODE);
+		data.put( 6, (byte)(config.leftStickMode&0xFF));
+		data.put( 7, (byte)(config.leftStickMode>>>8));
 
-			data.put( 8, SteamController.STEAM_REG_RPAD_MODE);
-			data.put( 9, (byte)(config.rightPadMode&0xFF));
-			data.put(10, (byte)(config.rightPadMode>>>8));
+		data.put( 8, SteamController.STEAM_REG_RPAD_MODE);
+		data.put( 9, (byte)(config.rightPadMode&0xFF));
+		data.put(10, (byte)(config.rightPadMode>>>8));
 
-			data.put(11, SteamController.STEAM_REG_TRACKBALL_OR_MARGIN);
-			data.put(12, (byte)(config.trackballOrMargin&0xFF));
-			data.put(13, (byte)(config.trackballOrMargin>>>8));
+		data.put(11, SteamController.STEAM_REG_TRACKBALL_OR_MARGIN);
+		data.put(12, (byte)(config.trackballOrMargin&0xFF));
+		data.put(13, (byte)(config.trackballOrMargin>>>8));
 
-			doControlTransfer(250L);
-		} catch (IOException err) {
-			System.out.println("Info: Failed to apply custom steam controller configuration: ");
-			System.out.println(err.getMessage());
-		}
+		output.queueReport(data);
 	}
 
+	/**Queues a haptic command. Commands that have not been sent yet are replaced, see {@link SteamControllerOutput}.*/
 	public void doForceFeedback(byte rumblerID, int intensity, int period, int count)
 	{
-		try {
-			data.put(0, SteamController.STEAM_CMD_FORCEFEEDBAK);
-			data.put(1, (byte)0x07);//Size in bytes
-			data.put(2, (byte)rumblerID);
-			data.put(3, (byte)(intensity&0xFF));
-			data.put(4, (byte)(intensity>>>8));
-			data.put(5, (byte)(period&0xFF));//(microseconds)
-			data.put(6, (byte)(period>>>8));
-			data.put(7, (byte)(count&0xFF));//(number of pulses)
-			data.put(8, (byte)(count>>>8));
-			doControlTransfer(1L);
-		} catch (IOException err) {
-			System.out.println("Info: Failed to send force feedback message: ");
-			System.out.println(err.getMessage());
-		}
+		output.queueHaptic(rumblerID, intensity, period, count);
 	}
 
 	protected boolean doInterruptTransfer(long timeout) throws IOException
 	{
-		int result = LibUsb.interruptTransfer(handle, device.endpoint, data, transferred, timeout);
-		if(result == LibUsb.ERROR_TIMEOUT)
-			return false;
-		if(result != 0)
-			throw new IOException("Interrupt transfer failed: "+result+" (0x"+Integer.toHexString(result)+")");
-		return true;
+		return transport.read(data, transferred, timeout);
 	}
 
 	public void doControlTransfer(long timeout) throws IOException
 	{
-		int result = LibUsb.controlTransfer(handle, (byte) (LibUsb.REQUEST_TYPE_CLASS|LibUsb.RECIPIENT_INTERFACE), 
-				SteamController.HID_REQ_SET_REPORT, (short)0x0300, device.controlIndex, data, timeout);
-		if(result != data.capacity())
-		{
-			throw new IOException("Control transfer failed: "+result+" (0x"+Integer.toHexString(result)+")");
-		}
+		transport.write(data, timeout);
 	}
 
+	/**Called by the application to take the clicks and the latest snapshot. 
+	 * This never blocks the controller thread, and does nothing if there is no new input.*/
 	public void poll(SteamControllerData data) throws IOException {
-		synchronized (lock) {
-			while(clickQueueHead != clickQueueTail)
-			{
-				SCButton b = clickQueue[clickQueueTail];
-				clickQueueTail = (clickQueueTail+1)%clickQueue.length;
-				data.clickQueue.add(b);
-			}
-			System.arraycopy(lPadData, 0, data.lPadData, 0, 64);
-			System.arraycopy(lStickData, 0, data.lStickData, 0, 64);
-			data.latestData = lPadIsLatestData?data.lPadData:data.lStickData;
-			data.lastUpdateTimeNanos = lastUpdateTimeNanos;
-			if(fault != null)
-				throw fault;
+		//Note: The state is taken first. The controller thread publishes the events before the state,
+		//so the reader then sees at least the events up to that state, and the state is never ahead of the events.
+		int front = states.acquire(data.stateIndex);
+		data.events.update();
+		if(front != data.stateIndex)
+		{
+			data.stateIndex = front;
+			data.state = states.get(front);
+			data.dirtyAxes |= data.state.dirtyAxes;
+			//The state and the events up to it are visible to the application from now on
+			long now = System.nanoTime();
+			stateLatency.record(now-data.state.receivedNanos);
+			eventLatency.record(now-data.state.firstReceivedNanos);
 		}
+		if(fault != null)
+			throw fault;
 	}
 
 	public void rumble(int rumblerID, float intensity) {
-		synchronized (lock) {
-			vibration[rumblerID] = intensity;
-			vibrationTimes[rumblerID] = System.nanoTime();
-		}
+		//Note: The time is written last, the controller thread reads it first
+		vibration.set(rumblerID, Float.floatToIntBits(intensity));
+		vibrationTimes.set(rumblerID, clock.nanoTime());
+		//Queue it right away, the controller thread takes care of the decay. 
+		//This never waits for I/O, synchronous transports are written by the controller thread.
+		if(connected)
+			doForceFeedback((byte)rumblerID, (int)(0xFFFF*Math.max(0.0f, Math.min(1.0f, intensity))), 0xB000, 0x0002);
 	}
 
+	/**Requests a new size for the event ring. The controller thread replaces the ring before it adds the next event,
+	 * and copies the events that have not been read yet, as many as fit.*/
 	public void setEventQueueSize(int size) {
-		synchronized (lock) {
-			clickQueue = new SCButton[size];
-			clickQueueHead = 0;
-			clickQueueTail = 0;
-		}
+		requestedEventQueueSize.set(Math.max(1, size));
 	}
 }
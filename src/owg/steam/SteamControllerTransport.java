@@ -0,0 +1,29 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**Interface for the USB operations that are performed on behalf of a single Steam Controller.
+ * All methods except {@link #open()} are called on the controller thread only.
+ * @see SteamControllerUsbTransport
+ * @see SteamControllerSimulatedTransport*/
+public interface SteamControllerTransport
+{
+	// Notice: Implementations must avoid any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	/**Opens the device and claims the controller's interface. 
+	 * If this fails, then the transport has already released any resources it acquired.*/
+	public void open() throws IOException;
+	
+	/**Reads the next interrupt report into the 64 byte buffer and stores the number of bytes at index 0 of transferred.
+	 * @return Whether a report was read, false if the timeout expired first.*/
+	public boolean read(ByteBuffer data, IntBuffer transferred, long timeout) throws IOException;
+	
+	/**Writes the 64 byte buffer to the controller as a feature report (HID SET_REPORT control transfer).*/
+	public void write(ByteBuffer data, long timeout) throws IOException;
+	
+	/**Releases the interface and closes the device. This is not called if {@link #open()} failed.*/
+	public void close();
+}
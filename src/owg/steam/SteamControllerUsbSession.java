@@ -0,0 +1,188 @@
+package owg.steam;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.usb4java.Device;
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+
+/**Device level libusb session that is shared by the controllers on one USB device.
+ * A wireless dongle exposes four controller slots on separate interfaces, which are all opened through a single {@link DeviceHandle}.
+ * Each {@link SteamControllerUsbTransport} acquires the session when it is opened, and claims its own interface on the shared handle.
+ * The handle is closed when the last transport releases the session.<br>
+ * <br>
+ * The session is the libusb callback for all asynchronous transfers on the device:<br>
+ * Interrupt transfers are routed to the slot that owns their endpoint. Their buffers are cut from blocks of direct memory
+ * that are shared by all slots, rather than allocated one report at a time.<br>
+ * Feature reports of all slots go through the device's control endpoint, so they are sent one at a time,
+ * in the order the slots submitted them, and a slot that writes often can not starve the others.*/
+public class SteamControllerUsbSession implements TransferCallback
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+
+	/**Size of each block of report buffers, in reports*/
+	protected static final int BUFFER_BLOCK = 16;
+
+	public final Device device;
+
+	protected DeviceHandle handle;
+	/**Number of transports that have acquired the handle*/
+	protected int users = 0;
+
+	/**Open transports, indexed by the number of their interrupt endpoint*/
+	protected final AtomicReferenceArray<SteamControllerUsbTransport> slots = new AtomicReferenceArray<SteamControllerUsbTransport>(16);
+
+	/**Block that report buffers are currently cut from, guarded by this*/
+	protected ByteBuffer bufferBlock;
+
+	protected final Object writeLock = new Object();
+	/**Feature reports waiting for the control endpoint, guarded by writeLock*/
+	protected final ArrayDeque<Transfer> writeQueue = new ArrayDeque<Transfer>();
+	/**Whether a feature report is on the control endpoint, guarded by writeLock*/
+	protected boolean writing = false;
+
+	public SteamControllerUsbSession(Device device)
+	{
+		this.device = device;
+	}
+
+	/**Returns the shared handle, opening the device if this is the first user.
+	 * Each successful call must be matched by a call to {@link #release()}.*/
+	public synchronized DeviceHandle acquire() throws LibUsbException
+	{
+		if(users == 0)
+		{
+			//Note: Failed handle open needs no cleanup
+			DeviceHandle h = new DeviceHandle();
+			int result = LibUsb.open(device, h);
+			if (result != LibUsb.SUCCESS)
+				throw new LibUsbException("Unable to open USB device", result);
+			handle = h;
+		}
+		users++;
+		return handle;
+	}
+
+	/**Releases the shared handle, closing the device if this was the last user.*/
+	public synchronized void release()
+	{
+		if(users == 0)
+			return;
+		users--;
+		if(users == 0)
+		{
+			LibUsb.close(handle);
+			handle = null;
+			bufferBlock = null;
+		}
+	}
+
+	/**Returns the number of transports that currently hold the handle.*/
+	public synchronized int getUsers()
+	{
+		return users;
+	}
+
+	/**Makes the transport the receiver of the interrupt transfers on its endpoint.*/
+	protected void register(SteamControllerUsbTransport slot)
+	{
+		slots.set(slot.device.endpoint&0x0F, slot);
+	}
+
+	/**Stops routing interrupt transfers to the transport.*/
+	protected void unregister(SteamControllerUsbTransport slot)
+	{
+		slots.compareAndSet(slot.device.endpoint&0x0F, slot, null);
+	}
+
+	/**Returns a direct buffer for one 64 byte report, cut from the current block.*/
+	protected synchronized ByteBuffer allocateBuffer()
+	{
+		if(bufferBlock == null || bufferBlock.remaining() < 64)
+			bufferBlock = ByteBuffer.allocateDirect(64*BUFFER_BLOCK);
+		bufferBlock.limit(bufferBlock.position()+64);
+		ByteBuffer r = bufferBlock.slice();
+		bufferBlock.position(bufferBlock.limit());
+		bufferBlock.limit(bufferBlock.capacity());
+		return r;
+	}
+
+	/**Queues a filled control transfer, which is submitted once the control endpoint is free.
+	 * Its user data must be the transport it belongs to, which is notified when it completes.*/
+	protected void submitWrite(Transfer t)
+	{
+		synchronized(writeLock)
+		{
+			writeQueue.add(t);
+		}
+		pumpWrites();
+	}
+
+	/**Withdraws the control transfer if it is still waiting, or cancels it if it has been submitted.*/
+	protected void cancelWrite(Transfer t)
+	{
+		boolean withdrawn;
+		synchronized(writeLock)
+		{
+			withdrawn = writeQueue.remove(t);
+		}
+		if(withdrawn)
+			((SteamControllerUsbTransport)t.userData()).writeCompleted(t, LibUsb.TRANSFER_CANCELLED);
+		else
+			LibUsb.cancelTransfer(t);
+	}
+
+	/**Submits the next waiting control transfer, if the control endpoint is free.*/
+	protected void pumpWrites()
+	{
+		while(true)
+		{
+			Transfer next;
+			synchronized(writeLock)
+			{
+				if(writing)
+					return;
+				next = writeQueue.poll();
+				if(next == null)
+					return;
+				writing = true;
+			}
+			int result = LibUsb.submitTransfer(next);
+			if(result == LibUsb.SUCCESS)
+				return;
+			synchronized(writeLock)
+			{
+				writing = false;
+			}
+			System.out.println("Info: Failed to submit control transfer: "+result+" (0x"+Integer.toHexString(result)+")");
+			((SteamControllerUsbTransport)next.userData()).writeCompleted(next, LibUsb.TRANSFER_ERROR);
+		}
+	}
+
+	/**Called by libusb's event handling when a transfer on the device completes, on whichever thread handles events.*/
+	@Override
+	public void processTransfer(Transfer transfer)
+	{
+		if((transfer.endpoint()&0x0F) == 0)
+		{
+			synchronized(writeLock)
+			{
+				writing = false;
+			}
+			((SteamControllerUsbTransport)transfer.userData()).writeCompleted(transfer, transfer.status());
+			pumpWrites();
+			return;
+		}
+		SteamControllerUsbTransport slot = slots.get(transfer.endpoint()&0x0F);
+		if(slot != null)
+			slot.readCompleted(transfer);
+		else
+			System.out.println("Info: Dropped a transfer for endpoint "+(transfer.endpoint()&0x0F)+" with no open slot");
+	}
+}
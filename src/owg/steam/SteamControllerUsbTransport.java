@@ -0,0 +1,257 @@
+package owg.steam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.usb4java.DeviceHandle;
+import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+
+/**Transport that performs Steam Controller I/O with libusb. 
+ * The device handle is obtained from a {@link SteamControllerUsbSession}, which may be shared with the other slots on the same device.
+ * In addition to blocking reads, this transport supports reading reports with a pool of asynchronous transfers.
+ * Asynchronous transfers complete through the session, which routes them back to this transport.*/
+public class SteamControllerUsbTransport implements SteamControllerTransport
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	public final SteamControllerDevice device;
+	public final SteamControllerUsbSession session;
+	
+	/**The session's handle while this transport is open, or null*/
+	protected DeviceHandle handle;
+	protected boolean kernelDriver;
+	protected boolean interfaceClaimed;
+
+	/**Pool of asynchronous interrupt transfers, or null if synchronous transfers are used*/
+	protected Transfer[] transfers;
+	/**Number of asynchronous transfers currently owned by libusb*/
+	protected int pendingTransfers = 0;
+	protected boolean cancelled = false;
+	/**Receives the completed asynchronous interrupt transfers*/
+	protected TransferCallback readCallback;
+	/**Asynchronous control transfer for {@link #submitWrite(ByteBuffer, SteamControllerOutput)}, allocated on first use*/
+	protected Transfer writeTransfer;
+	/**Receives the completion of the control transfer*/
+	protected SteamControllerOutput writer;
+	
+	/**Creates a transport with its own session, for a device that has only one controller.*/
+	public SteamControllerUsbTransport(SteamControllerDevice device)
+	{
+		this(device, new SteamControllerUsbSession(device.device));
+	}
+
+	/**Creates a transport that opens the device through the given session, which may be shared by several transports.*/
+	public SteamControllerUsbTransport(SteamControllerDevice device, SteamControllerUsbSession session)
+	{
+		this.device = device;
+		this.session = session;
+	}
+
+	@Override
+	public void open() throws LibUsbException
+	{
+		//Note: Failed session acquire needs no cleanup
+		handle = session.acquire();
+
+		try {
+			// Check if kernel driver must be detached
+			boolean detach =  LibUsb.kernelDriverActive(handle, device.interfaceNo) == 1;
+			//Note: It is recommended to check the value of
+			//LibUsb.hasCapability(LibUsb.CAP_SUPPORTS_DETACH_KERNEL_DRIVER),
+			//but this always returns false (even if the function works)
+
+			// Detach the kernel driver
+			if (detach)
+			{
+				int result = LibUsb.detachKernelDriver(handle,  device.interfaceNo);
+				if (result != LibUsb.SUCCESS) 
+					throw new LibUsbException("Unable to detach kernel driver", result);
+			}
+			kernelDriver = detach;
+			
+			{
+				int result = LibUsb.claimInterface(handle, device.interfaceNo);
+				if (result != LibUsb.SUCCESS) 
+					throw new LibUsbException("Unable to claim interface", result);
+			}
+			interfaceClaimed = true;
+			session.register(this);
+		}
+		catch(LibUsbException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean read(ByteBuffer data, IntBuffer transferred, long timeout) throws IOException
+	{
+		int result = LibUsb.interruptTransfer(handle, device.endpoint, data, transferred, timeout);
+		if(result == LibUsb.ERROR_TIMEOUT)
+			return false;
+		if(result != 0)
+			throw new IOException("Interrupt transfer failed: "+result+" (0x"+Integer.toHexString(result)+")");
+		return true;
+	}
+
+	@Override
+	public void write(ByteBuffer data, long timeout) throws IOException
+	{
+		int result = LibUsb.controlTransfer(handle, (byte) (LibUsb.REQUEST_TYPE_CLASS|LibUsb.RECIPIENT_INTERFACE), 
+				SteamController.HID_REQ_SET_REPORT, (short)0x0300, device.controlIndex, data, timeout);
+		if(result != data.capacity())
+		{
+			throw new IOException("Control transfer failed: "+result+" (0x"+Integer.toHexString(result)+")");
+		}
+	}
+
+	/**Submits the 64 byte buffer to the controller as a feature report with an asynchronous control transfer.
+	 * Only one write may be submitted at a time. The session sends it when the device's control endpoint is free,
+	 * and the output is notified from libusb's event handling when the write completes.
+	 * @see SteamControllerOutput*/
+	public void submitWrite(ByteBuffer data, SteamControllerOutput output)
+	{
+		if(writeTransfer == null)
+			writeTransfer = LibUsb.allocTransfer();
+		ByteBuffer buffer = writeTransfer.buffer();
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect(LibUsb.CONTROL_SETUP_SIZE+64);
+		buffer.clear();
+		LibUsb.fillControlSetup(buffer, (byte) (LibUsb.REQUEST_TYPE_CLASS|LibUsb.RECIPIENT_INTERFACE), 
+				SteamController.HID_REQ_SET_REPORT, (short)0x0300, device.controlIndex, (short)64);
+		for(int i = 0; i<64; i++)
+			buffer.put(LibUsb.CONTROL_SETUP_SIZE+i, data.get(i));
+		LibUsb.fillControlTransfer(writeTransfer, handle, buffer, session, this, 250L);
+		writer = output;
+		session.submitWrite(writeTransfer);
+	}
+	
+	/**Cancels the write submitted with {@link #submitWrite(ByteBuffer, SteamControllerOutput)}, if it is still in progress.*/
+	public void cancelWrite()
+	{
+		if(writeTransfer != null)
+			session.cancelWrite(writeTransfer);
+	}
+	
+	/**Called by the session when the control transfer has completed, failed to submit, or was withdrawn before it was submitted.*/
+	protected void writeCompleted(Transfer t, int status)
+	{
+		writer.completed(status);
+	}
+	
+	/**Called by the session when an interrupt transfer on this transport's endpoint has completed.*/
+	protected void readCompleted(Transfer t)
+	{
+		readCallback.processTransfer(t);
+	}
+
+	/**Allocates and submits a pool of asynchronous interrupt transfers on the controller's endpoint.
+	 * The given callback will be invoked by libusb's event handling whenever a transfer completes.*/
+	public void submitTransfers(int count, TransferCallback callback, Object userData) throws IOException
+	{
+		readCallback = callback;
+		transfers = new Transfer[count];
+		for(int i = 0; i<transfers.length; i++)
+		{
+			Transfer t = LibUsb.allocTransfer();
+			//Timeout 0: The transfer stays submitted until a report arrives
+			LibUsb.fillInterruptTransfer(t, handle, device.endpoint, session.allocateBuffer(), session, userData, 0L);
+			transfers[i] = t;
+			submitTransfer(t);
+		}
+	}
+
+	/**Must be called when libusb reports that a transfer has completed, before the transfer is resubmitted.*/
+	public void transferCompleted(Transfer t)
+	{
+		pendingTransfers--;
+	}
+
+	/**Resubmits a completed transfer, unless the transfers have been cancelled.*/
+	public void submitTransfer(Transfer t) throws IOException
+	{
+		if(cancelled)
+			return;
+		int result = LibUsb.submitTransfer(t);
+		if(result != LibUsb.SUCCESS)
+			throw new IOException("Failed to submit interrupt transfer: "+result+" (0x"+Integer.toHexString(result)+")");
+		pendingTransfers++;
+	}
+
+	/**Cancels all submitted asynchronous transfers. 
+	 * The transfers are not freed until libusb has reported the cancellation, see {@link #hasPendingTransfers()}.*/
+	public void cancelTransfers()
+	{
+		cancelled = true;
+		if(transfers == null)
+			return;
+		for(Transfer t : transfers)
+		{
+			if(t != null)
+				LibUsb.cancelTransfer(t);
+		}
+	}
+
+	/**Returns whether any asynchronous transfers are still owned by libusb.*/
+	public boolean hasPendingTransfers()
+	{
+		return pendingTransfers > 0;
+	}
+
+	@Override
+	public void close()
+	{
+		session.unregister(this);
+		if(interfaceClaimed)
+		{
+			int result = LibUsb.releaseInterface(handle, device.interfaceNo);
+			if (result != LibUsb.SUCCESS)
+				System.out.println("Info: Unable to release interface: "+result+" (0x"+Integer.toHexString(result)+")");
+
+			interfaceClaimed = false;
+		}
+
+		// Attach the kernel driver again if needed
+		if (kernelDriver)
+		{
+			int result = LibUsb.attachKernelDriver(handle, device.interfaceNo);
+			if (result != LibUsb.SUCCESS) 
+				System.out.println("Info: Unable to re-attach kernel driver: "+result+" (0x"+Integer.toHexString(result)+")");
+			kernelDriver = false;
+		}
+
+		if(transfers != null)
+		{
+			if(pendingTransfers > 0)
+				System.out.println("Info: "+this+" leaking "+pendingTransfers+" uncancelled transfers");
+			else
+			{
+				for(Transfer t : transfers)
+				{
+					if(t != null)
+						LibUsb.freeTransfer(t);
+				}
+			}
+			transfers = null;
+		}
+
+		if(writeTransfer != null)
+		{
+			LibUsb.freeTransfer(writeTransfer);
+			writeTransfer = null;
+		}
+
+		if(handle != null)
+		{
+			// The handle is closed when the last slot on the device releases it
+			session.release();
+			handle = null;
+		}
+	}
+}
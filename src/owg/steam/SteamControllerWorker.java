@@ -0,0 +1,293 @@
+package owg.steam;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.usb4java.Context;
+import org.usb4java.LibUsb;
+import org.usb4java.Transfer;
+import org.usb4java.TransferCallback;
+
+/**Loop that performs the I/O for a group of controllers. Each worker runs on its own thread, see {@link SteamControllerExecutor}.<br>
+ * Asynchronous transfers complete during libusb's event handling, on whichever thread handles events,
+ * so all controllers that use asynchronous transfers must be in the same worker, which is the only worker that handles events.
+ * Output reports (see {@link SteamControllerOutput}) may be completed by that worker on behalf of other workers.<br>
+ * Controllers can be added and removed while the worker is running, see {@link #attach(SteamControllerThreadTask)}.*/
+public class SteamControllerWorker implements Runnable, TransferCallback
+{
+	// Notice: This class avoids any references to SteamController or SteamControllerPlugin,
+	// so that the controller thread will not keep the plugin alive if the application stops using it.
+	
+	/**Calls Thread.onSpinWait if it is available (Java 9 and later), otherwise does nothing. 
+	 * This is chosen once, so the spin loop does not go through reflection.*/
+	protected static final Runnable spinWait = newSpinWait();
+	
+	/**Returns a {@link SpinWait} if Thread.onSpinWait is available, or a Runnable that does nothing.*/
+	protected static Runnable newSpinWait()
+	{
+		try
+		{
+			Thread.class.getMethod("onSpinWait");
+			//Loaded by name, so the method handle API is never touched on JVMs that don't have it
+			return (Runnable) Class.forName(SteamControllerWorker.class.getName()+"$SpinWait").newInstance();
+		} catch(Throwable e)
+		{
+			return new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					//Just spin
+				}
+			};
+		}
+	}
+	
+	/**Calls Thread.onSpinWait through a constant method handle, which the JIT compiles to a direct call.*/
+	protected static class SpinWait implements Runnable
+	{
+		protected static final MethodHandle onSpinWait;
+		static
+		{
+			try
+			{
+				onSpinWait = MethodHandles.publicLookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+			} catch(Exception e)
+			{
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				onSpinWait.invokeExact();
+			} catch(Throwable e)
+			{
+				//Just spin
+			}
+		}
+	}
+	
+	public final Context context;
+	/**The controllers served by this worker. This is only modified by the worker's own thread.*/
+	protected SteamControllerThreadTask[] controllerTasks;
+	/**Whether to busy-wait instead of sleeping or blocking when there is nothing to do*/
+	public final boolean spin;
+	/**Whether this worker handles libusb events. This must be true for exactly one worker if libusb is used.*/
+	public boolean handleEvents = false;
+	public volatile boolean alive = true;
+	/**Longest time to sleep when there is nothing to do, in nanoseconds*/
+	protected static final long IDLE_SLEEP = (long)50E6;
+	/**Longest time to wait for a report from a synchronous controller, in milliseconds. 
+	 * This is 0 when spinning, since USB controllers then use asynchronous transfers, see {@link SteamControllerConfig#asyncTransfers}.*/
+	protected final long readTimeout;
+	
+	/**Asynchronous transfers that have been completed by libusb, but not yet processed by this thread. 
+	 * A synchronous transfer on another worker's thread also handles libusb events, 
+	 * so transfers may be completed on any thread.*/
+	protected final ConcurrentLinkedQueue<Transfer> completedTransfers = new ConcurrentLinkedQueue<Transfer>();
+	
+	/**Controllers waiting to be added or removed by the worker's thread*/
+	protected final ConcurrentLinkedQueue<SteamControllerThreadTask> attached = new ConcurrentLinkedQueue<SteamControllerThreadTask>(), 
+			detached = new ConcurrentLinkedQueue<SteamControllerThreadTask>();
+	/**Removed controllers that are waiting for libusb to give up their transfers before they can be cleaned up*/
+	protected final ArrayList<SteamControllerThreadTask> detaching = new ArrayList<SteamControllerThreadTask>();
+	protected boolean async = false;
+	protected boolean sync = false;
+	
+	public SteamControllerWorker(Context context, SteamControllerThreadTask[] controllerTasks, boolean spin)
+	{
+		this.context = context;
+		this.controllerTasks = controllerTasks;
+		this.spin = spin;
+		this.readTimeout = spin ? 0L : SteamControllerThreadTask.POLL_TIMEOUT;
+	}
+	
+	/**Adds a controller to this worker. The controller is initialized on the worker's thread, 
+	 * without disturbing the other controllers. This may be called from any thread.*/
+	public void attach(SteamControllerThreadTask task)
+	{
+		attached.add(task);
+	}
+	
+	/**Removes a controller from this worker. The controller's transfers are cancelled and it is cleaned up on the worker's thread,
+	 * without disturbing the other controllers. This may be called from any thread.*/
+	public void detach(SteamControllerThreadTask task)
+	{
+		detached.add(task);
+	}
+	
+	@Override
+	public void run()
+	{
+		try {
+			for(SteamControllerThreadTask ct : controllerTasks)
+				start(ct);
+			updateModes();
+			while(alive)
+			{
+				if(!attached.isEmpty() || !detached.isEmpty() || !detaching.isEmpty())
+					updateTasks();
+				boolean active = false;	
+				for(SteamControllerThreadTask ct : controllerTasks)
+				{
+					if(!ct.isAsync())
+						active |= ct.run(readTimeout);
+				}
+				if(handleEvents)
+				{
+					//Block for reports until the next synchronous controller is due, if there is nothing else to do
+					long timeout = 0L;
+					if(async && !spin && !active)
+						timeout = getIdleNanos(System.nanoTime())/1000L;
+					LibUsb.handleEventsTimeout(context, timeout);
+					active |= processCompletedTransfers();
+				}
+				for(SteamControllerThreadTask ct : controllerTasks)
+					ct.updateHaptics();
+				if(!active)
+				{
+					if(spin)
+						spinWait.run();
+					else if(!async)
+						idle();
+				}
+			}
+		} finally {
+			//Controllers that were never started only need to be cleaned up
+			SteamControllerThreadTask ct;
+			while((ct = attached.poll()) != null)
+				ct.cleanup();
+			detaching.addAll(Arrays.asList(controllerTasks));
+			controllerTasks = detaching.toArray(new SteamControllerThreadTask[detaching.size()]);
+			for(SteamControllerThreadTask t : controllerTasks)
+				t.cancelTransfers();
+			//Cancellations are reported through event handling, transfers can't be freed before that
+			for(int i = 0; i<100 && hasPendingTransfers(); i++)
+			{
+				if(handleEvents)
+				{
+					LibUsb.handleEventsTimeout(context, 10000L);
+					processCompletedTransfers();
+				}
+				else
+				{
+					//The event handling worker completes the transfers
+					try {
+						Thread.sleep(10);
+					} catch(InterruptedException e) {
+						//Don't care
+					}
+				}
+			}
+			for(SteamControllerThreadTask t : controllerTasks)
+				t.cleanup();
+		}
+	}
+	
+	protected void start(SteamControllerThreadTask ct)
+	{
+		ct.init();
+		if(ct.isAsync())
+			ct.submitTransfers(this);
+	}
+	
+	/**Adds and removes the controllers that have been attached or detached since the last call.
+	 * Removed controllers are cleaned up once libusb has returned all of their transfers.*/
+	protected void updateTasks()
+	{
+		ArrayList<SteamControllerThreadTask> tasks = new ArrayList<SteamControllerThreadTask>(Arrays.asList(controllerTasks));
+		SteamControllerThreadTask ct;
+		while((ct = detached.poll()) != null)
+		{
+			if(tasks.remove(ct))
+			{
+				ct.remove();
+				detaching.add(ct);
+			}
+			else if(attached.remove(ct))
+				ct.cleanup();
+		}
+		while((ct = attached.poll()) != null)
+		{
+			start(ct);
+			tasks.add(ct);
+		}
+		for(int i = detaching.size()-1; i>=0; i--)
+		{
+			//Only the event handling worker completes transfers, so the others just wait for it
+			if(!detaching.get(i).hasPendingTransfers())
+				detaching.remove(i).cleanup();
+		}
+		controllerTasks = tasks.toArray(new SteamControllerThreadTask[tasks.size()]);
+		updateModes();
+	}
+	
+	protected void updateModes()
+	{
+		async = false;
+		sync = false;
+		for(SteamControllerThreadTask ct : controllerTasks)
+		{
+			if(ct.isAsync())
+				async = true;
+			else
+				sync = true;
+		}
+	}
+
+	/**Sleeps until the next synchronous controller is due to be read, or at most {@link #IDLE_SLEEP}.*/
+	protected void idle()
+	{
+		long wait = getIdleNanos(System.nanoTime());
+		if(wait > 0)
+			LockSupport.parkNanos(wait);
+	}
+	
+	/**Returns the time until the next synchronous controller is due to be read, or any controller's haptics are due to be updated,
+	 * or {@link #IDLE_SLEEP} if that is sooner.*/
+	protected long getIdleNanos(long now)
+	{
+		long wait = IDLE_SLEEP;
+		for(SteamControllerThreadTask ct : controllerTasks)
+		{
+			if(!ct.isAsync())
+				wait = Math.min(wait, ct.getPollDelay(now));
+			wait = Math.min(wait, ct.getHapticDelay());
+		}
+		return wait;
+	}
+
+	@Override
+	public void processTransfer(Transfer transfer)
+	{
+		completedTransfers.add(transfer);
+	}
+
+	protected boolean processCompletedTransfers()
+	{
+		boolean active = false;
+		Transfer t;
+		while((t = completedTransfers.poll()) != null)
+			active |= ((SteamControllerThreadTask)t.userData()).transferCompleted(t);
+		return active;
+	}
+
+	protected boolean hasPendingTransfers()
+	{
+		for(SteamControllerThreadTask ct : controllerTasks)
+		{
+			if(ct.hasPendingTransfers())
+				return true;
+		}
+		return false;
+	}
+}